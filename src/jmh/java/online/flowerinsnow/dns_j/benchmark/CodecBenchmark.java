@@ -0,0 +1,81 @@
+package online.flowerinsnow.dns_j.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.dns.*;
+import online.flowerinsnow.dns_j.util.DNSCodec;
+import online.flowerinsnow.dns_j.util.NettyDatagramDnsResponseDecoder;
+import online.flowerinsnow.dns_j.util.NettyDnsQueryEncoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Netty DNS 消息与报文之间的编解码</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private static final InetSocketAddress SENDER = new InetSocketAddress("127.0.0.1", 53);
+    private static final InetSocketAddress RECIPIENT = new InetSocketAddress("127.0.0.1", 5353);
+
+    private final NettyDatagramDnsResponseDecoder decoder = new NettyDatagramDnsResponseDecoder();
+    private DnsQuery query;
+    private ByteBuf out;
+    private byte[] response;
+
+    @Setup
+    public void setup() {
+        this.query = new DatagramDnsQuery(RECIPIENT, SENDER, 0x1234)
+                .setRecursionDesired(true)
+                .setRecord(DnsSection.QUESTION, new DefaultDnsQuestion(Messages.NAME + ".", DnsRecordType.A));
+        this.out = Unpooled.buffer(512);
+        this.response = Messages.response(0x1234);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.query.release();
+        this.out.release();
+    }
+
+    @Benchmark
+    public ByteBuf encodeQuery() throws Exception {
+        this.out.clear();
+        NettyDnsQueryEncoder.DEFAULT.encode(this.query, this.out);
+        return this.out;
+    }
+
+    @Benchmark
+    public int decodeResponse() throws Exception {
+        DnsResponse response = this.decoder.decode(SENDER, RECIPIENT, Unpooled.wrappedBuffer(this.response));
+        try {
+            return response.count();
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * <p>转发路径上的编码：DnsQuery 到报文数组</p>
+     */
+    @Benchmark
+    public byte[] codecEncode() {
+        return DNSCodec.encode(this.query);
+    }
+
+    /**
+     * <p>转发路径上的解码：报文数组到 DnsResponse</p>
+     */
+    @Benchmark
+    public int codecDecode() {
+        DnsResponse response = DNSCodec.decode(this.response, SENDER, RECIPIENT);
+        try {
+            return response.count();
+        } finally {
+            response.release();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package online.flowerinsnow.dns_j.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+import io.netty.handler.codec.dns.DnsQuery;
+import io.netty.handler.codec.dns.DnsResponse;
+import online.flowerinsnow.dns_j.admission.Admission;
+import online.flowerinsnow.dns_j.audit.AuditLog;
+import online.flowerinsnow.dns_j.client.DoHClient;
+import online.flowerinsnow.dns_j.client.Upstream;
+import online.flowerinsnow.dns_j.client.UpstreamGroup;
+import online.flowerinsnow.dns_j.client.UpstreamStrategy;
+import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.metrics.Metrics;
+import online.flowerinsnow.dns_j.resolver.DNSResolver;
+import online.flowerinsnow.dns_j.server.EventLoops;
+import online.flowerinsnow.dns_j.server.UDPDNSServer;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.*;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>完整转发路径：UDP 客户端 → {@link UDPDNSServer} → {@link DoHClient} → 进程内的 DoH 服务器，再原路返回</p>
+ * <p>替身 DoH 服务器使用 JDK 自带的 HTTP 服务器，收到查询后立即返回固定的响应（改写事务 ID），
+ * 测得的是 DnsJ 自身加上本机回环的开销；不启用缓存，每次查询都经过上游</p>
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ForwardBenchmark {
+    @Param({"false", "true"})
+    public boolean passthrough;
+
+    private ExecutorService upstreamExecutor;
+    private HttpServer upstreamServer;
+    private EventLoops loops;
+    private UpstreamGroup group;
+    private AuditLog audit;
+    private UDPDNSServer server;
+    private InetSocketAddress serverAddress;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+
+        // 替身 DoH 服务器
+        final byte[] template = Messages.response(0);
+        this.upstreamExecutor = Executors.newFixedThreadPool(4);
+        this.upstreamServer = HttpServer.create(new InetSocketAddress(loopback, 0), 0);
+        this.upstreamServer.setExecutor(this.upstreamExecutor);
+        this.upstreamServer.createContext("/dns-query", exchange -> {
+            byte[] query;
+            try (InputStream in = exchange.getRequestBody()) {
+                query = in.readAllBytes();
+            }
+            byte[] response = template.clone();
+            DNSWire.setId(response, DNSWire.id(query));
+            exchange.getResponseHeaders().set("Content-Type", "application/dns-message");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        this.upstreamServer.start();
+
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0, loopback)) {
+            port = probe.getLocalPort();
+        }
+        this.serverAddress = new InetSocketAddress(loopback, port);
+
+        Config config = new Config();
+        config.setBind(this.serverAddress);
+        config.setPassthrough(this.passthrough);
+        config.setCacheSize(0);
+        URL url = URI.create("http://" + loopback.getHostAddress() + ":" + this.upstreamServer.getAddress().getPort() + "/dns-query").toURL();
+
+        Metrics metrics = new Metrics();
+        this.loops = new EventLoops(config);
+        this.group = new UpstreamGroup(List.of(new Upstream("benchmark", new DoHClient(url, config), 1, 0, 0L, config.getQueryTimeout(), metrics)),
+                UpstreamStrategy.FASTEST, false, 95, 20L);
+        DNSResolver resolver = new DNSResolver(this.group, null, null, metrics, 0L);
+        this.audit = new AuditLog(config);
+        this.server = new UDPDNSServer(config, this.audit, metrics, new Admission(config), null, this.loops) {
+            @Override
+            public @NotNull CompletionStage<DnsResponse> getResponse(@NotNull DnsQuery query, @NotNull InetSocketAddress sender, @NotNull InetSocketAddress recipient) {
+                return resolver.resolve(query, sender, recipient);
+            }
+
+            @Override
+            public @NotNull CompletionStage<byte[]> getRawResponse(@NotNull byte[] query, @NotNull InetSocketAddress client) {
+                return resolver.resolve(query);
+            }
+        };
+        this.server.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.server.close();
+        this.group.close();
+        this.loops.close();
+        this.audit.close();
+        this.upstreamServer.stop(0);
+        this.upstreamExecutor.shutdownNow();
+    }
+
+    /**
+     * <p>每个线程一个 UDP 套接字</p>
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        private DatagramSocket socket;
+        private DatagramPacket request;
+        private DatagramPacket reply;
+
+        @Setup(Level.Trial)
+        public void setup(ForwardBenchmark benchmark) throws SocketException {
+            this.socket = new DatagramSocket();
+            this.socket.setSoTimeout(5000);
+            this.socket.connect(benchmark.serverAddress);
+            byte[] query = Messages.query(0x4a4a);
+            this.request = new DatagramPacket(query, query.length);
+            this.reply = new DatagramPacket(new byte[4096], 4096);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.socket.close();
+        }
+    }
+
+    @Benchmark
+    public int roundTrip(Client client) throws IOException {
+        client.socket.send(client.request);
+        client.reply.setLength(client.reply.getData().length);
+        client.socket.receive(client.reply);
+        return client.reply.getLength();
+    }
+}
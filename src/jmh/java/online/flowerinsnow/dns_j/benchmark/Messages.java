@@ -0,0 +1,101 @@
+package online.flowerinsnow.dns_j.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>基准测试使用的报文</p>
+ * <p>响应包含 CNAME、A、AAAA、MX、TXT、SRV 各一条以及 OPT 记录，域名按真实服务器的习惯使用压缩指针</p>
+ */
+final class Messages {
+    static final String NAME = "www.example.com";
+    // 问题中 example.com 的位置：报头 12 字节 + "\3www"
+    private static final int EXAMPLE_COM = 12 + 4;
+    private static final int QUESTION = 0xc00c;
+
+    private Messages() {
+    }
+
+    static @NotNull byte[] query(int id) {
+        ByteBuf buf = Unpooled.buffer(64);
+        buf.writeShort(id).writeShort(0x0100).writeShort(1).writeShort(0).writeShort(0).writeShort(1);
+        Messages.writeName(buf, NAME);
+        buf.writeShort(1).writeShort(1);
+        Messages.writeOpt(buf);
+        return ByteBufUtil.getBytes(buf);
+    }
+
+    static @NotNull byte[] response(int id) {
+        ByteBuf buf = Unpooled.buffer(512);
+        buf.writeShort(id).writeShort(0x8180).writeShort(1).writeShort(6).writeShort(0).writeShort(1);
+        Messages.writeName(buf, NAME);
+        buf.writeShort(1).writeShort(1);
+
+        // CNAME -> edge.example.com
+        Messages.writeHeader(buf, 5);
+        int length = buf.writerIndex();
+        buf.writeShort(0);
+        Messages.writeLabel(buf, "edge");
+        buf.writeShort(0xc000 | EXAMPLE_COM);
+        buf.setShort(length, buf.writerIndex() - length - 2);
+
+        // A
+        Messages.writeHeader(buf, 1);
+        buf.writeShort(4).writeBytes(new byte[]{93, (byte) 184, (byte) 216, 34});
+
+        // AAAA
+        Messages.writeHeader(buf, 28);
+        buf.writeShort(16).writeBytes(new byte[]{0x26, 0x06, 0x28, 0x00, 0x02, 0x20, 0x00, 0x01, 0x02, 0x48, 0x18, (byte) 0x93, 0x25, (byte) 0xc8, 0x19, 0x46});
+
+        // MX 10 mail.example.com
+        Messages.writeHeader(buf, 15);
+        length = buf.writerIndex();
+        buf.writeShort(0).writeShort(10);
+        Messages.writeLabel(buf, "mail");
+        buf.writeShort(0xc000 | EXAMPLE_COM);
+        buf.setShort(length, buf.writerIndex() - length - 2);
+
+        // TXT，两段字符串
+        Messages.writeHeader(buf, 16);
+        length = buf.writerIndex();
+        buf.writeShort(0);
+        Messages.writeLabel(buf, "v=spf1 include:_spf.example.com");
+        Messages.writeLabel(buf, " -all");
+        buf.setShort(length, buf.writerIndex() - length - 2);
+
+        // SRV 0 5 443 svc.example.com
+        Messages.writeHeader(buf, 33);
+        length = buf.writerIndex();
+        buf.writeShort(0).writeShort(0).writeShort(5).writeShort(443);
+        Messages.writeLabel(buf, "svc");
+        buf.writeShort(0xc000 | EXAMPLE_COM);
+        buf.setShort(length, buf.writerIndex() - length - 2);
+
+        Messages.writeOpt(buf);
+        return ByteBufUtil.getBytes(buf);
+    }
+
+    private static void writeHeader(@NotNull ByteBuf buf, int type) {
+        buf.writeShort(QUESTION).writeShort(type).writeShort(1).writeInt(300);
+    }
+
+    private static void writeName(@NotNull ByteBuf buf, @NotNull String name) {
+        for (String label : name.split("\\.")) {
+            Messages.writeLabel(buf, label);
+        }
+        buf.writeByte(0);
+    }
+
+    private static void writeLabel(@NotNull ByteBuf buf, @NotNull String label) {
+        byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+        buf.writeByte(bytes.length).writeBytes(bytes);
+    }
+
+    private static void writeOpt(@NotNull ByteBuf buf) {
+        buf.writeByte(0).writeShort(41).writeShort(1232).writeInt(0).writeShort(0);
+    }
+}
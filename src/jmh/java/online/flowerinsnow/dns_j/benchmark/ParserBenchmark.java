@@ -0,0 +1,119 @@
+package online.flowerinsnow.dns_j.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.dns.*;
+import online.flowerinsnow.dns_j.object.record.MXRecord;
+import online.flowerinsnow.dns_j.object.record.SRVRecord;
+import online.flowerinsnow.dns_j.util.DNSCodec;
+import online.flowerinsnow.dns_j.util.DNSRecordParser;
+import online.flowerinsnow.dns_j.util.DNSRecordView;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>记录内容解析与日志输出</p>
+ * <p>日志使用 src/jmh/resources/log4j2-test.xml 中的 Null appender，测得的是格式化而不是 I/O 的开销</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ParserBenchmark {
+    private static final Logger LOGGER = LogManager.getLogger("Benchmark");
+
+    private DnsResponse response;
+    private ByteBuf message;
+    private final DNSRecordView view = new DNSRecordView();
+    private ByteBuf a;
+    private ByteBuf aaaa;
+    private ByteBuf cname;
+    private ByteBuf mx;
+    private ByteBuf txt;
+    private ByteBuf srv;
+
+    @Setup
+    public void setup() {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 53);
+        byte[] bytes = Messages.response(0x1234);
+        this.message = Unpooled.wrappedBuffer(bytes);
+        this.response = DNSCodec.decode(bytes, address, address);
+        for (int i = 0; i < this.response.count(DnsSection.ANSWER); i++) {
+            DnsRecord record = this.response.recordAt(DnsSection.ANSWER, i);
+            if (!(record instanceof DnsRawRecord raw)) {
+                continue;
+            }
+            DnsRecordType type = record.type();
+            if (type == DnsRecordType.A) {
+                this.a = raw.content();
+            } else if (type == DnsRecordType.AAAA) {
+                this.aaaa = raw.content();
+            } else if (type == DnsRecordType.CNAME) {
+                this.cname = raw.content();
+            } else if (type == DnsRecordType.MX) {
+                this.mx = raw.content();
+            } else if (type == DnsRecordType.TXT) {
+                this.txt = raw.content();
+            } else if (type == DnsRecordType.SRV) {
+                this.srv = raw.content();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.response.release();
+        this.message.release();
+    }
+
+    @Benchmark
+    public String parseA() {
+        return DNSRecordParser.parseA(this.a.duplicate());
+    }
+
+    @Benchmark
+    public String parseAAAA() {
+        return DNSRecordParser.parseAAAA(this.aaaa.duplicate());
+    }
+
+    @Benchmark
+    public String parseName() {
+        return DNSRecordParser.parseName(this.cname.duplicate());
+    }
+
+    @Benchmark
+    public MXRecord parseMX() {
+        return DNSRecordParser.parseMX(this.mx.duplicate());
+    }
+
+    @Benchmark
+    public String parseTXT() {
+        return DNSRecordParser.parseTXT(this.txt.duplicate());
+    }
+
+    @Benchmark
+    public SRVRecord parseSRV() {
+        return DNSRecordParser.parseSRV(this.srv.duplicate());
+    }
+
+    /**
+     * <p>不创建记录对象，直接在报文上访问所有记录</p>
+     */
+    @Benchmark
+    public void visit(Blackhole blackhole) {
+        DNSRecordParser.visit(this.message, this.view, record -> {
+            blackhole.consume(record.type());
+            blackhole.consume(record.ttl());
+            return true;
+        });
+    }
+
+    @Benchmark
+    public void logMsg() {
+        DNSRecordParser.logMsg(LOGGER, this.response);
+    }
+}
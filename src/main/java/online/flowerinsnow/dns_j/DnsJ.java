@@ -1,79 +1,415 @@
 package online.flowerinsnow.dns_j;
 
-import groovy.lang.Binding;
-import groovy.lang.GroovyShell;
 import io.netty.handler.codec.dns.DnsQuery;
 import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import online.flowerinsnow.dns_j.admission.Admission;
+import online.flowerinsnow.dns_j.audit.AuditLog;
+import online.flowerinsnow.dns_j.cache.CacheSnapshot;
+import online.flowerinsnow.dns_j.cache.DNSCache;
 import online.flowerinsnow.dns_j.client.DoHClient;
+import online.flowerinsnow.dns_j.client.DoTClient;
+import online.flowerinsnow.dns_j.client.PlainDNSClient;
+import online.flowerinsnow.dns_j.client.Upstream;
+import online.flowerinsnow.dns_j.client.UpstreamClient;
+import online.flowerinsnow.dns_j.client.UpstreamGroup;
 import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.config.ConfigLoader;
+import online.flowerinsnow.dns_j.config.ConfigWatcher;
+import online.flowerinsnow.dns_j.local.LocalResolver;
+import online.flowerinsnow.dns_j.metrics.Metrics;
+import online.flowerinsnow.dns_j.metrics.MetricsServer;
+import online.flowerinsnow.dns_j.metrics.QueryAnalytics;
+import online.flowerinsnow.dns_j.resolver.DNSResolver;
+import online.flowerinsnow.dns_j.resolver.RouteTable;
+import online.flowerinsnow.dns_j.server.DoHDNSServer;
+import online.flowerinsnow.dns_j.server.EventLoops;
+import online.flowerinsnow.dns_j.server.ServerTLS;
+import online.flowerinsnow.dns_j.server.TCPDNSServer;
 import online.flowerinsnow.dns_j.server.UDPDNSServer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import javax.net.ssl.SSLException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
 public class DnsJ {
     private static UDPDNSServer server;
+    private static TCPDNSServer tcpServer;
+    private static TCPDNSServer dotServer;
+    private static DoHDNSServer dohServer;
+    private static EventLoops loops;
+    private static MetricsServer metricsServer;
+    private static UpstreamGroup client;
+    private static RouteTable routes;
+    private static AuditLog audit;
+    private static LocalResolver local;
+    private static CacheSnapshot snapshot;
+    private static DNSResolver resolver;
+    private static ConfigWatcher watcher;
+    private static Config config;
+    private static Metrics metrics;
 
     public static void main(String[] args) {
         final Logger logger = LogManager.getLogger("Main");
 
-        // 加载配置文件（Groovy脚本）
-        Binding binding = new Binding();
-        Config config = new Config();
-        binding.setProperty("config", config);
-
-        // 运行配置文件（Groovy脚本）
-        GroovyShell shell = new GroovyShell(binding);
-        try (InputStream in = DnsJ.class.getResourceAsStream("/config.groovy")) {
-            //noinspection DataFlowIssue
-            try (InputStreamReader isr = new InputStreamReader(in, StandardCharsets.UTF_8)) {
-                shell.evaluate(isr);
+        // 加载配置文件：命令行参数指定的文件，或工作目录下的 config.properties，都没有时使用内置的默认配置
+        Path configFile = args.length > 0 ? Path.of(args[0]) : Path.of("config.properties");
+        Config config;
+        try {
+            if (Files.exists(configFile)) {
+                config = ConfigLoader.load(configFile);
+            } else if (args.length > 0) {
+                logger.error("配置文件 {} 不存在", configFile);
+                System.exit(-1);
+                return;
+            } else {
+                configFile = null;
+                config = ConfigLoader.loadResource();
             }
-        } catch (IOException e) {
-            logger.error("读取 config.groovy 失败", e);
+        } catch (IOException | RuntimeException e) {
+            logger.error("读取配置文件失败", e);
             System.exit(-1);
             return;
         }
+        DnsJ.config = config;
+
+        // 所有监听与 DoT 上游连接共用同一组事件循环
+        DnsJ.loops = new EventLoops(config);
+        Metrics metrics = new Metrics();
+        DnsJ.metrics = metrics;
 
-        // 检查 DoH 地址是否合法
-        URL dnsServerURL;
         try {
-            dnsServerURL = URI.create(config.getDomainNameServer()).toURL();
-        } catch (MalformedURLException e) {
-            logger.error("{} 不是合法 DoH 服务器", config.getDomainNameServer());
-            logger.throwing(e);
+            DnsJ.client = DnsJ.upstreams(config, metrics);
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage(), e.getCause());
             System.exit(-1);
             return;
         }
+        try {
+            DnsJ.routes = DnsJ.routes(config, metrics);
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage(), e.getCause());
+            DnsJ.client.close();
+            System.exit(-1);
+            return;
+        }
+        DNSCache cache = config.getCacheSize() > 0 ? new DNSCache(config) : null;
+        if (cache != null && config.getCacheSnapshot() != null) {
+            // 在开始监听前恢复缓存，重启后的第一个查询就能命中
+            DnsJ.snapshot = new CacheSnapshot(cache, config);
+            DnsJ.snapshot.load();
+            DnsJ.snapshot.start();
+        }
+
+        // 加载本地解析，必须在开始监听前完成
+        if (LocalResolver.isEnabled(config)) {
+            DnsJ.local = new LocalResolver(config, metrics);
+            try {
+                DnsJ.local.start();
+            } catch (IOException e) {
+                logger.error("加载本地解析失败", e);
+                System.exit(-1);
+                return;
+            }
+        }
+        DNSResolver resolver = new DNSResolver(DnsJ.client, DnsJ.local, cache, metrics, config.getStaleTimeout());
+        resolver.setRoutes(DnsJ.routes);
+        DnsJ.resolver = resolver;
+
+        // 创建审计日志
+        DnsJ.audit = new AuditLog(config);
+
+        // 查询流分析，在 UDP 入口记录
+        QueryAnalytics analytics = QueryAnalytics.isEnabled(config) ? new QueryAnalytics(config) : null;
 
         // 创建服务器
-        DnsJ.server = new UDPDNSServer(config.getBind()) {
+        DnsJ.server = new UDPDNSServer(config, DnsJ.audit, metrics, new Admission(config), analytics, DnsJ.loops) {
             @Override
-            public @NotNull DnsResponse getResponse(@NotNull DnsQuery query, @NotNull InetSocketAddress sender, @NotNull InetSocketAddress recipient) {
-                try {
-                    return DoHClient.query(dnsServerURL, query, config.getProxy(), sender, recipient);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+            public @NotNull CompletionStage<DnsResponse> getResponse(@NotNull DnsQuery query, @NotNull InetSocketAddress sender, @NotNull InetSocketAddress recipient) {
+                return resolver.resolve(query, sender, recipient);
+            }
+
+            @Override
+            public @NotNull CompletionStage<byte[]> getRawResponse(@NotNull byte[] query, @NotNull InetSocketAddress client) {
+                return resolver.resolve(query);
             }
         };
+        if (config.isTcp()) {
+            DnsJ.tcpServer = new TCPDNSServer(config, DnsJ.audit, metrics, DnsJ.loops) {
+                @Override
+                public @NotNull CompletionStage<byte[]> getRawResponse(@NotNull byte[] query, @NotNull InetSocketAddress client) {
+                    return resolver.resolve(query);
+                }
+            };
+        }
+        try {
+            if (config.getDotBind() != null) {
+                SslContext sslContext = ServerTLS.forServer(config, "dot");
+                DnsJ.dotServer = new TCPDNSServer(config, DnsJ.audit, metrics, DnsJ.loops, config.getDotBind(), sslContext) {
+                    @Override
+                    public @NotNull CompletionStage<byte[]> getRawResponse(@NotNull byte[] query, @NotNull InetSocketAddress client) {
+                        return resolver.resolve(query);
+                    }
+                };
+            }
+            if (config.getDohBind() != null) {
+                SslContext sslContext = ServerTLS.forServer(config, ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1);
+                DnsJ.dohServer = new DoHDNSServer(config, DnsJ.audit, metrics, DnsJ.loops, sslContext) {
+                    @Override
+                    public @NotNull CompletionStage<byte[]> getRawResponse(@NotNull byte[] query, @NotNull InetSocketAddress client) {
+                        return resolver.resolve(query);
+                    }
+                };
+            }
+        } catch (SSLException | IllegalArgumentException | NullPointerException e) {
+            logger.error("加载 TLS 证书失败", e);
+            DnsJ.shutdown();
+            System.exit(-1);
+            return;
+        }
+        if (config.getMetricsBind() != null) {
+            DnsJ.metricsServer = new MetricsServer(metrics, analytics, config.getMetricsBind(), DnsJ.loops);
+        }
         // 启动服务器
+        SocketAddress binding = config.getBind();
         try {
             DnsJ.server.start();
+            if (DnsJ.tcpServer != null) {
+                DnsJ.tcpServer.start();
+            }
+            if (DnsJ.dotServer != null) {
+                binding = config.getDotBind();
+                DnsJ.dotServer.start();
+            }
+            if (DnsJ.dohServer != null) {
+                binding = config.getDohBind();
+                DnsJ.dohServer.start();
+            }
+            if (DnsJ.metricsServer != null) {
+                binding = config.getMetricsBind();
+                DnsJ.metricsServer.start();
+            }
         } catch (BindException e) {
-            logger.error("地址 {} 正在使用，绑定失败", config.getBind());
-            DnsJ.server.close();
+            logger.error("地址 {} 正在使用，绑定失败", binding);
+            DnsJ.shutdown();
             System.exit(-1);
             return;
         }
 
+        // 监视配置文件，修改后在运行时应用上游、条件转发、代理与准入限制
+        if (configFile != null) {
+            try {
+                DnsJ.watcher = new ConfigWatcher(configFile, DnsJ::reload);
+                DnsJ.watcher.start();
+            } catch (IOException e) {
+                logger.warn("无法监视配置文件 {}，修改后需要重启", configFile, e);
+            }
+        }
+
         // 添加关闭时释放代码 hook
-        Runtime.getRuntime().addShutdownHook(new Thread(DnsJ.server::close));
+        Runtime.getRuntime().addShutdownHook(new Thread(DnsJ::shutdown));
+    }
+
+    /**
+     * <p>创建默认上游，每个上游的所有查询共用同一个连接池</p>
+     *
+     * @throws IllegalArgumentException 上游地址不合法
+     */
+    private static @NotNull UpstreamGroup upstreams(@NotNull Config config, @NotNull Metrics metrics) {
+        List<String> servers = config.getDomainNameServers() != null && !config.getDomainNameServers().isEmpty()
+                ? config.getDomainNameServers() : List.of(config.getDomainNameServer());
+        return DnsJ.upstreams(servers, config, metrics, config.getProxy());
+    }
+
+    /**
+     * <p>创建一组上游</p>
+     *
+     * @param servers 上游地址
+     * @param proxy 连接上游使用的代理，为 null 时直接连接
+     * @throws IllegalArgumentException 上游地址不合法
+     */
+    private static @NotNull UpstreamGroup upstreams(@NotNull List<String> servers, @NotNull Config config, @NotNull Metrics metrics, @Nullable Proxy proxy) {
+        List<Upstream> upstreams = new ArrayList<>(servers.size());
+        for (String address : servers) {
+            UpstreamClient upstreamClient;
+            try {
+                upstreamClient = DnsJ.upstreamClient(address, config, proxy);
+            } catch (MalformedURLException | IllegalArgumentException | SSLException e) {
+                for (Upstream upstream : upstreams) {
+                    upstream.close();
+                }
+                throw new IllegalArgumentException(address + " 不是合法上游服务器", e);
+            }
+            Integer weight = config.getUpstreamWeights() != null ? config.getUpstreamWeights().get(address) : null;
+            upstreams.add(new Upstream(address, upstreamClient, weight != null ? weight : 1,
+                    config.getCircuitBreakerThreshold(), config.getCircuitBreakerCooldown(), config.getQueryTimeout(), metrics));
+        }
+        return new UpstreamGroup(upstreams, config.getUpstreamStrategy(), config.isHedging(), config.getHedgePercentile(), config.getHedgeMinDelay());
+    }
+
+    /**
+     * <p>https:// 为 DoH，tls://host[:port] 为 DoT（默认端口 853），udp://host[:port] 与 tcp://host[:port] 为普通 DNS（默认端口 53）</p>
+     */
+    private static @NotNull UpstreamClient upstreamClient(@NotNull String address, @NotNull Config config, @Nullable Proxy proxy) throws MalformedURLException, SSLException {
+        URI uri = URI.create(address);
+        String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.ROOT) : "";
+        switch (scheme) {
+            case "tls" -> {
+                if (uri.getHost() == null) {
+                    throw new IllegalArgumentException("缺少主机名");
+                }
+                return new DoTClient(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : 853, config, DnsJ.loops, proxy);
+            }
+            case "udp", "tcp" -> {
+                if (uri.getHost() == null) {
+                    throw new IllegalArgumentException("缺少主机名");
+                }
+                InetSocketAddress server = new InetSocketAddress(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : 53);
+                if (server.isUnresolved() && (proxy == null || proxy.type() == Proxy.Type.DIRECT)) {
+                    throw new IllegalArgumentException("无法解析主机名 " + uri.getHost());
+                }
+                return new PlainDNSClient(server, scheme.equals("tcp"), proxy, config, DnsJ.loops);
+            }
+            default -> {
+                return new DoHClient(uri.toURL(), config, proxy);
+            }
+        }
+    }
+
+    /**
+     * <p>创建条件转发规则，每条规则有自己的一组上游</p>
+     *
+     * @return 规则表，没有规则时返回 null
+     * @throws IllegalArgumentException 规则或上游地址不合法
+     */
+    private static @Nullable RouteTable routes(@NotNull Config config, @NotNull Metrics metrics) {
+        if (config.getForwardRules() == null || config.getForwardRules().isEmpty()) {
+            return null;
+        }
+        Map<String, Proxy> proxies = config.getForwardProxies() != null ? config.getForwardProxies() : Map.of();
+        RouteTable.Builder builder = new RouteTable.Builder();
+        for (Map.Entry<String, String> rule : config.getForwardRules().entrySet()) {
+            List<String> servers = new ArrayList<>();
+            for (String server : rule.getValue().split(",")) {
+                if (!server.isBlank()) {
+                    servers.add(server.trim());
+                }
+            }
+            UpstreamGroup group;
+            try {
+                if (servers.isEmpty()) {
+                    throw new IllegalArgumentException("条件转发规则 " + rule.getKey() + " 没有上游");
+                }
+                group = DnsJ.upstreams(servers, config, metrics, proxies.getOrDefault(rule.getKey(), config.getProxy()));
+            } catch (IllegalArgumentException e) {
+                builder.discard();
+                throw e;
+            }
+            try {
+                builder.add(rule.getKey(), group);
+            } catch (IllegalArgumentException e) {
+                group.close();
+                builder.discard();
+                throw new IllegalArgumentException(rule.getKey() + " 不是合法的条件转发规则", e);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * <p>在运行时应用新的配置：重新创建上游与条件转发规则（包括代理设置）并替换准入控制，不重新绑定端口</p>
+     * <p>替换是原子的，进行中的查询继续使用旧的上游，旧上游在查询超时时间之后关闭</p>
+     */
+    private static synchronized void reload(@NotNull Config config) {
+        final Logger logger = LogManager.getLogger("Main");
+        UpstreamGroup client;
+        try {
+            client = DnsJ.upstreams(config, DnsJ.metrics);
+        } catch (IllegalArgumentException e) {
+            logger.error("{}，继续使用当前配置", e.getMessage(), e.getCause());
+            return;
+        }
+        RouteTable routes;
+        try {
+            routes = DnsJ.routes(config, DnsJ.metrics);
+        } catch (IllegalArgumentException e) {
+            logger.error("{}，继续使用当前配置", e.getMessage(), e.getCause());
+            client.close();
+            return;
+        }
+        UpstreamGroup old = DnsJ.resolver.setClient(client);
+        RouteTable oldRoutes = DnsJ.resolver.setRoutes(routes);
+        DnsJ.client = client;
+        DnsJ.routes = routes;
+        DnsJ.server.setAdmission(new Admission(config));
+        DnsJ.loops.worker().schedule(() -> {
+            old.close();
+            if (oldRoutes != null) {
+                oldRoutes.close();
+            }
+        }, DnsJ.config.getQueryTimeout(), TimeUnit.MILLISECONDS);
+
+        Config previous = DnsJ.config;
+        DnsJ.warnIfChanged("bind", previous.getBind(), config.getBind());
+        DnsJ.warnIfChanged("dotBind", previous.getDotBind(), config.getDotBind());
+        DnsJ.warnIfChanged("dohBind", previous.getDohBind(), config.getDohBind());
+        DnsJ.warnIfChanged("metricsBind", previous.getMetricsBind(), config.getMetricsBind());
+        DnsJ.warnIfChanged("tcp", previous.isTcp(), config.isTcp());
+        DnsJ.warnIfChanged("epoll", previous.isEpoll(), config.isEpoll());
+        DnsJ.warnIfChanged("listeners", previous.getListeners(), config.getListeners());
+        DnsJ.warnIfChanged("cacheSize", previous.getCacheSize(), config.getCacheSize());
+        DnsJ.config = config;
+        logger.info("已应用新的上游、条件转发、代理与准入控制配置");
+    }
+
+    private static void warnIfChanged(@NotNull String name, Object previous, Object current) {
+        if (!Objects.equals(previous, current)) {
+            LogManager.getLogger("Main").warn("{} 已修改，需要重启才能生效", name);
+        }
+    }
+
+    private static void shutdown() {
+        if (DnsJ.watcher != null) {
+            DnsJ.watcher.close();
+        }
+        DnsJ.server.close();
+        if (DnsJ.tcpServer != null) {
+            DnsJ.tcpServer.close();
+        }
+        if (DnsJ.dotServer != null) {
+            DnsJ.dotServer.close();
+        }
+        if (DnsJ.dohServer != null) {
+            DnsJ.dohServer.close();
+        }
+        if (DnsJ.metricsServer != null) {
+            DnsJ.metricsServer.close();
+        }
+        if (DnsJ.snapshot != null) {
+            DnsJ.snapshot.close();
+        }
+        DnsJ.client.close();
+        if (DnsJ.routes != null) {
+            DnsJ.routes.close();
+        }
+        if (DnsJ.local != null) {
+            DnsJ.local.close();
+        }
+        DnsJ.loops.close();
+        DnsJ.audit.close();
     }
 }
@@ -0,0 +1,115 @@
+package online.flowerinsnow.dns_j;
+
+import online.flowerinsnow.dns_j.load.FakeDoHServer;
+import online.flowerinsnow.dns_j.load.LoadGenerator;
+import online.flowerinsnow.dns_j.load.QuerySource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>压测工具入口</p>
+ * <p>以开环方式向 DnsJ 发送 UDP 查询并报告吞吐量、丢失率与延迟百分位，也可以启动本地 DoH 上游替身，
+ * 使 DnsJ 不依赖真实解析器即可在单机上压测</p>
+ * <pre>
+ * java -cp DnsJ.jar online.flowerinsnow.dns_j.DnsJLoad [选项]
+ *   --target 127.0.0.1:53     被测服务器
+ *   --rate 1000               目标速率（次/秒），为 0 时只运行上游替身
+ *   --duration 30             持续时间（秒）
+ *   --sockets 4               发送使用的套接字数
+ *   --timeout 2000            发送结束后等待剩余应答的时间（毫秒）
+ *   --replay queries.txt      重放查询日志（每行“域名 [类型]”或审计日志 JSON 行）
+ *   --names 100000            不重放时合成的域名数，流行度服从 Zipf 分布
+ *   --zipf 1.0                Zipf 指数
+ *   --suffix example.com      合成域名的后缀
+ *   --fake-upstream 127.0.0.1:8053  启动 DoH 上游替身，DnsJ 的上游设为 http://127.0.0.1:8053/dns-query
+ *   --latency 0               上游替身的固定延迟（毫秒）
+ *   --jitter 0                上游替身的随机延迟上限（毫秒）
+ *   --error-rate 0            上游替身返回 HTTP 500 的比例
+ *   --servfail-rate 0         上游替身返回 SERVFAIL 的比例
+ *   --ttl 300                 上游替身应答的 TTL（秒）
+ * </pre>
+ */
+public class DnsJLoad {
+    public static void main(String[] args) {
+        final Logger logger = LogManager.getLogger("Load");
+
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                logger.error("无法识别的参数 {}，参数格式为 --名称 值", args[i]);
+                System.exit(-1);
+                return;
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+
+        FakeDoHServer upstream = null;
+        try {
+            if (options.containsKey("fake-upstream")) {
+                upstream = new FakeDoHServer(DnsJLoad.address(options.get("fake-upstream"), 8053),
+                        Long.parseLong(options.getOrDefault("latency", "0")),
+                        Long.parseLong(options.getOrDefault("jitter", "0")),
+                        Double.parseDouble(options.getOrDefault("error-rate", "0")),
+                        Double.parseDouble(options.getOrDefault("servfail-rate", "0")),
+                        Long.parseLong(options.getOrDefault("ttl", "300")));
+                upstream.start();
+            }
+
+            double rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+            if (rate <= 0.0D) {
+                if (upstream == null) {
+                    logger.error("速率为 0 且未启动上游替身，没有要做的事");
+                    System.exit(-1);
+                    return;
+                }
+                // 只运行上游替身，直到进程被终止
+                FakeDoHServer running = upstream;
+                Runtime.getRuntime().addShutdownHook(new Thread(running::close));
+                Thread.currentThread().join();
+                return;
+            }
+
+            QuerySource source = options.containsKey("replay")
+                    ? QuerySource.replay(Path.of(options.get("replay")))
+                    : QuerySource.zipf(Integer.parseInt(options.getOrDefault("names", "100000")),
+                            Double.parseDouble(options.getOrDefault("zipf", "1.0")),
+                            options.getOrDefault("suffix", "example.com"));
+            new LoadGenerator(DnsJLoad.address(options.getOrDefault("target", "127.0.0.1:53"), 53), source, rate,
+                    Long.parseLong(options.getOrDefault("duration", "30")),
+                    Integer.parseInt(options.getOrDefault("sockets", "4")),
+                    Long.parseLong(options.getOrDefault("timeout", "2000"))).run();
+        } catch (IOException e) {
+            logger.error("压测失败", e);
+            System.exit(-1);
+        } catch (IllegalArgumentException e) {
+            logger.error("参数错误：{}", e.getMessage());
+            System.exit(-1);
+        } catch (InterruptedException e) {
+            logger.warn("线程中断");
+        } finally {
+            if (upstream != null) {
+                upstream.close();
+            }
+        }
+    }
+
+    /**
+     * @param value 主机:端口，IPv6 地址需要放在方括号中
+     * @param defaultPort 未指定端口时使用的端口
+     */
+    private static @NotNull InetSocketAddress address(@NotNull String value, int defaultPort) {
+        URI uri = URI.create("dns://" + value);
+        if (uri.getHost() == null) {
+            throw new IllegalArgumentException(value + " 不是合法地址");
+        }
+        return new InetSocketAddress(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : defaultPort);
+    }
+}
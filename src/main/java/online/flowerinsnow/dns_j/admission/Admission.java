@@ -0,0 +1,106 @@
+package online.flowerinsnow.dns_j.admission;
+
+import online.flowerinsnow.dns_j.config.Config;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>入口准入控制，在查询交给解析器之前执行</p>
+ * <ul>
+ *     <li>按客户端地址前缀限速，见 {@link RateLimiter}</li>
+ *     <li>全局进行中查询数上限，上游变慢时不会无限堆积</li>
+ *     <li>延迟预算：近期应答延迟的指数加权移动平均超过预算时，按超出的比例随机拒绝新查询，
+ *     使延迟回到预算附近，而不是让所有客户端一起排队</li>
+ * </ul>
+ * <p>所有检查都是无锁的；接纳的查询完成后必须调用 {@link #complete(long)}</p>
+ */
+public class Admission {
+    private static final double EWMA_ALPHA = 0.05D;
+
+    @Nullable private final RateLimiter rateLimiter;
+    private final int maxInFlight;
+    private final long latencyBudget;
+    @NotNull private final ShedPolicy policy;
+    @NotNull private final AtomicInteger inFlight = new AtomicInteger();
+    @NotNull private final AtomicLong ewma = new AtomicLong(Double.doubleToRawLongBits(0.0D));
+
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>rateLimit、rateLimitBurst、rateLimitIPv4Prefix、rateLimitIPv6Prefix、rateLimitTableSize：客户端限速</li>
+     *     <li>maxInFlight：进行中查询数上限</li>
+     *     <li>latencyBudget：延迟预算</li>
+     *     <li>shedPolicy：未被接纳的查询的处理方式</li>
+     * </ul>
+     *
+     * @param config 配置
+     */
+    public Admission(@NotNull Config config) {
+        this.rateLimiter = config.getRateLimit() > 0.0D
+                ? new RateLimiter(config.getRateLimit(),
+                        config.getRateLimitBurst() > 0 ? config.getRateLimitBurst() : (int) Math.ceil(config.getRateLimit()),
+                        config.getRateLimitIPv4Prefix(), config.getRateLimitIPv6Prefix(), config.getRateLimitTableSize())
+                : null;
+        this.maxInFlight = config.getMaxInFlight();
+        this.latencyBudget = TimeUnit.MILLISECONDS.toNanos(config.getLatencyBudget());
+        this.policy = config.getShedPolicy();
+    }
+
+    /**
+     * <p>检查是否接纳来自客户端的查询，接纳时计入进行中查询</p>
+     *
+     * @param client 客户端地址
+     * @return 检查结果
+     */
+    public @NotNull AdmissionResult admit(@NotNull InetAddress client) {
+        if (this.rateLimiter != null && !this.rateLimiter.tryAcquire(client)) {
+            return AdmissionResult.RATE_LIMITED;
+        }
+        if (this.latencyBudget > 0L) {
+            double latency = Double.longBitsToDouble(this.ewma.get());
+            if (latency > this.latencyBudget && ThreadLocalRandom.current().nextDouble() >= this.latencyBudget / latency) {
+                return AdmissionResult.LATENCY;
+            }
+        }
+        if (this.maxInFlight > 0) {
+            if (this.inFlight.incrementAndGet() > this.maxInFlight) {
+                this.inFlight.decrementAndGet();
+                return AdmissionResult.IN_FLIGHT;
+            }
+        } else {
+            this.inFlight.incrementAndGet();
+        }
+        return AdmissionResult.ADMITTED;
+    }
+
+    /**
+     * <p>一个被接纳的查询已应答</p>
+     *
+     * @param latency 从收到查询到得到响应的时间（纳秒）
+     */
+    public void complete(long latency) {
+        this.inFlight.decrementAndGet();
+        if (this.latencyBudget > 0L) {
+            long prev;
+            long next;
+            do {
+                prev = this.ewma.get();
+                double average = Double.longBitsToDouble(prev);
+                next = Double.doubleToRawLongBits(average == 0.0D ? latency : average + EWMA_ALPHA * (latency - average));
+            } while (!this.ewma.compareAndSet(prev, next));
+        }
+    }
+
+    /**
+     * @return 未被接纳的查询的处理方式
+     */
+    public @NotNull ShedPolicy policy() {
+        return this.policy;
+    }
+}
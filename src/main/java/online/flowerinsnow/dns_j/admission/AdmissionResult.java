@@ -0,0 +1,35 @@
+package online.flowerinsnow.dns_j.admission;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>准入检查的结果</p>
+ */
+public enum AdmissionResult {
+    ADMITTED("admitted"),
+    /**
+     * 客户端超过速率限制
+     */
+    RATE_LIMITED("rate_limit"),
+    /**
+     * 进行中的查询数已达上限
+     */
+    IN_FLIGHT("in_flight"),
+    /**
+     * 近期应答延迟超过预算，按比例拒绝
+     */
+    LATENCY("latency");
+
+    @NotNull private final String label;
+
+    AdmissionResult(@NotNull String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return 指标标签值
+     */
+    public @NotNull String label() {
+        return this.label;
+    }
+}
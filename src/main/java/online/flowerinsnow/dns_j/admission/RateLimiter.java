@@ -0,0 +1,139 @@
+package online.flowerinsnow.dns_j.admission;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>按客户端地址前缀的令牌桶限速</p>
+ * <p>令牌桶保存在固定大小的开放寻址表中，每个槽位由一个键和一个状态组成，状态把上次更新时间与剩余令牌
+ * 打包在一个 long 中，以 CAS 更新，不加锁</p>
+ * <p>令牌桶在补满所需的时间后与新建的桶没有区别，因此超过该时间未更新的槽位视为空闲，可以直接复用，
+ * 表不需要清理线程；探测范围内没有空闲槽位时复用其中最久未更新的一个</p>
+ * <p>键与状态分两次写入，并发抢占同一槽位时可能短暂共用一个桶，对限速来说可以接受</p>
+ */
+public class RateLimiter {
+    private static final int PROBES = 8;
+    // 令牌以 1/256 个为单位，低 24 位为令牌数，高 40 位为毫秒时间戳
+    private static final long FRACTION = 256L;
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1L;
+    private static final long IPV4_TAG = 0xffff_ffffL << 32;
+
+    @NotNull private final AtomicLongArray keys;
+    @NotNull private final AtomicLongArray states;
+    private final int mask;
+    private final double rate;
+    private final long burst;
+    private final long expiry;
+    private final int ipv4Prefix;
+    private final int ipv6Prefix;
+    private final long epoch = System.currentTimeMillis() - 1L;
+
+    /**
+     * @param rate 每个客户端每秒的查询数
+     * @param burst 突发查询数
+     * @param ipv4Prefix IPv4 地址按多长的前缀归为同一客户端，0 - 32
+     * @param ipv6Prefix IPv6 地址按多长的前缀归为同一客户端，0 - 64
+     * @param tableSize 表的槽位数，向上取整到 2 的幂
+     */
+    public RateLimiter(double rate, int burst, int ipv4Prefix, int ipv6Prefix, int tableSize) {
+        if (rate <= 0.0D) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(PROBES, tableSize - 1) << 1);
+        this.keys = new AtomicLongArray(size);
+        this.states = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.rate = rate;
+        this.burst = Math.min(TOKEN_MASK, Math.max(1L, burst) * FRACTION);
+        this.expiry = Math.max(1000L, (long) Math.ceil(this.burst / FRACTION * 1000.0D / rate));
+        this.ipv4Prefix = Math.max(0, Math.min(32, ipv4Prefix));
+        this.ipv6Prefix = Math.max(0, Math.min(64, ipv6Prefix));
+    }
+
+    /**
+     * <p>为客户端取一个令牌</p>
+     *
+     * @param address 客户端地址
+     * @return 是否取得令牌
+     */
+    public boolean tryAcquire(@NotNull InetAddress address) {
+        long key = this.key(address);
+        long now = System.currentTimeMillis() - this.epoch;
+        int start = (int) RateLimiter.mix(key) & this.mask;
+
+        int victim = -1;
+        long victimTime = Long.MAX_VALUE;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int i = (start + probe) & this.mask;
+            while (true) {
+                long state = this.states.get(i);
+                long time = state >>> TOKEN_BITS;
+                boolean live = state != 0L && now - time < this.expiry;
+                if (live && this.keys.get(i) == key) {
+                    long tokens = Math.min(this.burst, (state & TOKEN_MASK) + (long) ((now - time) * this.rate * FRACTION / 1000.0D));
+                    if (tokens < FRACTION) {
+                        return false;
+                    }
+                    // 只有补充了令牌时才推进时间，避免高频请求把不足一个单位的补充量舍入掉
+                    long next = RateLimiter.pack(tokens > (state & TOKEN_MASK) ? now : time, tokens - FRACTION);
+                    if (this.states.compareAndSet(i, state, next)) {
+                        return true;
+                    }
+                    continue;
+                }
+                if (!live) {
+                    if (this.claim(i, state, key, now)) {
+                        return true;
+                    }
+                    continue;
+                }
+                if (time < victimTime) {
+                    victim = i;
+                    victimTime = time;
+                }
+                break;
+            }
+        }
+        // 探测范围已满，复用最久未更新的槽位
+        long state = this.states.get(victim);
+        this.claim(victim, state, key, now);
+        return true;
+    }
+
+    private boolean claim(int i, long state, long key, long now) {
+        if (this.states.compareAndSet(i, state, RateLimiter.pack(now, this.burst - FRACTION))) {
+            this.keys.set(i, key);
+            return true;
+        }
+        return false;
+    }
+
+    private long key(@NotNull InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            long value = ((bytes[0] & 0xffL) << 24) | ((bytes[1] & 0xffL) << 16) | ((bytes[2] & 0xffL) << 8) | (bytes[3] & 0xffL);
+            long prefixMask = this.ipv4Prefix == 0 ? 0L : (0xffff_ffffL << (32 - this.ipv4Prefix)) & 0xffff_ffffL;
+            return IPV4_TAG | (value & prefixMask);
+        }
+        long value = 0L;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xffL);
+        }
+        return this.ipv6Prefix == 0 ? 0L : value & (-1L << (64 - this.ipv6Prefix));
+    }
+
+    private static long pack(long time, long tokens) {
+        return (time << TOKEN_BITS) | tokens;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,19 @@
+package online.flowerinsnow.dns_j.admission;
+
+/**
+ * <p>查询未被接纳时的处理方式</p>
+ */
+public enum ShedPolicy {
+    /**
+     * 不应答，客户端稍后重试；伪造源地址的洪泛不会得到任何响应
+     */
+    DROP,
+    /**
+     * 应答 REFUSED，客户端会立即尝试其他服务器
+     */
+    REFUSED,
+    /**
+     * 应答 SERVFAIL
+     */
+    SERVFAIL
+}
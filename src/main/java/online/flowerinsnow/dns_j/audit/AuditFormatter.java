@@ -0,0 +1,196 @@
+package online.flowerinsnow.dns_j.audit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.dns.*;
+import online.flowerinsnow.dns_j.object.record.MXRecord;
+import online.flowerinsnow.dns_j.object.record.SRVRecord;
+import online.flowerinsnow.dns_j.util.DNSRecordParser;
+import online.flowerinsnow.dns_j.util.DNSRecordView;
+import online.flowerinsnow.dns_j.util.DNSRecordVisitor;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.InetSocketAddress;
+import java.time.Instant;
+
+/**
+ * <p>将一次查询事务格式化为一行 JSON</p>
+ */
+public abstract class AuditFormatter {
+    private AuditFormatter() {
+    }
+
+    /**
+     * @param sb 输出
+     * @param timestamp 收到查询的时间（毫秒）
+     * @param client 查询客户端
+     * @param response 响应内容
+     * @param latency 从收到查询到得到响应的时间（纳秒）
+     */
+    public static void format(@NotNull StringBuilder sb, long timestamp, @NotNull InetSocketAddress client, @NotNull DnsResponse response, long latency) {
+        AuditFormatter.formatHeader(sb, timestamp, client, response.id(), response.code(), latency);
+
+        DnsRecord question = response.recordAt(DnsSection.QUESTION);
+        if (question != null) {
+            sb.append(",\"name\":");
+            AuditFormatter.appendString(sb, question.name());
+            sb.append(",\"type\":");
+            AuditFormatter.appendString(sb, question.type().name());
+        }
+
+        int count = response.count(DnsSection.ANSWER);
+        sb.append(",\"answers\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            AuditFormatter.formatRecord(sb, response.recordAt(DnsSection.ANSWER, i));
+        }
+        sb.append("]}");
+    }
+
+    /**
+     * <p>直接从响应报文格式化，字段原地读取，不解码为 Netty 的 DNS 消息</p>
+     *
+     * @param sb 输出
+     * @param timestamp 收到查询的时间（毫秒）
+     * @param client 查询客户端
+     * @param response 响应报文
+     * @param latency 从收到查询到得到响应的时间（纳秒）
+     */
+    public static void format(@NotNull StringBuilder sb, long timestamp, @NotNull InetSocketAddress client, @NotNull byte[] response, long latency) {
+        AuditFormatter.formatHeader(sb, timestamp, client, DNSWire.id(response), DnsResponseCode.valueOf(DNSWire.responseCode(response)), latency);
+        if (DNSWire.count(response, DNSWire.SECTION_QUESTION) > 0) {
+            sb.append(",\"name\":");
+            AuditFormatter.appendString(sb, DNSWire.readName(response, DNSWire.HEADER_LENGTH));
+            sb.append(",\"type\":");
+            int type = DNSWire.getUnsignedShort(response, DNSWire.skipName(response, DNSWire.HEADER_LENGTH));
+            AuditFormatter.appendString(sb, DnsRecordType.valueOf(type).name());
+        }
+        sb.append(",\"answers\":[");
+        DNSRecordParser.visit(Unpooled.wrappedBuffer(response), new RawRecordFormatter(sb));
+        sb.append("]}");
+    }
+
+    private static void formatHeader(@NotNull StringBuilder sb, long timestamp, @NotNull InetSocketAddress client, int id, @NotNull DnsResponseCode code, long latency) {
+        sb.append("{\"time\":\"").append(Instant.ofEpochMilli(timestamp)).append('"');
+        sb.append(",\"client\":");
+        AuditFormatter.appendString(sb, client.getAddress() != null ? client.getAddress().getHostAddress() : client.getHostString());
+        sb.append(",\"port\":").append(client.getPort());
+        sb.append(",\"id\":").append(id);
+        sb.append(",\"rcode\":");
+        AuditFormatter.appendString(sb, code.toString());
+        sb.append(",\"latency_us\":").append(latency / 1000L);
+    }
+
+    private static void formatRecord(@NotNull StringBuilder sb, @NotNull DnsRecord record) {
+        sb.append("{\"name\":");
+        AuditFormatter.appendString(sb, record.name());
+        sb.append(",\"type\":");
+        AuditFormatter.appendString(sb, record.type().name());
+        sb.append(",\"ttl\":").append(record.timeToLive());
+        String data = AuditFormatter.recordData(record);
+        if (data != null) {
+            sb.append(",\"data\":");
+            AuditFormatter.appendString(sb, data);
+        }
+        sb.append('}');
+    }
+
+    private static String recordData(@NotNull DnsRecord record) {
+        if (record instanceof DnsPtrRecord ptr) {
+            return ptr.hostname();
+        }
+        if (!(record instanceof DnsRawRecord rr)) {
+            return null;
+        }
+        // 使用 duplicate 读取，不影响原记录的读写位置
+        ByteBuf content = rr.content().duplicate();
+        DnsRecordType type = record.type();
+        try {
+            if (type == DnsRecordType.A) {
+                return DNSRecordParser.parseA(content);
+            } else if (type == DnsRecordType.AAAA) {
+                return DNSRecordParser.parseAAAA(content);
+            } else if (type == DnsRecordType.NS || type == DnsRecordType.CNAME || type == DnsRecordType.PTR) {
+                return DNSRecordParser.parseName(content);
+            } else if (type == DnsRecordType.MX) {
+                MXRecord mx = DNSRecordParser.parseMX(content);
+                return mx.preference() + " " + mx.mailExchange();
+            } else if (type == DnsRecordType.TXT) {
+                return DNSRecordParser.parseTXT(content);
+            } else if (type == DnsRecordType.SRV) {
+                SRVRecord srv = DNSRecordParser.parseSRV(content);
+                return srv.priority() + " " + srv.weight() + " " + srv.port() + " " + srv.target();
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * <p>以 JSON 字符串写出，null 写作 null</p>
+     *
+     * @param sb 输出
+     * @param s 字符串
+     */
+    public static void appendString(@NotNull StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static class RawRecordFormatter implements DNSRecordVisitor {
+        @NotNull private final StringBuilder sb;
+        private boolean first = true;
+
+        private RawRecordFormatter(@NotNull StringBuilder sb) {
+            this.sb = sb;
+        }
+
+        @Override
+        public boolean visit(@NotNull DNSRecordView record) {
+            if (record.section() == DnsSection.QUESTION) {
+                return true;
+            }
+            if (record.section() != DnsSection.ANSWER) {
+                return false;
+            }
+            if (!this.first) {
+                this.sb.append(',');
+            }
+            this.first = false;
+            this.sb.append("{\"name\":");
+            AuditFormatter.appendString(this.sb, record.name());
+            this.sb.append(",\"type\":");
+            AuditFormatter.appendString(this.sb, record.recordType().name());
+            this.sb.append(",\"ttl\":").append(record.ttl());
+            this.sb.append(",\"data\":");
+            AuditFormatter.appendString(this.sb, record.data());
+            this.sb.append('}');
+            return true;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package online.flowerinsnow.dns_j.audit;
+
+import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.ThreadExecutorMap;
+import online.flowerinsnow.dns_j.config.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>异步审计日志</p>
+ * <p>每次查询事务生成一条记录，放入有界的无锁队列后立即返回，由后台线程格式化为 JSON 行并批量写出，
+ * 审计不会增加应答延迟</p>
+ * <p>配置了审计文件时写入文件并按大小滚动，否则通过名为 Audit 的 logger 输出</p>
+ */
+public class AuditLog implements AutoCloseable {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+    private static final long DROP_REPORT_INTERVAL = 10000L;
+    /**
+     * BLOCK 策略下最多等待的时间
+     */
+    private static final long BLOCK_MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5L);
+
+    @NotNull private final Logger logger;
+    @NotNull private final Logger auditLogger;
+    @NotNull private final Queue<Event> queue;
+    private final double sampleRate;
+    @NotNull private final AuditOverflowPolicy overflowPolicy;
+    private final int batchSize;
+    @Nullable private final Path file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    @NotNull private final LongAdder dropped = new LongAdder();
+    @NotNull private final Thread thread;
+    private volatile boolean running = true;
+
+    private BufferedWriter writer;
+    private long fileSize;
+
+    public AuditLog(@NotNull Config config) {
+        Objects.requireNonNull(config);
+        this.logger = LogManager.getLogger(AuditLog.class.getSimpleName());
+        this.auditLogger = LogManager.getLogger("Audit");
+        this.queue = PlatformDependent.newFixedMpscQueue(config.getAuditQueueSize());
+        this.sampleRate = config.getAuditSampleRate();
+        this.overflowPolicy = config.getAuditOverflowPolicy();
+        this.batchSize = Math.max(1, config.getAuditBatchSize());
+        this.file = config.getAuditFile() != null ? Paths.get(config.getAuditFile()) : null;
+        this.maxFileSize = config.getAuditMaxFileSize();
+        this.maxFiles = config.getAuditMaxFiles();
+
+        this.thread = new Thread(this::run, "DnsJ-Audit");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * <p>记录一次查询事务</p>
+     *
+     * @param client 查询客户端
+     * @param received 收到查询的时间（毫秒）
+     * @param response 响应报文，调用后不能再修改
+     * @param latency 从收到查询到得到响应的时间（纳秒）
+     */
+    public void log(@NotNull InetSocketAddress client, long received, @NotNull byte[] response, long latency) {
+        if (this.sampled()) {
+            this.offer(new Event(received, client, response, null, latency));
+        }
+    }
+
+    /**
+     * <p>记录一次查询事务</p>
+     * <p>响应会被 retain，直到后台线程写出后才释放，因此必须在响应被写入 channel 之前调用</p>
+     *
+     * @param client 查询客户端
+     * @param received 收到查询的时间（毫秒）
+     * @param response 响应内容
+     * @param latency 从收到查询到得到响应的时间（纳秒）
+     */
+    public void log(@NotNull InetSocketAddress client, long received, @NotNull DnsResponse response, long latency) {
+        if (this.sampled()) {
+            this.offer(new Event(received, client, null, response.retain(), latency));
+        }
+    }
+
+    private boolean sampled() {
+        return this.sampleRate >= 1.0D || this.sampleRate > 0.0D && ThreadLocalRandom.current().nextDouble() < this.sampleRate;
+    }
+
+    private void offer(@NotNull Event event) {
+        if (this.queue.offer(event)) {
+            return;
+        }
+        if (this.overflowPolicy == AuditOverflowPolicy.BLOCK && !AuditLog.inEventLoop()) {
+            // 有限时间内等待后台线程腾出空位，超时后按 DROP 处理
+            long deadline = System.nanoTime() + BLOCK_MAX_WAIT_NANOS;
+            while (this.running && System.nanoTime() - deadline < 0L) {
+                Thread.onSpinWait();
+                if (this.queue.offer(event)) {
+                    return;
+                }
+            }
+        }
+        this.dropped.increment();
+        event.release();
+    }
+
+    /**
+     * @return 当前线程是否为 Netty 的事件循环线程，在事件循环上等待会拖慢该线程上的所有客户端
+     */
+    private static boolean inEventLoop() {
+        EventExecutor executor = ThreadExecutorMap.currentExecutor();
+        return executor != null && executor.inEventLoop();
+    }
+
+    private void run() {
+        StringBuilder sb = new StringBuilder(this.batchSize * 256);
+        long lastDropReport = System.currentTimeMillis();
+        while (this.running || !this.queue.isEmpty()) {
+            int count = 0;
+            Event event;
+            while (count < this.batchSize && (event = this.queue.poll()) != null) {
+                int mark = sb.length();
+                try {
+                    event.format(sb);
+                } catch (RuntimeException e) {
+                    sb.setLength(mark);
+                    this.logger.warn("格式化审计记录失败", e);
+                } finally {
+                    event.release();
+                }
+                count++;
+            }
+            if (count > 0) {
+                this.write(sb);
+                sb.setLength(0);
+            }
+
+            // 队列持续有数据时也要定期报告，丢弃恰恰发生在队列满的时候
+            long now = System.currentTimeMillis();
+            if (now - lastDropReport >= DROP_REPORT_INTERVAL) {
+                lastDropReport = now;
+                this.reportDropped(sb, now);
+            }
+            if (count == 0) {
+                this.flush();
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        this.reportDropped(sb, System.currentTimeMillis());
+        this.flush();
+        this.closeWriter();
+    }
+
+    /**
+     * <p>把上次报告以来丢弃的记录数写入审计日志</p>
+     */
+    private void reportDropped(@NotNull StringBuilder sb, long now) {
+        long dropped = this.dropped.sumThenReset();
+        if (dropped > 0) {
+            sb.append("{\"time\":\"").append(Instant.ofEpochMilli(now)).append("\",\"dropped\":").append(dropped).append("}\n");
+            this.write(sb);
+            sb.setLength(0);
+        }
+    }
+
+    /**
+     * <p>写出一批 JSON 行</p>
+     */
+    private void write(@NotNull StringBuilder lines) {
+        if (this.file == null) {
+            int start = 0;
+            for (int i = 0; i < lines.length(); i++) {
+                if (lines.charAt(i) == '\n') {
+                    this.auditLogger.info(lines.substring(start, i));
+                    start = i + 1;
+                }
+            }
+            return;
+        }
+        try {
+            if (this.writer == null) {
+                this.openWriter();
+            }
+            this.writer.append(lines);
+            this.fileSize += lines.length();
+            if (this.maxFileSize > 0 && this.fileSize >= this.maxFileSize) {
+                this.rotate();
+            }
+        } catch (IOException e) {
+            this.logger.error("写入审计日志 {} 失败", this.file, e);
+            this.closeWriter();
+        }
+    }
+
+    private void flush() {
+        if (this.writer != null) {
+            try {
+                this.writer.flush();
+            } catch (IOException e) {
+                this.logger.error("写入审计日志 {} 失败", this.file, e);
+                this.closeWriter();
+            }
+        }
+    }
+
+    private void openWriter() throws IOException {
+        //noinspection DataFlowIssue
+        Path parent = this.file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.writer = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.fileSize = Files.size(this.file);
+    }
+
+    /**
+     * <p>滚动审计文件：audit.log -> audit.log.1 -> audit.log.2 ...，超出数量的最旧文件被删除</p>
+     */
+    private void rotate() throws IOException {
+        this.closeWriter();
+        //noinspection DataFlowIssue
+        String name = this.file.getFileName().toString();
+        if (this.maxFiles > 0) {
+            Files.deleteIfExists(this.file.resolveSibling(name + "." + this.maxFiles));
+            for (int i = this.maxFiles - 1; i >= 1; i--) {
+                Path source = this.file.resolveSibling(name + "." + i);
+                if (Files.exists(source)) {
+                    Files.move(source, this.file.resolveSibling(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(this.file, this.file.resolveSibling(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(this.file);
+        }
+        this.openWriter();
+    }
+
+    private void closeWriter() {
+        if (this.writer != null) {
+            try {
+                this.writer.close();
+            } catch (IOException e) {
+                this.logger.warn("关闭审计日志 {} 失败", this.file, e);
+            }
+            this.writer = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        LockSupport.unpark(this.thread);
+        try {
+            this.thread.join(5000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param raw 响应报文，与 decoded 二选一
+     * @param decoded 响应内容，与 raw 二选一，已被 retain
+     */
+    private record Event(long timestamp, @NotNull InetSocketAddress client, @Nullable byte[] raw, @Nullable DnsResponse decoded, long latency) {
+        private void format(@NotNull StringBuilder sb) {
+            if (this.decoded != null) {
+                AuditFormatter.format(sb, this.timestamp, this.client, this.decoded, this.latency);
+            } else {
+                //noinspection DataFlowIssue
+                AuditFormatter.format(sb, this.timestamp, this.client, this.raw, this.latency);
+            }
+            sb.append('\n');
+        }
+
+        private void release() {
+            ReferenceCountUtil.release(this.decoded);
+        }
+    }
+}
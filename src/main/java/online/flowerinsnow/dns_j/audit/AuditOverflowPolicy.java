@@ -0,0 +1,16 @@
+package online.flowerinsnow.dns_j.audit;
+
+/**
+ * <p>审计队列已满时的处理方式</p>
+ */
+public enum AuditOverflowPolicy {
+    /**
+     * 丢弃新的审计记录并计数，丢弃数量会定期写入审计日志
+     */
+    DROP,
+    /**
+     * 短暂等待队列出现空位，超时后按 {@link #DROP} 处理；在 Netty 的事件循环线程上不等待，直接按 {@link #DROP} 处理，
+     * 以免拖慢同一线程上的所有客户端
+     */
+    BLOCK
+}
@@ -0,0 +1,14 @@
+package online.flowerinsnow.dns_j.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>缓存命中结果</p>
+ *
+ * @param response 响应报文，已写入调用方的事务 ID 与问题域名
+ * @param stale 条目已过期，响应来自 RFC 8767 serve-stale
+ * @param refresh 调用方应向上游刷新：未过期的条目即将过期且查询足够频繁（预取），
+ *                或过期条目不在刷新失败后的等待期内
+ */
+public record CacheHit(@NotNull byte[] response, boolean stale, boolean refresh) {
+}
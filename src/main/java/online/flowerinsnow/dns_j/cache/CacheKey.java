@@ -0,0 +1,34 @@
+package online.flowerinsnow.dns_j.cache;
+
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>缓存键，对应报文中唯一的问题</p>
+ * <p>DO 与 CD 标志会改变上游应答的内容（是否附带 DNSSEC 记录、是否经过验证），因此也是键的一部分；
+ * 响应中这两个标志与查询相同，从响应读取的键与查询的键一致</p>
+ *
+ * @param name 小写的完整域名
+ * @param type 查询类型
+ * @param dnsClass 查询类
+ * @param dnssecOk EDNS 中的 DO 标志
+ * @param checkingDisabled 报头中的 CD 标志
+ */
+public record CacheKey(@NotNull String name, int type, int dnsClass, boolean dnssecOk, boolean checkingDisabled) {
+    /**
+     * <p>从报文中读取缓存键</p>
+     *
+     * @param message 查询或响应报文
+     * @return 缓存键，报文不是恰好包含一个问题时返回 null
+     */
+    public static @Nullable CacheKey of(@NotNull byte[] message) {
+        if (message.length < DNSWire.HEADER_LENGTH || DNSWire.count(message, DNSWire.SECTION_QUESTION) != 1) {
+            return null;
+        }
+        String name = DNSWire.readName(message, DNSWire.HEADER_LENGTH);
+        int offset = DNSWire.skipName(message, DNSWire.HEADER_LENGTH);
+        return new CacheKey(name, DNSWire.getUnsignedShort(message, offset), DNSWire.getUnsignedShort(message, offset + 2),
+                DNSWire.isDnssecOk(message), DNSWire.isCheckingDisabled(message));
+    }
+}
@@ -0,0 +1,229 @@
+package online.flowerinsnow.dns_j.cache;
+
+import online.flowerinsnow.dns_j.config.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * <p>缓存快照，使重启后的第一个查询就能命中缓存</p>
+ * <p>文件格式：8 字节的文件头，之后是连续的记录</p>
+ * <pre>
+ * int32 length
+ * int32 crc32(message)
+ * int64 storedAt
+ * int64 expiresAt
+ * byte[length] message
+ * </pre>
+ * <p>时间都是绝对时间（毫秒），重启后剩余 TTL 按经过的时间扣除</p>
+ * <p>定期只把上次保存之后写入的条目追加到文件末尾，同一域名的较新记录覆盖较旧的；
+ * 追加的记录远多于缓存中的条目时，写入临时文件后原子替换，重写为只包含当前条目的快照</p>
+ * <p>启动时以内存映射读取，在服务器开始监听前恢复仍然可用的条目；末尾不完整或校验失败的记录被忽略</p>
+ */
+public class CacheSnapshot implements AutoCloseable {
+    private static final byte[] MAGIC = {'D', 'N', 'S', 'J', 'C', 'S', '0', '1'};
+    private static final int RECORD_HEADER_LENGTH = 24;
+    private static final int MAX_MESSAGE_LENGTH = 65535;
+
+    @NotNull private final Logger logger;
+    @NotNull private final DNSCache cache;
+    @NotNull private final Path file;
+    private final long interval;
+    @Nullable private ScheduledExecutorService writer;
+
+    /**
+     * 上次保存时的写入序号
+     */
+    private long saved;
+    /**
+     * 为 -1 时下次保存重写整个文件
+     */
+    private long appended = -1L;
+
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>cacheSnapshot：快照文件路径</li>
+     *     <li>cacheSnapshotInterval：保存间隔</li>
+     * </ul>
+     *
+     * @param cache 缓存
+     * @param config 配置
+     */
+    public CacheSnapshot(@NotNull DNSCache cache, @NotNull Config config) {
+        this.logger = LogManager.getLogger(CacheSnapshot.class.getSimpleName());
+        this.cache = Objects.requireNonNull(cache);
+        this.file = Path.of(Objects.requireNonNull(config.getCacheSnapshot()));
+        this.interval = config.getCacheSnapshotInterval();
+    }
+
+    /**
+     * <p>从快照恢复缓存，文件不存在或损坏时从空缓存开始</p>
+     */
+    public void load() {
+        long start = System.nanoTime();
+        int restored = 0;
+        int records = 0;
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            if (buffer.remaining() >= MAGIC.length) {
+                buffer.get(magic);
+            }
+            if (!Arrays.equals(magic, MAGIC)) {
+                this.logger.warn("{} 不是缓存快照，忽略", this.file);
+                return;
+            }
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= RECORD_HEADER_LENGTH) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                long storedAt = buffer.getLong();
+                long expiresAt = buffer.getLong();
+                if (length < 0 || length > MAX_MESSAGE_LENGTH || buffer.remaining() < length) {
+                    break;
+                }
+                byte[] message = new byte[length];
+                buffer.get(message);
+                crc.reset();
+                crc.update(message);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                records++;
+                if (this.cache.restore(message, storedAt, expiresAt)) {
+                    restored++;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            this.logger.warn("读取缓存快照 {} 失败", this.file, e);
+            return;
+        }
+        this.logger.info("已从缓存快照恢复 {} 个条目（共 {} 条记录），用时 {} ms",
+                restored, records, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * <p>开始定期保存</p>
+     */
+    public void start() {
+        if (this.interval <= 0L) {
+            return;
+        }
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "CacheSnapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer.scheduleWithFixedDelay(() -> {
+            try {
+                this.save();
+            } catch (IOException e) {
+                this.logger.warn("保存缓存快照 {} 失败", this.file, e);
+            }
+        }, this.interval, this.interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>保存快照：追加上次保存之后写入的条目，必要时重写整个文件</p>
+     *
+     * @throws IOException 写入失败
+     */
+    public synchronized void save() throws IOException {
+        // 先读取序号，遍历期间新写入的条目下次还会再保存一次，重复的记录不影响恢复结果
+        long sequence = this.cache.sequence();
+        if (this.appended < 0L || this.appended > 2L * this.cache.size() + 1024L) {
+            Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+            long written;
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(MAGIC);
+                written = this.write(out, 0L);
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.appended = written;
+        } else if (sequence > this.saved) {
+            try (OutputStream out = Files.newOutputStream(this.file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                this.appended += this.write(out, this.saved);
+            } catch (IOException e) {
+                // 文件末尾可能留下不完整的记录，之后追加的内容在恢复时都会被忽略，下次改为重写
+                this.appended = -1L;
+                throw e;
+            }
+        }
+        this.saved = sequence;
+    }
+
+    /**
+     * @return 写入的记录数
+     */
+    private long write(@NotNull OutputStream out, long since) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 65536));
+        CRC32 crc = new CRC32();
+        long[] count = new long[1];
+        IOException[] failure = new IOException[1];
+        this.cache.forEach(since, (message, storedAt, expiresAt) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            try {
+                crc.reset();
+                crc.update(message);
+                data.writeInt(message.length);
+                data.writeInt((int) crc.getValue());
+                data.writeLong(storedAt);
+                data.writeLong(expiresAt);
+                data.write(message);
+                count[0]++;
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        data.flush();
+        return count[0];
+    }
+
+    /**
+     * <p>停止定期保存并保存最后一次</p>
+     */
+    @Override
+    public void close() {
+        if (this.writer != null) {
+            // 不中断正在进行的保存，否则文件通道会被关闭
+            this.writer.shutdown();
+            try {
+                this.writer.awaitTermination(10L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            this.save();
+        } catch (IOException e) {
+            this.logger.warn("保存缓存快照 {} 失败", this.file, e);
+        }
+    }
+}
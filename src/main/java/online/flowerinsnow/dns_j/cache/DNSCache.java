@@ -0,0 +1,357 @@
+package online.flowerinsnow.dns_j.cache;
+
+import io.netty.handler.codec.CorruptedFrameException;
+import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>DNS 响应缓存</p>
+ * <p>以报文形式保存上游响应，按 (域名, 类型, 类) 索引，过期时间取所有应答记录中最小的 TTL；
+ * 否定应答（NXDOMAIN / NODATA）按 RFC 2308 取权威区 SOA 记录的 TTL 与 MINIMUM 中的较小值，没有 SOA 时不缓存</p>
+ * <p>命中时返回报文的副本，改写事务 ID、按查询原样写回问题域名（保留 0x20 随机大小写）并扣除已经过的 TTL，
+ * 返回的 TTL 不超过条目的剩余寿命</p>
+ * <p>缓存被划分为多个分段，每个分段各自加锁并按最近最少使用淘汰，总容量有上限</p>
+ * <p>启用预取时，剩余 TTL 低于一定比例之后命中次数达到阈值的条目会提示调用方在后台刷新，
+ * 只统计这段时间内的命中，很久以前的命中不代表条目现在仍然热门；
+ * 启用 serve-stale 时，过期条目会再保留一段时间，在上游不可用时作为应答返回，
+ * 刷新失败后的一段时间内（RFC 8767 第 5 节的失败重试计时）直接返回过期应答，不再提示刷新</p>
+ * <p>每次写入的条目带有递增的序号，{@link CacheSnapshot} 据此只把上次快照之后的条目追加到磁盘</p>
+ */
+public class DNSCache {
+    private static final int SEGMENTS = 64;
+
+    @NotNull private final Segment[] segments;
+    private final long maxTtl;
+    private final long maxNegativeTtl;
+    private final int prefetchThreshold;
+    private final int prefetchPercent;
+    private final boolean serveStale;
+    private final long staleMaxTtl;
+    private final long staleAnswerTtl;
+    private final long staleRecheckInterval;
+    @NotNull private final AtomicLong sequence = new AtomicLong();
+
+    public DNSCache(@NotNull Config config) {
+        Objects.requireNonNull(config);
+        int segmentSize = Math.max(1, (config.getCacheSize() + SEGMENTS - 1) / SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment(segmentSize);
+        }
+        this.maxTtl = config.getCacheMaxTtl();
+        this.maxNegativeTtl = config.getCacheMaxNegativeTtl();
+        this.prefetchThreshold = config.getPrefetchThreshold();
+        this.prefetchPercent = config.getPrefetchPercent();
+        this.serveStale = config.isServeStale();
+        this.staleMaxTtl = config.getStaleMaxTtl();
+        this.staleAnswerTtl = config.getStaleAnswerTtl();
+        this.staleRecheckInterval = config.getStaleRecheckInterval();
+    }
+
+    /**
+     * <p>查找缓存</p>
+     *
+     * @param key 缓存键
+     * @param query 查询报文，其事务 ID 与问题域名会写入响应
+     * @return 命中结果，未命中或已超出可用期限时返回 null
+     */
+    public @Nullable CacheHit get(@NotNull CacheKey key, @NotNull byte[] query) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(query);
+        Segment segment = this.segmentFor(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now < entry.expiresAt()) {
+            boolean prefetch = this.prefetchThreshold > 0
+                    && (entry.expiresAt() - now) * 100L <= (entry.expiresAt() - entry.storedAt()) * this.prefetchPercent
+                    && entry.hits().incrementAndGet() >= this.prefetchThreshold
+                    && entry.prefetching().compareAndSet(false, true);
+            return new CacheHit(entry.materialize(query, now), false, prefetch);
+        }
+        if (now < this.usableUntil(entry)) {
+            return new CacheHit(entry.materializeStale(query, this.staleAnswerTtl), true, now >= entry.recheckAt().get());
+        }
+        synchronized (segment) {
+            segment.remove(key, entry);
+        }
+        return null;
+    }
+
+    /**
+     * <p>记录过期条目刷新失败，在失败重试等待期内命中该条目时不再提示刷新</p>
+     *
+     * @param key 缓存键
+     */
+    public void refreshFailed(@NotNull CacheKey key) {
+        Objects.requireNonNull(key);
+        Segment segment = this.segmentFor(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+        }
+        long now = System.currentTimeMillis();
+        if (entry != null && now >= entry.expiresAt()) {
+            entry.recheckAt().set(now + this.staleRecheckInterval * 1000L);
+        }
+    }
+
+    /**
+     * <p>缓存上游响应，不可缓存的响应会被忽略</p>
+     *
+     * @param key 缓存键
+     * @param response 响应报文
+     */
+    public void put(@NotNull CacheKey key, @NotNull byte[] response) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(response);
+        Entry entry;
+        try {
+            entry = Entry.of(response, System.currentTimeMillis(), this.maxTtl, this.maxNegativeTtl, this.sequence.incrementAndGet());
+        } catch (CorruptedFrameException e) {
+            return;
+        }
+        if (entry == null) {
+            return;
+        }
+        Segment segment = this.segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    /**
+     * <p>恢复快照中的条目</p>
+     *
+     * @param message 响应报文
+     * @param storedAt 缓存时间（毫秒）
+     * @param expiresAt 过期时间（毫秒）
+     * @return 条目仍然可用并已放入缓存时返回 true
+     */
+    boolean restore(@NotNull byte[] message, long storedAt, long expiresAt) {
+        Entry entry;
+        CacheKey key;
+        try {
+            key = CacheKey.of(message);
+            entry = Entry.of(message, storedAt, this.maxTtl, this.maxNegativeTtl, this.sequence.incrementAndGet());
+        } catch (CorruptedFrameException e) {
+            return false;
+        }
+        if (key == null || entry == null) {
+            return false;
+        }
+        // 配置的 TTL 上限可能在重启后变小，取两者中较早的
+        entry = new Entry(entry.message(), entry.ttlOffsets(), storedAt, Math.min(entry.expiresAt(), expiresAt),
+                entry.hits(), entry.prefetching(), entry.recheckAt(), entry.sequence());
+        if (System.currentTimeMillis() >= this.usableUntil(entry)) {
+            return false;
+        }
+        Segment segment = this.segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+        return true;
+    }
+
+    /**
+     * @return 最近一次写入的序号
+     */
+    long sequence() {
+        return this.sequence.get();
+    }
+
+    /**
+     * @return 缓存中的条目数
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * <p>遍历序号大于 {@code since} 且仍然可用的条目，不会改变最近使用顺序</p>
+     *
+     * @param since 序号下限（不含）
+     * @param visitor 访问者，在持有分段锁之外调用
+     */
+    void forEach(long since, @NotNull EntryVisitor visitor) {
+        long now = System.currentTimeMillis();
+        List<Entry> entries = new ArrayList<>();
+        for (Segment segment : this.segments) {
+            entries.clear();
+            synchronized (segment) {
+                for (Entry entry : segment.values()) {
+                    if (entry.sequence() > since && now < this.usableUntil(entry)) {
+                        entries.add(entry);
+                    }
+                }
+            }
+            for (Entry entry : entries) {
+                visitor.visit(entry.message(), entry.storedAt(), entry.expiresAt());
+            }
+        }
+    }
+
+    /**
+     * @return 条目可以作为应答返回的最后时间（毫秒），启用 serve-stale 时包括过期后的保留时间
+     */
+    private long usableUntil(@NotNull Entry entry) {
+        return this.serveStale ? entry.expiresAt() + this.staleMaxTtl * 1000L : entry.expiresAt();
+    }
+
+    @FunctionalInterface
+    interface EntryVisitor {
+        void visit(@NotNull byte[] message, long storedAt, long expiresAt);
+    }
+
+    private @NotNull Segment segmentFor(@NotNull CacheKey key) {
+        int h = key.hashCode();
+        return this.segments[(h ^ h >>> 16) & (SEGMENTS - 1)];
+    }
+
+    private static class Segment extends LinkedHashMap<CacheKey, Entry> {
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75F, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+            return this.size() > this.capacity;
+        }
+    }
+
+    /**
+     * @param message 响应报文
+     * @param ttlOffsets 报文中各记录 TTL 字段的位置
+     * @param storedAt 缓存时间（毫秒）
+     * @param expiresAt 过期时间（毫秒）
+     * @param hits 剩余 TTL 进入预取窗口后的命中次数
+     * @param prefetching 是否已经提示过预取
+     * @param recheckAt 过期后刷新失败时，再次提示刷新的最早时间（毫秒）
+     * @param sequence 写入序号
+     */
+    private record Entry(@NotNull byte[] message, @NotNull int[] ttlOffsets, long storedAt, long expiresAt,
+                         @NotNull AtomicInteger hits, @NotNull AtomicBoolean prefetching, @NotNull AtomicLong recheckAt, long sequence) {
+        private static @Nullable Entry of(@NotNull byte[] message, long now, long maxTtl, long maxNegativeTtl, long sequence) {
+            if (message.length < DNSWire.HEADER_LENGTH || !DNSWire.isResponse(message) || DNSWire.isTruncated(message)) {
+                return null;
+            }
+            int responseCode = DNSWire.responseCode(message);
+            if (responseCode != DNSWire.RCODE_NOERROR && responseCode != DNSWire.RCODE_NXDOMAIN) {
+                return null;
+            }
+
+            int offset = DNSWire.HEADER_LENGTH;
+            for (int i = DNSWire.count(message, DNSWire.SECTION_QUESTION); i > 0; i--) {
+                offset = DNSWire.skipName(message, offset) + 4;
+            }
+            int[] ttlOffsets = new int[8];
+            int ttlCount = 0;
+            long answerTtl = Long.MAX_VALUE;
+            long negativeTtl = -1L;
+            for (int section = DNSWire.SECTION_ANSWER; section <= DNSWire.SECTION_ADDITIONAL; section++) {
+                for (int i = DNSWire.count(message, section); i > 0; i--) {
+                    /*
+                    name
+                    uint16 type
+                    uint16 class
+                    uint32 ttl
+                    uint16 rdlength
+                    byte[rdlength] rdata
+                     */
+                    offset = DNSWire.skipName(message, offset);
+                    int type = DNSWire.getUnsignedShort(message, offset);
+                    long ttl = DNSWire.getUnsignedInt(message, offset + 4);
+                    int rdata = offset + 10;
+                    // OPT 记录的 TTL 字段是扩展标志，不能改写
+                    if (type != DNSWire.TYPE_OPT) {
+                        if (ttlCount == ttlOffsets.length) {
+                            ttlOffsets = Arrays.copyOf(ttlOffsets, ttlCount * 2);
+                        }
+                        ttlOffsets[ttlCount++] = offset + 4;
+                        if (section == DNSWire.SECTION_ANSWER) {
+                            answerTtl = Math.min(answerTtl, ttl);
+                        } else if (section == DNSWire.SECTION_AUTHORITY && type == DNSWire.TYPE_SOA) {
+                            // mname rname serial refresh retry expire minimum
+                            int minimum = DNSWire.skipName(message, DNSWire.skipName(message, rdata)) + 16;
+                            negativeTtl = Math.min(ttl, DNSWire.getUnsignedInt(message, minimum));
+                        }
+                    }
+                    offset = rdata + DNSWire.getUnsignedShort(message, offset + 8);
+                }
+            }
+
+            long ttl;
+            if (responseCode == DNSWire.RCODE_NOERROR && DNSWire.count(message, DNSWire.SECTION_ANSWER) > 0) {
+                ttl = Math.min(answerTtl, maxTtl);
+            } else if (negativeTtl >= 0) {
+                ttl = Math.min(negativeTtl, maxNegativeTtl);
+            } else {
+                return null;
+            }
+            if (ttl <= 0) {
+                return null;
+            }
+            return new Entry(message.clone(), Arrays.copyOf(ttlOffsets, ttlCount), now, now + ttl * 1000L,
+                    new AtomicInteger(), new AtomicBoolean(), new AtomicLong(), sequence);
+        }
+
+        /**
+         * <p>扣除已经过的时间，并且每条记录的 TTL 都不超过条目的剩余寿命，
+         * 使客户端不会比本缓存保存得更久（TTL 上限与否定应答的 SOA MINIMUM 都由此生效）</p>
+         */
+        private @NotNull byte[] materialize(@NotNull byte[] query, long now) {
+            byte[] copy = this.copyFor(query);
+            long elapsed = Math.max(0L, (now - this.storedAt) / 1000L);
+            long remaining = Math.max(0L, (this.expiresAt - this.storedAt) / 1000L - elapsed);
+            for (int ttlOffset : this.ttlOffsets) {
+                long ttl = DNSWire.getUnsignedInt(this.message, ttlOffset) - elapsed;
+                DNSWire.setInt(copy, ttlOffset, Math.max(0L, Math.min(ttl, remaining)));
+            }
+            return copy;
+        }
+
+        /**
+         * <p>按 RFC 8767 生成过期应答，所有记录的 TTL 统一改写为 {@code ttl}</p>
+         */
+        private @NotNull byte[] materializeStale(@NotNull byte[] query, long ttl) {
+            byte[] copy = this.copyFor(query);
+            for (int ttlOffset : this.ttlOffsets) {
+                DNSWire.setInt(copy, ttlOffset, ttl);
+            }
+            return copy;
+        }
+
+        private @NotNull byte[] copyFor(@NotNull byte[] query) {
+            byte[] copy = this.message.clone();
+            DNSWire.setId(copy, DNSWire.id(query));
+            DNSWire.copyQuestionName(query, copy);
+            return copy;
+        }
+    }
+}
@@ -1,83 +1,216 @@
 package online.flowerinsnow.dns_j.client;
 
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-import io.netty.handler.codec.dns.*;
 import okhttp3.*;
-import online.flowerinsnow.dns_j.exception.UnexpectedException;
-import online.flowerinsnow.dns_j.util.NettyDatagramDnsResponseDecoder;
-import online.flowerinsnow.dns_j.util.NettyDnsQueryEncoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.util.DNSWire;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.URL;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
-public abstract class DoHClient {
-    private DoHClient() {
+/**
+ * <p>DoH 客户端</p>
+ * <p>每个实例持有一个长期存在的 {@link OkHttpClient}，所有查询共用同一个连接池和调度器，
+ * 以便复用已建立的 HTTP/2 连接</p>
+ * <p>查询通过调度器异步执行，不会阻塞调用线程</p>
+ * <p>启用 GET 时按 RFC 8484 把事务 ID 置 0 后以 base64url 编码放入 {@code dns} 参数，相同的问题得到相同的 URL，
+ * 可以被 OkHttp 的磁盘缓存与代理等 HTTP 中间缓存按 Cache-Control 缓存；响应返回前恢复原来的事务 ID，
+ * 并按 Age 与缓存时间扣除 TTL</p>
+ */
+public class DoHClient implements UpstreamClient {
+    /**
+     * <p>同一目录只能有一个 {@link Cache} 实例，同组的上游以及重新加载配置时的新旧客户端共用，
+     * 按引用计数在最后一个使用它的客户端关闭时关闭</p>
+     */
+    private static final Map<File, SharedCache> CACHES = new HashMap<>();
+
+    @NotNull private final URL url;
+    @NotNull private final HttpUrl httpUrl;
+    private final boolean get;
+    @NotNull private final OkHttpClient client;
+    @Nullable private final File cacheDirectory;
+
+    public DoHClient(@NotNull URL url, @NotNull Config config) {
+        this(url, config, config.getProxy());
     }
 
-    public static @NotNull DnsResponse query(@NotNull URL url, @NotNull DnsQuery query, @Nullable Proxy proxy, @NotNull InetSocketAddress sender, @NotNull InetSocketAddress recipient) throws IOException {
-        Objects.requireNonNull(url);
-        Objects.requireNonNull(query);
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>maxConcurrentStreams、maxIdleConnections、keepAlive：连接池</li>
+     *     <li>queryTimeout：单次查询的最长等待时间</li>
+     *     <li>dohGet：以 GET 请求</li>
+     *     <li>dohCache、dohCacheSize：GET 请求的 HTTP 响应缓存</li>
+     * </ul>
+     *
+     * @param url 服务器地址
+     * @param config 配置
+     * @param proxy 代理，为 null 时直接连接
+     */
+    public DoHClient(@NotNull URL url, @NotNull Config config, @Nullable Proxy proxy) {
+        this.url = Objects.requireNonNull(url);
+        Objects.requireNonNull(config);
+        this.httpUrl = HttpUrl.get(url.toString());
+        this.get = config.isDohGet();
+
+        // 同一上游的所有请求复用 HTTP/2 连接，由调度器限制并发流数量
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getMaxConcurrentStreams());
+        dispatcher.setMaxRequestsPerHost(config.getMaxConcurrentStreams());
 
-        OkHttpClient.Builder builder = new OkHttpClient.Builder();
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(config.getMaxIdleConnections(), config.getKeepAlive(), TimeUnit.MILLISECONDS))
+                .callTimeout(config.getQueryTimeout(), TimeUnit.MILLISECONDS);
         builder.setProtocols$okhttp(List.of(Protocol.HTTP_2));
         if (proxy != null) {
             builder.proxy(proxy);
         }
-        OkHttpClient client = builder.build();
-
-        Request request = new Request.Builder()
-                .url(url)
-                .header("Content-Type", "application/dns-message")
-                .post(RequestBody.create(DoHClient.encode(query)))
-                .build();
-        try (Response response = client.newCall(request).execute()) {
-            //noinspection DataFlowIssue
-            return DoHClient.decode(response.body().bytes(), sender, recipient);
+        if (this.get && config.getDohCache() != null) {
+            this.cacheDirectory = new File(config.getDohCache()).getAbsoluteFile();
+            builder.cache(DoHClient.acquireCache(this.cacheDirectory, config.getDohCacheSize()));
+        } else {
+            this.cacheDirectory = null;
         }
+        this.client = builder.build();
     }
 
-    private static byte[] encode(@NotNull DnsQuery query) {
-        NettyDnsQueryEncoder encoder = new NettyDnsQueryEncoder();
-        ByteBuf buf = null;
-        try {
-            buf = Unpooled.buffer();
-            try {
-                encoder.encode(query, buf);
-            } catch (Exception e) {
-                throw new UnexpectedException(e);
-            }
-            byte[] bytes = new byte[buf.writerIndex()];
-            buf.readBytes(bytes);
-            return bytes;
-        } finally {
-            if (buf != null) {
-                buf.release();
+    @Override
+    public @NotNull CompletableFuture<byte[]> query(@NotNull byte[] query) {
+        Objects.requireNonNull(query);
+
+        Request request;
+        if (this.get) {
+            if (query.length < DNSWire.HEADER_LENGTH) {
+                return CompletableFuture.failedFuture(new IOException("查询报文过短"));
             }
+            byte[] message = query.clone();
+            DNSWire.setId(message, 0);
+            request = new Request.Builder()
+                    .url(this.httpUrl.newBuilder()
+                            .addEncodedQueryParameter("dns", Base64.getUrlEncoder().withoutPadding().encodeToString(message))
+                            .build())
+                    .header("Accept", "application/dns-message")
+                    .get()
+                    .build();
+        } else {
+            request = new Request.Builder()
+                    .url(this.url)
+                    .header("Content-Type", "application/dns-message")
+                    .post(RequestBody.create(query))
+                    .build();
         }
+        final int id = this.get ? DNSWire.id(query) : -1;
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        Call call = this.client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                try (response) {
+                    if (!response.isSuccessful()) {
+                        future.completeExceptionally(new IOException("DoH 服务器返回 HTTP " + response.code()));
+                        return;
+                    }
+                    //noinspection DataFlowIssue
+                    byte[] body = response.body().bytes();
+                    if (id >= 0) {
+                        DoHClient.restore(body, id, response);
+                    }
+                    future.complete(body);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+        });
+        // 调用方放弃等待时取消上游请求
+        future.whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                call.cancel();
+            }
+        });
+        return future;
     }
 
-    private static @NotNull DnsResponse decode(@NotNull byte[] response, InetSocketAddress sender, InetSocketAddress recipient) {
-        NettyDatagramDnsResponseDecoder decoder = new NettyDatagramDnsResponseDecoder();
-        ByteBuf buf = null;
-        try {
-            buf = Unpooled.buffer();
-            buf.writeBytes(response);
+    /**
+     * <p>恢复 GET 请求的应答的事务 ID，并扣除应答在 HTTP 缓存中停留的时间</p>
+     *
+     * @param body 应答报文，原地修改
+     * @param id 原来的事务 ID
+     * @param response HTTP 响应
+     * @throws CorruptedFrameException 应答报文损坏
+     */
+    private static void restore(@NotNull byte[] body, int id, @NotNull Response response) {
+        if (body.length < DNSWire.HEADER_LENGTH) {
+            throw new CorruptedFrameException("DoH 服务器返回的报文过短");
+        }
+        DNSWire.setId(body, id);
+        // Age 为中间缓存已保存的时间，receivedResponseAtMillis 对 OkHttp 缓存命中的响应是最初收到的时间
+        long age = 0L;
+        String header = response.header("Age");
+        if (header != null) {
             try {
-                return decoder.decode(sender, recipient, buf);
-            } catch (Exception e) {
-                throw new UnexpectedException(e);
+                age = Math.max(0L, Long.parseLong(header.trim()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        age += Math.max(0L, System.currentTimeMillis() - response.receivedResponseAtMillis()) / 1000L;
+        DNSWire.decreaseTtl(body, age);
+    }
+
+    private static @NotNull Cache acquireCache(@NotNull File directory, long maxSize) {
+        synchronized (DoHClient.CACHES) {
+            SharedCache shared = DoHClient.CACHES.computeIfAbsent(directory, dir -> new SharedCache(new Cache(dir, maxSize)));
+            shared.references++;
+            return shared.cache;
+        }
+    }
+
+    private static void releaseCache(@NotNull File directory) {
+        synchronized (DoHClient.CACHES) {
+            SharedCache shared = DoHClient.CACHES.get(directory);
+            if (shared == null || --shared.references > 0) {
+                return;
             }
-        } finally {
-            if (buf != null) {
-                buf.release();
+            DoHClient.CACHES.remove(directory);
+            try {
+                shared.cache.close();
+            } catch (IOException ignored) {
+                // 日志未能完整写入时，OkHttp 下次打开该目录会重建日志
             }
         }
     }
+
+    @Override
+    public void close() {
+        this.client.dispatcher().executorService().shutdown();
+        this.client.connectionPool().evictAll();
+        if (this.cacheDirectory != null) {
+            DoHClient.releaseCache(this.cacheDirectory);
+        }
+    }
+
+    private static class SharedCache {
+        @NotNull private final Cache cache;
+        private int references;
+
+        private SharedCache(@NotNull Cache cache) {
+            this.cache = cache;
+        }
+    }
 }
@@ -0,0 +1,344 @@
+package online.flowerinsnow.dns_j.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.proxy.HttpProxyHandler;
+import io.netty.handler.proxy.ProxyHandler;
+import io.netty.handler.proxy.Socks5ProxyHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.resolver.NoopAddressResolverGroup;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.server.EventLoops;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>DoT 客户端（RFC 7858）</p>
+ * <p>维护少量长期存在的 TLS 连接，每个连接上同时发送多个查询，按事务 ID 匹配响应；
+ * 发送前把查询的事务 ID 改写为连接内唯一的值，收到响应后恢复，因此不同客户端使用相同 ID 也不会冲突</p>
+ * <p>连接在首次需要时建立，空闲超过 keepAlive 后关闭，断开后下次查询时重新建立</p>
+ */
+public class DoTClient implements UpstreamClient {
+    @NotNull private final Logger logger;
+    @NotNull private final String host;
+    private final int port;
+    @NotNull private final SslContext sslContext;
+    @NotNull private final Bootstrap bootstrap;
+    @Nullable private final Proxy proxy;
+    private final long timeout;
+    private final long keepAlive;
+    private final int maxPipelined;
+    @NotNull private final AtomicReferenceArray<Connection> connections;
+
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>dotConnections：连接池大小</li>
+     *     <li>maxConcurrentStreams：每个连接进行中的最大查询数</li>
+     *     <li>keepAlive：空闲连接保留时间</li>
+     *     <li>queryTimeout：单次查询的最长等待时间</li>
+     *     <li>proxy：通过 SOCKS5 或 HTTP CONNECT 代理连接</li>
+     * </ul>
+     *
+     * @param host 服务器主机名，同时用于 SNI 与证书校验
+     * @param port 服务器端口
+     * @param config 配置
+     * @param loops 共用的事件循环
+     * @throws SSLException 无法创建 TLS 上下文
+     */
+    public DoTClient(@NotNull String host, int port, @NotNull Config config, @NotNull EventLoops loops) throws SSLException {
+        this(host, port, config, loops, config.getProxy());
+    }
+
+    /**
+     * <p>使用指定的代理代替配置中的 proxy</p>
+     *
+     * @param host 服务器主机名，同时用于 SNI 与证书校验
+     * @param port 服务器端口
+     * @param config 配置
+     * @param loops 共用的事件循环
+     * @param proxy 代理，为 null 时直接连接
+     * @throws SSLException 无法创建 TLS 上下文
+     */
+    public DoTClient(@NotNull String host, int port, @NotNull Config config, @NotNull EventLoops loops, @Nullable Proxy proxy) throws SSLException {
+        this.logger = LogManager.getLogger(DoTClient.class.getSimpleName());
+        this.host = Objects.requireNonNull(host);
+        this.port = port;
+        this.sslContext = SslContextBuilder.forClient().build();
+        this.proxy = proxy != null && proxy.type() != Proxy.Type.DIRECT ? proxy : null;
+        this.timeout = config.getQueryTimeout();
+        this.keepAlive = config.getKeepAlive();
+        this.maxPipelined = Math.max(1, config.getMaxConcurrentStreams());
+        this.connections = new AtomicReferenceArray<>(Math.max(1, config.getDotConnections()));
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(loops.worker())
+                .channel(loops.socketChannel())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) Math.min(Integer.MAX_VALUE, this.timeout));
+        if (this.proxy != null) {
+            // 由代理解析服务器主机名
+            bootstrap.resolver(NoopAddressResolverGroup.INSTANCE);
+        }
+        this.bootstrap = bootstrap;
+    }
+
+    @Override
+    public @NotNull CompletableFuture<byte[]> query(@NotNull byte[] query) {
+        Objects.requireNonNull(query);
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        if (query.length < DNSWire.HEADER_LENGTH) {
+            future.completeExceptionally(new IOException("查询报文过短"));
+            return future;
+        }
+        Connection connection = this.acquire();
+        try {
+            connection.channel.eventLoop().execute(() -> connection.send(query, future));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future.orTimeout(this.timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>选择进行中查询最少的连接；所有连接都在使用且池未满时建立新连接</p>
+     */
+    private @NotNull Connection acquire() {
+        while (true) {
+            Connection best = null;
+            int emptySlot = -1;
+            for (int i = 0; i < this.connections.length(); i++) {
+                Connection connection = this.connections.get(i);
+                if (connection == null || connection.closed) {
+                    if (emptySlot < 0) {
+                        emptySlot = i;
+                    }
+                } else if (best == null || connection.inFlight.get() < best.inFlight.get()) {
+                    best = connection;
+                }
+            }
+            if (emptySlot < 0 || best != null && best.inFlight.get() == 0) {
+                //noinspection DataFlowIssue
+                return best;
+            }
+            Connection expected = this.connections.get(emptySlot);
+            if (expected != null && !expected.closed) {
+                continue;
+            }
+            Connection created = new Connection();
+            if (this.connections.compareAndSet(emptySlot, expected, created)) {
+                return created;
+            }
+            created.channel.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < this.connections.length(); i++) {
+            Connection connection = this.connections.getAndSet(i, null);
+            if (connection != null) {
+                connection.channel.close();
+            }
+        }
+    }
+
+    private @NotNull ProxyHandler proxyHandler(@NotNull Proxy proxy) {
+        return proxy.type() == Proxy.Type.SOCKS
+                ? new Socks5ProxyHandler(proxy.address())
+                : new HttpProxyHandler(proxy.address());
+    }
+
+    /**
+     * <p>进行中的查询</p>
+     *
+     * @param id 原始事务 ID
+     * @param future 查询结果
+     */
+    private record Pending(int id, @NotNull CompletableFuture<byte[]> future) {
+    }
+
+    /**
+     * <p>一个 TLS 连接，除计数外的状态只在其事件循环上访问</p>
+     */
+    private class Connection extends SimpleChannelInboundHandler<ByteBuf> {
+        @NotNull private final Channel channel;
+        @NotNull private final Promise<Void> ready = ImmediateEventExecutor.INSTANCE.newPromise();
+        @NotNull private final AtomicInteger inFlight = new AtomicInteger();
+        @NotNull private final IntObjectMap<Pending> pending = new IntObjectHashMap<>();
+        private int nextId = ThreadLocalRandom.current().nextInt(0x10000);
+        private volatile boolean closed;
+
+        private Connection() {
+            final DoTClient client = DoTClient.this;
+            InetSocketAddress remote = client.proxy != null
+                    ? InetSocketAddress.createUnresolved(client.host, client.port)
+                    : new InetSocketAddress(client.host, client.port);
+            ChannelFuture connect = client.bootstrap.clone()
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            if (client.proxy != null) {
+                                ch.pipeline().addLast(client.proxyHandler(client.proxy));
+                            }
+                            SslHandler ssl = client.sslContext.newHandler(ch.alloc(), client.host, client.port);
+                            // 校验证书中的主机名
+                            SSLEngine engine = ssl.engine();
+                            SSLParameters parameters = engine.getSSLParameters();
+                            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                            engine.setSSLParameters(parameters);
+                            ch.pipeline()
+                                    .addLast(ssl)
+                                    .addLast(new IdleStateHandler(0L, 0L, client.keepAlive, TimeUnit.MILLISECONDS))
+                                    .addLast(new LengthFieldBasedFrameDecoder(65535, 0, 2, 0, 2))
+                                    .addLast(new LengthFieldPrepender(2))
+                                    .addLast(Connection.this);
+                        }
+                    })
+                    .connect(remote);
+            this.channel = connect.channel();
+            connect.addListener(f -> {
+                if (!f.isSuccess()) {
+                    this.closed = true;
+                    this.ready.tryFailure(f.cause());
+                }
+            });
+        }
+
+        /**
+         * <p>在事件循环上调用</p>
+         */
+        private void send(@NotNull byte[] query, @NotNull CompletableFuture<byte[]> future) {
+            if (!this.ready.isDone()) {
+                // 握手完成前的查询在握手完成后发送，ready 只在事件循环上完成，监听器也在事件循环上执行
+                this.ready.addListener(f -> this.send(query, future));
+                return;
+            }
+            if (future.isDone()) {
+                return;
+            }
+            if (!this.ready.isSuccess() || !this.channel.isActive()) {
+                future.completeExceptionally(new IOException("无法连接 DoT 服务器 " + DoTClient.this.host, this.ready.cause()));
+                return;
+            }
+            if (this.pending.size() >= DoTClient.this.maxPipelined) {
+                future.completeExceptionally(new IOException("DoT 连接进行中的查询已达上限"));
+                return;
+            }
+
+            int id;
+            do {
+                id = this.nextId++ & 0xffff;
+            } while (this.pending.containsKey(id));
+            byte[] message = query.clone();
+            DNSWire.setId(message, id);
+            this.pending.put(id, new Pending(DNSWire.id(query), future));
+            this.inFlight.incrementAndGet();
+
+            // 调用方放弃等待时移除，迟到的响应会被丢弃
+            final int sentId = id;
+            future.whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    this.channel.eventLoop().execute(() -> this.remove(sentId, future));
+                }
+            });
+            this.channel.writeAndFlush(Unpooled.wrappedBuffer(message)).addListener(f -> {
+                if (!f.isSuccess()) {
+                    this.remove(sentId, future);
+                    future.completeExceptionally(f.cause());
+                }
+            });
+        }
+
+        private void remove(int id, @NotNull CompletableFuture<byte[]> future) {
+            Pending pending = this.pending.get(id);
+            if (pending != null && pending.future() == future) {
+                this.pending.remove(id);
+                this.inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            if (frame.readableBytes() < DNSWire.HEADER_LENGTH) {
+                return;
+            }
+            Pending pending = this.pending.remove(frame.getUnsignedShort(frame.readerIndex()));
+            if (pending == null) {
+                return;
+            }
+            this.inFlight.decrementAndGet();
+            byte[] response = ByteBufUtil.getBytes(frame);
+            DNSWire.setId(response, pending.id());
+            pending.future().complete(response);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof SslHandshakeCompletionEvent handshake) {
+                if (handshake.isSuccess()) {
+                    this.ready.trySuccess(null);
+                } else {
+                    this.ready.tryFailure(handshake.cause());
+                }
+            } else if (evt instanceof IdleStateEvent) {
+                if (this.pending.isEmpty()) {
+                    ctx.close();
+                }
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            this.closed = true;
+            IOException closed = new IOException("DoT 连接已关闭");
+            this.ready.tryFailure(closed);
+            for (Pending pending : this.pending.values()) {
+                pending.future().completeExceptionally(closed);
+            }
+            this.pending.clear();
+            this.inFlight.set(0);
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            DoTClient.this.logger.debug("DoT 连接 {} 出错", DoTClient.this.host, cause);
+            ctx.close();
+        }
+    }
+}
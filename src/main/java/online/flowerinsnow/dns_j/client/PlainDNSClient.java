@@ -0,0 +1,207 @@
+package online.flowerinsnow.dns_j.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.proxy.HttpProxyHandler;
+import io.netty.handler.proxy.Socks5ProxyHandler;
+import io.netty.resolver.NoopAddressResolverGroup;
+import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.server.EventLoops;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>普通 DNS 客户端（RFC 1035），用于内网解析器等不需要加密的上游</p>
+ * <p>UDP 模式下每个查询使用一个新的套接字，由系统随机分配源端口，发送前把事务 ID 改写为随机值（RFC 5452）；
+ * 只接受来自服务器地址、事务 ID 与问题都与查询相同的响应。响应被截断时改用 TCP 重新查询。
+ * TCP 模式或设置了代理时，每个查询使用一个新的 TCP 连接</p>
+ * <p>每个查询的套接字或连接在得到响应、失败或超时时关闭，不会残留</p>
+ */
+public class PlainDNSClient implements UpstreamClient {
+    @NotNull private final InetSocketAddress server;
+    private final boolean tcp;
+    @Nullable private final Proxy proxy;
+    private final long timeout;
+    @NotNull private final EventLoops loops;
+
+    /**
+     * <p>使用配置中的 queryTimeout</p>
+     *
+     * @param server 服务器地址
+     * @param tcp 是否只使用 TCP
+     * @param proxy 代理，只能用于 TCP，为 null 时直接连接
+     * @param config 配置
+     * @param loops 共用的事件循环
+     */
+    public PlainDNSClient(@NotNull InetSocketAddress server, boolean tcp, @Nullable Proxy proxy, @NotNull Config config, @NotNull EventLoops loops) {
+        this.server = Objects.requireNonNull(server);
+        this.proxy = proxy != null && proxy.type() != Proxy.Type.DIRECT ? proxy : null;
+        // UDP 无法经过 SOCKS5 或 HTTP CONNECT 代理
+        this.tcp = tcp || this.proxy != null;
+        this.timeout = config.getQueryTimeout();
+        this.loops = Objects.requireNonNull(loops);
+    }
+
+    @Override
+    public @NotNull CompletableFuture<byte[]> query(@NotNull byte[] query) {
+        Objects.requireNonNull(query);
+        if (query.length < DNSWire.HEADER_LENGTH) {
+            return CompletableFuture.failedFuture(new IOException("查询报文过短"));
+        }
+        if (this.tcp) {
+            return this.queryTcp(query, this.timeout);
+        }
+        // UDP 与截断后的 TCP 重试共用同一个超时时间
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+        return this.queryUdp(query, this.timeout).thenCompose(response -> {
+            if (!DNSWire.isTruncated(response)) {
+                return CompletableFuture.completedFuture(response);
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            return remaining > 0
+                    ? this.queryTcp(query, remaining)
+                    : CompletableFuture.failedFuture(new TimeoutException("DNS 查询超时"));
+        });
+    }
+
+    /**
+     * <p>通过一个新的 UDP 套接字查询，收到响应或超时后关闭</p>
+     */
+    private @NotNull CompletableFuture<byte[]> queryUdp(@NotNull byte[] query, long timeout) {
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        final byte[] message = query.clone();
+        final int id = ThreadLocalRandom.current().nextInt(0x10000);
+        DNSWire.setId(message, id);
+        ChannelFuture bind = new Bootstrap()
+                .group(this.loops.worker())
+                .channel(this.loops.datagramChannel())
+                .handler(new SimpleChannelInboundHandler<DatagramPacket>() {
+                    @Override
+                    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+                        ByteBuf content = packet.content();
+                        if (!packet.sender().equals(PlainDNSClient.this.server)
+                                || content.readableBytes() < DNSWire.HEADER_LENGTH
+                                || content.getUnsignedShort(content.readerIndex()) != id) {
+                            return;
+                        }
+                        byte[] response = ByteBufUtil.getBytes(content);
+                        // 问题不同的响应可能是伪造的，丢弃后继续等待
+                        if (!DNSWire.isResponse(response) || !DNSWire.sameQuestion(message, response)) {
+                            return;
+                        }
+                        DNSWire.setId(response, DNSWire.id(query));
+                        future.complete(response);
+                    }
+
+                    @Override
+                    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                        future.completeExceptionally(cause);
+                    }
+                })
+                // 端口为 0 时由系统随机选择源端口
+                .bind(0);
+        bind.addListener(f -> {
+            if (!f.isSuccess()) {
+                future.completeExceptionally(f.cause());
+                return;
+            }
+            bind.channel().writeAndFlush(new DatagramPacket(Unpooled.wrappedBuffer(message), this.server)).addListener(w -> {
+                if (!w.isSuccess()) {
+                    future.completeExceptionally(w.cause());
+                }
+            });
+        });
+        // 无论成功、失败还是超时都关闭套接字
+        future.orTimeout(timeout, TimeUnit.MILLISECONDS)
+                .whenComplete((response, throwable) -> bind.channel().close());
+        return future;
+    }
+
+    /**
+     * <p>通过一个新的 TCP 连接查询，收到响应或超时后关闭</p>
+     */
+    private @NotNull CompletableFuture<byte[]> queryTcp(@NotNull byte[] query, long timeout) {
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        final Proxy proxy = this.proxy;
+        Bootstrap bootstrap = new Bootstrap()
+                .group(this.loops.worker())
+                .channel(this.loops.socketChannel())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) Math.min(Integer.MAX_VALUE, timeout))
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        if (proxy != null) {
+                            ch.pipeline().addLast(proxy.type() == Proxy.Type.SOCKS
+                                    ? new Socks5ProxyHandler(proxy.address())
+                                    : new HttpProxyHandler(proxy.address()));
+                        }
+                        ch.pipeline()
+                                .addLast(new LengthFieldBasedFrameDecoder(65535, 0, 2, 0, 2))
+                                .addLast(new LengthFieldPrepender(2))
+                                .addLast(new SimpleChannelInboundHandler<ByteBuf>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+                                        future.complete(ByteBufUtil.getBytes(frame));
+                                        ctx.close();
+                                    }
+
+                                    @Override
+                                    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+                                        future.completeExceptionally(new IOException("DNS 服务器关闭了连接"));
+                                        super.channelInactive(ctx);
+                                    }
+
+                                    @Override
+                                    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                                        future.completeExceptionally(cause);
+                                        ctx.close();
+                                    }
+                                });
+                    }
+                });
+        InetSocketAddress remote = this.server;
+        if (proxy != null) {
+            // 由代理解析服务器主机名
+            bootstrap.resolver(NoopAddressResolverGroup.INSTANCE);
+            remote = InetSocketAddress.createUnresolved(this.server.getHostString(), this.server.getPort());
+        }
+        ChannelFuture connect = bootstrap.connect(remote);
+        connect.addListener(f -> {
+            if (f.isSuccess()) {
+                connect.channel().writeAndFlush(Unpooled.wrappedBuffer(query));
+            } else {
+                future.completeExceptionally(f.cause());
+            }
+        });
+        // 超时或调用方放弃等待时关闭连接
+        future.orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                connect.channel().close();
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() {
+        // 每个查询的套接字与连接在查询结束时关闭，没有需要释放的资源
+    }
+}
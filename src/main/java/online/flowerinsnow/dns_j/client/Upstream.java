@@ -0,0 +1,209 @@
+package online.flowerinsnow.dns_j.client;
+
+import online.flowerinsnow.dns_j.metrics.Metrics;
+import online.flowerinsnow.dns_j.metrics.UpstreamMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>一个上游服务器及其健康状态</p>
+ * <p>记录延迟的指数加权移动平均（EWMA）和最近的延迟样本；EWMA 以失败惩罚为初始值，
+ * 失败时也按失败惩罚计入，尚未成功或经常失败的上游不会被当作最快的上游</p>
+ * <p>连续失败达到阈值后熔断一段时间；冷却结束后每个冷却周期只放行一个探测请求（半开），
+ * 探测成功则恢复正常，失败则重新熔断</p>
+ */
+public class Upstream implements AutoCloseable {
+    private static final double EWMA_ALPHA = 0.3D;
+    private static final int SAMPLES = 128;
+    private static final int PERCENTILE_INTERVAL = 16;
+
+    @NotNull private final Logger logger;
+    @NotNull private final String name;
+    @NotNull private final UpstreamClient client;
+    @NotNull private final UpstreamMetrics metrics;
+    private final int weight;
+    private final int failureThreshold;
+    private final long cooldown;
+    private final long failurePenalty;
+
+    @NotNull private final AtomicLong ewma;
+    @NotNull private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    @NotNull private final AtomicInteger sampleIndex = new AtomicInteger();
+    @NotNull private final AtomicInteger failures = new AtomicInteger();
+    @NotNull private final AtomicLong openUntil = new AtomicLong();
+    @NotNull private final AtomicBoolean measured = new AtomicBoolean();
+    @Nullable private volatile Percentile percentile;
+
+    /**
+     * @param name 名称，用于日志
+     * @param client 客户端
+     * @param weight 权重
+     * @param failureThreshold 连续失败多少次后熔断，为 0 时不熔断
+     * @param cooldown 熔断持续时间（毫秒）
+     * @param failurePenalty 失败时计入 EWMA 的延迟，也是 EWMA 的初始值（毫秒），一般取查询超时时间
+     * @param metrics 运行指标，记录该上游的延迟、错误与超时
+     */
+    public Upstream(@NotNull String name, @NotNull UpstreamClient client, int weight, int failureThreshold, long cooldown, long failurePenalty, @NotNull Metrics metrics) {
+        this.logger = LogManager.getLogger(Upstream.class.getSimpleName());
+        this.name = Objects.requireNonNull(name);
+        this.client = Objects.requireNonNull(client);
+        this.metrics = metrics.upstream(name);
+        this.weight = Math.max(1, weight);
+        this.failureThreshold = failureThreshold;
+        this.cooldown = cooldown;
+        this.failurePenalty = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, failurePenalty));
+        this.ewma = new AtomicLong(Double.doubleToRawLongBits(this.failurePenalty));
+    }
+
+    public @NotNull CompletableFuture<byte[]> query(@NotNull byte[] query) {
+        long start = System.nanoTime();
+        CompletableFuture<byte[]> future = this.client.query(query);
+        future.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                this.onSuccess(System.nanoTime() - start);
+            } else if (!(throwable instanceof CancellationException)) {
+                // 对冲请求中被放弃的一方不算失败
+                this.onFailure(throwable);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return 是否未被熔断，半开状态不算
+     */
+    public boolean isAvailable() {
+        return this.failureThreshold <= 0 || this.failures.get() < this.failureThreshold;
+    }
+
+    /**
+     * <p>熔断冷却结束时尝试取得探测机会，每个冷却周期只有一个调用方能取得</p>
+     *
+     * @return 取得探测机会时返回 true，调用方应向该上游发送查询
+     */
+    public boolean tryProbe() {
+        if (this.isAvailable()) {
+            return false;
+        }
+        long until = this.openUntil.get();
+        long now = System.currentTimeMillis();
+        // 把熔断推迟一个冷却周期，探测结果返回前其他查询不会再被放行
+        return now >= until && this.openUntil.compareAndSet(until, now + this.cooldown);
+    }
+
+    /**
+     * <p>首次取得时返回 true，之后总是返回 false，用于让每个上游至少被选中一次以测得延迟</p>
+     *
+     * @return 是否由本次调用取得首次测量机会
+     */
+    public boolean tryMeasure() {
+        return !this.measured.get() && this.measured.compareAndSet(false, true);
+    }
+
+    /**
+     * @return 延迟的指数加权移动平均（纳秒），尚未有请求完成时为失败惩罚
+     */
+    public double latency() {
+        return Double.longBitsToDouble(this.ewma.get());
+    }
+
+    /**
+     * <p>结果会被缓存，样本较少时每当样本数翻倍重新计算，之后每 {@value #PERCENTILE_INTERVAL} 个新样本重新计算一次</p>
+     *
+     * @param percentile 百分位，0 - 100
+     * @return 最近延迟样本的百分位数（纳秒），没有样本时返回 -1
+     */
+    public long latencyPercentile(int percentile) {
+        int count = this.sampleIndex.get();
+        Percentile cached = this.percentile;
+        if (cached != null && cached.percentile == percentile && count - cached.count < Upstream.interval(cached.count)) {
+            return cached.value;
+        }
+        long value = this.computePercentile(percentile);
+        this.percentile = new Percentile(percentile, count, value);
+        return value;
+    }
+
+    private static int interval(int count) {
+        return count >= 0 && count < PERCENTILE_INTERVAL ? count + 1 : PERCENTILE_INTERVAL;
+    }
+
+    private long computePercentile(int percentile) {
+        long[] copy = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            copy[i] = this.samples.get(i);
+        }
+        Arrays.sort(copy);
+        int first = 0;
+        while (first < copy.length && copy[first] == 0L) {
+            first++;
+        }
+        if (first == copy.length) {
+            return -1L;
+        }
+        int index = first + (int) Math.ceil((copy.length - first) * percentile / 100.0D) - 1;
+        return copy[Math.max(first, Math.min(copy.length - 1, index))];
+    }
+
+    public int weight() {
+        return this.weight;
+    }
+
+    public @NotNull String name() {
+        return this.name;
+    }
+
+    private void onSuccess(long latency) {
+        this.metrics.success(latency);
+        this.samples.set(Math.floorMod(this.sampleIndex.getAndIncrement(), SAMPLES), latency);
+        this.updateLatency(latency);
+        if (this.failureThreshold > 0 && this.failures.getAndSet(0) >= this.failureThreshold) {
+            this.logger.info("上游 {} 已恢复", this.name);
+        }
+    }
+
+    private void onFailure(@NotNull Throwable throwable) {
+        this.metrics.failure(throwable);
+        this.updateLatency(this.failurePenalty);
+        int count = this.failures.incrementAndGet();
+        if (this.failureThreshold > 0 && count >= this.failureThreshold) {
+            this.openUntil.set(System.currentTimeMillis() + this.cooldown);
+            if (count == this.failureThreshold) {
+                this.logger.warn("上游 {} 连续失败 {} 次，暂停使用 {} 毫秒", this.name, count, this.cooldown, throwable);
+            }
+        }
+    }
+
+    private void updateLatency(long latency) {
+        long prev;
+        long next;
+        do {
+            prev = this.ewma.get();
+            double average = Double.longBitsToDouble(prev);
+            next = Double.doubleToRawLongBits(average + EWMA_ALPHA * (latency - average));
+        } while (!this.ewma.compareAndSet(prev, next));
+    }
+
+    @Override
+    public void close() {
+        this.client.close();
+    }
+
+    /**
+     * @param count 计算时的样本总数
+     */
+    private record Percentile(int percentile, int count, long value) {
+    }
+}
@@ -0,0 +1,26 @@
+package online.flowerinsnow.dns_j.client;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>上游传输</p>
+ * <p>实现持有长期存在的连接，查询异步执行，不能阻塞调用线程</p>
+ *
+ * @see DoHClient
+ * @see DoTClient
+ * @see PlainDNSClient
+ */
+public interface UpstreamClient extends AutoCloseable {
+    /**
+     * <p>异步查询</p>
+     *
+     * @param query 查询报文，实现不能修改
+     * @return 完成时得到响应报文，事务 ID 与查询相同；请求失败或超时时异常完成，调用方取消时应放弃请求
+     */
+    @NotNull CompletableFuture<byte[]> query(@NotNull byte[] query);
+
+    @Override
+    void close();
+}
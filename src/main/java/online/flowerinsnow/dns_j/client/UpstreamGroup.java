@@ -0,0 +1,212 @@
+package online.flowerinsnow.dns_j.client;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>一组上游服务器</p>
+ * <p>熔断冷却结束的上游优先取得探测机会（每个冷却周期一次）；其余查询按策略选择未被熔断的上游，
+ * 全部熔断时仍按策略选择，以免完全无法应答</p>
+ * <p>按最快策略选择时，每个上游的首个查询总是发往该上游以测得延迟；此后每 {@value #EXPLORE_INTERVAL}
+ * 次选择中有一次随机发往非最快的上游，使其 EWMA 保持更新</p>
+ * <p>启用对冲时，若首个请求在其上游延迟的指定百分位内未返回，或首个请求失败，
+ * 则向另一个上游再发送一次，采用先成功的结果并取消另一个请求</p>
+ */
+public class UpstreamGroup implements AutoCloseable {
+    private static final int EXPLORE_INTERVAL = 32;
+
+    @NotNull private final List<Upstream> upstreams;
+    @NotNull private final UpstreamStrategy strategy;
+    private final boolean hedging;
+    private final int hedgePercentile;
+    private final long hedgeMinDelay;
+    @NotNull private final AtomicInteger next = new AtomicInteger();
+    @NotNull private final AtomicInteger selections = new AtomicInteger();
+
+    /**
+     * @param upstreams 上游，至少一个
+     * @param strategy 选择策略
+     * @param hedging 是否启用对冲请求
+     * @param hedgePercentile 以上游延迟的哪个百分位作为对冲等待时间
+     * @param hedgeMinDelay 对冲等待时间的下限（毫秒）
+     */
+    public UpstreamGroup(@NotNull List<Upstream> upstreams, @NotNull UpstreamStrategy strategy, boolean hedging, int hedgePercentile, long hedgeMinDelay) {
+        if (upstreams.isEmpty()) {
+            throw new IllegalArgumentException("at least one upstream is required");
+        }
+        this.upstreams = List.copyOf(upstreams);
+        this.strategy = Objects.requireNonNull(strategy);
+        this.hedging = hedging;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinDelay = hedgeMinDelay;
+    }
+
+    /**
+     * <p>异步查询</p>
+     *
+     * @param query 查询报文
+     * @return 完成时得到响应报文
+     */
+    public @NotNull CompletableFuture<byte[]> query(@NotNull byte[] query) {
+        Objects.requireNonNull(query);
+        //noinspection DataFlowIssue
+        Upstream primary = this.select(null);
+        if (!this.hedging || this.upstreams.size() < 2) {
+            return primary.query(query);
+        }
+        return new HedgedQuery(query, primary).start();
+    }
+
+    /**
+     * @param exclude 不参与选择的上游
+     * @return 选中的上游，排除后没有可选上游时返回 null
+     */
+    private @Nullable Upstream select(@Nullable Upstream exclude) {
+        for (Upstream upstream : this.upstreams) {
+            if (upstream != exclude && upstream.tryProbe()) {
+                return upstream;
+            }
+        }
+        List<Upstream> candidates = new ArrayList<>(this.upstreams.size());
+        for (Upstream upstream : this.upstreams) {
+            if (upstream != exclude && upstream.isAvailable()) {
+                candidates.add(upstream);
+            }
+        }
+        if (candidates.isEmpty()) {
+            for (Upstream upstream : this.upstreams) {
+                if (upstream != exclude) {
+                    candidates.add(upstream);
+                }
+            }
+            if (candidates.isEmpty()) {
+                return null;
+            }
+        }
+
+        return switch (this.strategy) {
+            case FASTEST -> this.fastest(candidates);
+            case ROUND_ROBIN -> candidates.get(Math.floorMod(this.next.getAndIncrement(), candidates.size()));
+            case WEIGHTED -> {
+                int total = 0;
+                for (Upstream upstream : candidates) {
+                    total += upstream.weight();
+                }
+                int r = ThreadLocalRandom.current().nextInt(total);
+                Upstream chosen = candidates.get(candidates.size() - 1);
+                for (Upstream upstream : candidates) {
+                    r -= upstream.weight();
+                    if (r < 0) {
+                        chosen = upstream;
+                        break;
+                    }
+                }
+                yield chosen;
+            }
+        };
+    }
+
+    private @NotNull Upstream fastest(@NotNull List<Upstream> candidates) {
+        for (Upstream upstream : candidates) {
+            if (upstream.tryMeasure()) {
+                return upstream;
+            }
+        }
+        Upstream fastest = candidates.get(0);
+        for (Upstream upstream : candidates) {
+            if (upstream.latency() < fastest.latency()) {
+                fastest = upstream;
+            }
+        }
+        if (candidates.size() > 1 && Math.floorMod(this.selections.incrementAndGet(), EXPLORE_INTERVAL) == 0) {
+            // 随机选择一个非最快的上游
+            int index = ThreadLocalRandom.current().nextInt(candidates.size() - 1);
+            if (index >= candidates.indexOf(fastest)) {
+                index++;
+            }
+            return candidates.get(index);
+        }
+        return fastest;
+    }
+
+    @Override
+    public void close() {
+        for (Upstream upstream : this.upstreams) {
+            upstream.close();
+        }
+    }
+
+    private class HedgedQuery {
+        @NotNull private final byte[] query;
+        @NotNull private final Upstream primary;
+        @NotNull private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        @NotNull private final List<CompletableFuture<byte[]>> attempts = new ArrayList<>(2);
+        private int running;
+        private boolean hedged;
+
+        private HedgedQuery(@NotNull byte[] query, @NotNull Upstream primary) {
+            this.query = query;
+            this.primary = primary;
+        }
+
+        private @NotNull CompletableFuture<byte[]> start() {
+            long delay = this.primary.latencyPercentile(UpstreamGroup.this.hedgePercentile);
+            delay = Math.max(UpstreamGroup.this.hedgeMinDelay, delay < 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(delay));
+            this.result.whenComplete((response, throwable) -> this.cancelAll());
+            synchronized (this) {
+                this.launch(this.primary);
+            }
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(this::hedge);
+            return this.result;
+        }
+
+        private synchronized void hedge() {
+            if (this.hedged || this.result.isDone()) {
+                return;
+            }
+            this.hedged = true;
+            Upstream secondary = UpstreamGroup.this.select(this.primary);
+            if (secondary != null) {
+                this.launch(secondary);
+            }
+        }
+
+        private void launch(@NotNull Upstream upstream) {
+            this.running++;
+            CompletableFuture<byte[]> attempt = upstream.query(this.query);
+            this.attempts.add(attempt);
+            attempt.whenComplete(this::onComplete);
+        }
+
+        private synchronized void onComplete(byte[] response, Throwable throwable) {
+            this.running--;
+            if (throwable == null) {
+                this.result.complete(response);
+                return;
+            }
+            // 首个请求失败时立即向另一个上游发送
+            this.hedge();
+            if (this.running == 0) {
+                this.result.completeExceptionally(throwable);
+            }
+        }
+
+        private void cancelAll() {
+            List<CompletableFuture<byte[]>> attempts;
+            synchronized (this) {
+                attempts = List.copyOf(this.attempts);
+            }
+            for (CompletableFuture<byte[]> attempt : attempts) {
+                attempt.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package online.flowerinsnow.dns_j.client;
+
+/**
+ * <p>上游选择策略</p>
+ */
+public enum UpstreamStrategy {
+    /**
+     * 选择平均延迟（EWMA）最低的上游
+     */
+    FASTEST,
+    /**
+     * 依次轮流选择
+     */
+    ROUND_ROBIN,
+    /**
+     * 按权重随机选择
+     */
+    WEIGHTED
+}
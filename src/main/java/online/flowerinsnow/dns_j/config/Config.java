@@ -1,13 +1,132 @@
 package online.flowerinsnow.dns_j.config;
 
+import online.flowerinsnow.dns_j.admission.ShedPolicy;
+import online.flowerinsnow.dns_j.audit.AuditOverflowPolicy;
+import online.flowerinsnow.dns_j.client.UpstreamStrategy;
+import online.flowerinsnow.dns_j.local.BlockResponse;
+
 import java.net.Proxy;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Config {
     private String domainNameServer;
+    private List<String> domainNameServers = new ArrayList<>();
     private SocketAddress bind;
     private Proxy proxy;
 
+    // 多上游选择、熔断与对冲
+    private UpstreamStrategy upstreamStrategy = UpstreamStrategy.FASTEST;
+    private Map<String, Integer> upstreamWeights = new HashMap<>();
+    private int circuitBreakerThreshold = 5;
+    private long circuitBreakerCooldown = 30000L;
+    private boolean hedging = false;
+    private int hedgePercentile = 95;
+    private long hedgeMinDelay = 20L;
+
+    // 条件转发
+    private Map<String, String> forwardRules = new HashMap<>();
+    private Map<String, Proxy> forwardProxies = new HashMap<>();
+
+    // 审计日志
+    private String auditFile;
+    private int auditQueueSize = 65536;
+    private double auditSampleRate = 1.0D;
+    private int auditBatchSize = 256;
+    private long auditMaxFileSize = 100L * 1024L * 1024L;
+    private int auditMaxFiles = 10;
+    private AuditOverflowPolicy auditOverflowPolicy = AuditOverflowPolicy.DROP;
+
+    // 上游连接池
+    private int maxIdleConnections = 5;
+    private long keepAlive = 300000L;
+    private int maxConcurrentStreams = 64;
+    private int dotConnections = 2;
+
+    // DoH 上游 GET 与 HTTP 缓存
+    private boolean dohGet = false;
+    private String dohCache;
+    private long dohCacheSize = 10485760L;
+
+    private long queryTimeout = 5000L;
+    private boolean passthrough = false;
+
+    // 虚拟线程
+    private boolean virtualThreads = false;
+    private int upstreamConcurrency = 1024;
+    private int upstreamQueueSize = 1024;
+    private long upstreamQueueTimeout = 1000L;
+
+    // UDP 传输
+    private boolean epoll = false;
+    private int listeners = 0;
+    private int maxDatagramSize = 4096;
+    private int receiveBatch = 16;
+
+    // TCP 传输
+    private boolean tcp = true;
+    private long tcpIdleTimeout = 10000L;
+    private int tcpMaxConnections = 1024;
+    private int tcpMaxPipelined = 64;
+
+    // DoT 与 DoH 监听
+    private SocketAddress dotBind;
+    private SocketAddress dohBind;
+    private String dohPath = "/dns-query";
+    private String tlsCertificate;
+    private String tlsPrivateKey;
+    private long tlsIdleTimeout = 120000L;
+    private long tlsSessionCacheSize = 10240L;
+    private long tlsSessionTimeout = 86400L;
+
+    // 指标
+    private SocketAddress metricsBind;
+
+    // 查询流分析
+    private int analyticsTopK = 0;
+    private long analyticsWindow = 60000L;
+    private int analyticsSlices = 6;
+    private int analyticsSketchWidth = 4096;
+
+    // 准入控制
+    private double rateLimit = 0.0D;
+    private int rateLimitBurst = 0;
+    private int rateLimitIPv4Prefix = 32;
+    private int rateLimitIPv6Prefix = 56;
+    private int rateLimitTableSize = 65536;
+    private int maxInFlight = 0;
+    private long latencyBudget = 0L;
+    private ShedPolicy shedPolicy = ShedPolicy.DROP;
+
+    // 本地解析
+    private Map<String, List<String>> localRecords = new HashMap<>();
+    private List<String> hostsFiles = new ArrayList<>();
+    private List<String> blocklists = new ArrayList<>();
+    private BlockResponse blockResponse = BlockResponse.NXDOMAIN;
+    private long localTtl = 300L;
+    private long localReloadInterval = 60000L;
+
+    // 响应缓存
+    private int cacheSize = 10000;
+    private long cacheMaxTtl = 86400L;
+    private long cacheMaxNegativeTtl = 3600L;
+
+    // 预取与 serve-stale
+    private int prefetchThreshold = 0;
+    private int prefetchPercent = 10;
+    private boolean serveStale = false;
+    private long staleMaxTtl = 86400L;
+    private long staleAnswerTtl = 30L;
+    private long staleTimeout = 1800L;
+    private long staleRecheckInterval = 30L;
+
+    // 缓存快照
+    private String cacheSnapshot;
+    private long cacheSnapshotInterval = 60000L;
+
     public String getDomainNameServer() {
         return this.domainNameServer;
     }
@@ -16,6 +135,17 @@ public class Config {
         this.domainNameServer = domainNameServer;
     }
 
+    /**
+     * @return 多个 DoH 服务器，不为空时取代 {@link #getDomainNameServer()}
+     */
+    public List<String> getDomainNameServers() {
+        return this.domainNameServers;
+    }
+
+    public void setDomainNameServers(List<String> domainNameServers) {
+        this.domainNameServers = domainNameServers;
+    }
+
     public SocketAddress getBind() {
         return this.bind;
     }
@@ -31,4 +161,828 @@ public class Config {
     public void setProxy(Proxy proxy) {
         this.proxy = proxy;
     }
+
+    /**
+     * @return 连接池中保留的最大空闲连接数
+     */
+    public int getMaxIdleConnections() {
+        return this.maxIdleConnections;
+    }
+
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    /**
+     * @return 空闲连接的保活时间（毫秒）
+     */
+    public long getKeepAlive() {
+        return this.keepAlive;
+    }
+
+    public void setKeepAlive(long keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @return 对单个上游同时进行的最大请求（HTTP/2 流）数
+     */
+    public int getMaxConcurrentStreams() {
+        return this.maxConcurrentStreams;
+    }
+
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    /**
+     * @return 是否以 GET 请求 DoH 上游（RFC 8484），事务 ID 置 0，相同的问题得到相同的 URL，可以被 HTTP 缓存
+     */
+    public boolean isDohGet() {
+        return this.dohGet;
+    }
+
+    public void setDohGet(boolean dohGet) {
+        this.dohGet = dohGet;
+    }
+
+    /**
+     * @return DoH 上游 HTTP 响应缓存的目录，按 Cache-Control 缓存 GET 请求的应答，为 null 时不缓存
+     */
+    public String getDohCache() {
+        return this.dohCache;
+    }
+
+    public void setDohCache(String dohCache) {
+        this.dohCache = dohCache;
+    }
+
+    /**
+     * @return DoH 上游 HTTP 响应缓存的最大字节数，同一目录的缓存创建后不再改变
+     */
+    public long getDohCacheSize() {
+        return this.dohCacheSize;
+    }
+
+    public void setDohCacheSize(long dohCacheSize) {
+        this.dohCacheSize = dohCacheSize;
+    }
+
+    /**
+     * @return 单次查询的最长等待时间（毫秒）
+     */
+    public long getQueryTimeout() {
+        return this.queryTimeout;
+    }
+
+    public void setQueryTimeout(long queryTimeout) {
+        this.queryTimeout = queryTimeout;
+    }
+
+    /**
+     * @return 是否以报文形式直接转发查询与响应，不解码为 Netty 的 DNS 消息
+     */
+    public boolean isPassthrough() {
+        return this.passthrough;
+    }
+
+    public void setPassthrough(boolean passthrough) {
+        this.passthrough = passthrough;
+    }
+
+    /**
+     * @return 是否在 Linux 上使用原生 epoll 传输，不可用时回退到 NIO
+     */
+    public boolean isEpoll() {
+        return this.epoll;
+    }
+
+    public void setEpoll(boolean epoll) {
+        this.epoll = epoll;
+    }
+
+    /**
+     * @return 事件循环线程数，使用 epoll 时也是以 SO_REUSEPORT 打开的 UDP 套接字数，为 0 时等于处理器数
+     */
+    public int getListeners() {
+        return this.listeners;
+    }
+
+    public void setListeners(int listeners) {
+        this.listeners = listeners;
+    }
+
+    /**
+     * @return 使用 epoll 批量接收时单个数据报的最大长度
+     */
+    public int getMaxDatagramSize() {
+        return this.maxDatagramSize;
+    }
+
+    public void setMaxDatagramSize(int maxDatagramSize) {
+        this.maxDatagramSize = maxDatagramSize;
+    }
+
+    /**
+     * @return 使用 epoll 时每次 recvmmsg 最多接收的数据报数
+     */
+    public int getReceiveBatch() {
+        return this.receiveBatch;
+    }
+
+    public void setReceiveBatch(int receiveBatch) {
+        this.receiveBatch = receiveBatch;
+    }
+
+    /**
+     * @return 最大缓存条目数，为 0 时不缓存
+     */
+    public int getCacheSize() {
+        return this.cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @return 肯定应答的最长缓存时间（秒）
+     */
+    public long getCacheMaxTtl() {
+        return this.cacheMaxTtl;
+    }
+
+    public void setCacheMaxTtl(long cacheMaxTtl) {
+        this.cacheMaxTtl = cacheMaxTtl;
+    }
+
+    /**
+     * @return 否定应答（NXDOMAIN / NODATA）的最长缓存时间（秒）
+     */
+    public long getCacheMaxNegativeTtl() {
+        return this.cacheMaxNegativeTtl;
+    }
+
+    public void setCacheMaxNegativeTtl(long cacheMaxNegativeTtl) {
+        this.cacheMaxNegativeTtl = cacheMaxNegativeTtl;
+    }
+
+    /**
+     * @return 剩余 TTL 进入预取窗口后条目被命中多少次才会预取，为 0 时不预取
+     */
+    public int getPrefetchThreshold() {
+        return this.prefetchThreshold;
+    }
+
+    public void setPrefetchThreshold(int prefetchThreshold) {
+        this.prefetchThreshold = prefetchThreshold;
+    }
+
+    /**
+     * @return 剩余 TTL 低于原 TTL 的百分之多少时预取
+     */
+    public int getPrefetchPercent() {
+        return this.prefetchPercent;
+    }
+
+    public void setPrefetchPercent(int prefetchPercent) {
+        this.prefetchPercent = prefetchPercent;
+    }
+
+    /**
+     * @return 是否在上游缓慢或不可用时返回过期应答（RFC 8767）
+     */
+    public boolean isServeStale() {
+        return this.serveStale;
+    }
+
+    public void setServeStale(boolean serveStale) {
+        this.serveStale = serveStale;
+    }
+
+    /**
+     * @return 过期条目的最长保留时间（秒）
+     */
+    public long getStaleMaxTtl() {
+        return this.staleMaxTtl;
+    }
+
+    public void setStaleMaxTtl(long staleMaxTtl) {
+        this.staleMaxTtl = staleMaxTtl;
+    }
+
+    /**
+     * @return 过期应答中记录的 TTL（秒）
+     */
+    public long getStaleAnswerTtl() {
+        return this.staleAnswerTtl;
+    }
+
+    public void setStaleAnswerTtl(long staleAnswerTtl) {
+        this.staleAnswerTtl = staleAnswerTtl;
+    }
+
+    /**
+     * @return 条目过期后等待上游刷新的最长时间（毫秒），超时后返回过期应答，为 0 时立即返回
+     */
+    public long getStaleTimeout() {
+        return this.staleTimeout;
+    }
+
+    public void setStaleTimeout(long staleTimeout) {
+        this.staleTimeout = staleTimeout;
+    }
+
+    /**
+     * @return 过期条目刷新失败后多久内不再向上游刷新、直接返回过期应答（秒）
+     */
+    public long getStaleRecheckInterval() {
+        return this.staleRecheckInterval;
+    }
+
+    public void setStaleRecheckInterval(long staleRecheckInterval) {
+        this.staleRecheckInterval = staleRecheckInterval;
+    }
+
+    public UpstreamStrategy getUpstreamStrategy() {
+        return this.upstreamStrategy;
+    }
+
+    public void setUpstreamStrategy(UpstreamStrategy upstreamStrategy) {
+        this.upstreamStrategy = upstreamStrategy;
+    }
+
+    /**
+     * @return 各 DoH 服务器的权重，用于 {@link UpstreamStrategy#WEIGHTED}，未设置的为 1
+     */
+    public Map<String, Integer> getUpstreamWeights() {
+        return this.upstreamWeights;
+    }
+
+    public void setUpstreamWeights(Map<String, Integer> upstreamWeights) {
+        this.upstreamWeights = upstreamWeights;
+    }
+
+    /**
+     * @return 上游连续失败多少次后熔断，为 0 时不熔断
+     */
+    public int getCircuitBreakerThreshold() {
+        return this.circuitBreakerThreshold;
+    }
+
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    /**
+     * @return 熔断持续时间（毫秒）
+     */
+    public long getCircuitBreakerCooldown() {
+        return this.circuitBreakerCooldown;
+    }
+
+    public void setCircuitBreakerCooldown(long circuitBreakerCooldown) {
+        this.circuitBreakerCooldown = circuitBreakerCooldown;
+    }
+
+    /**
+     * @return 是否在首个上游迟迟未应答时向另一个上游发送对冲请求
+     */
+    public boolean isHedging() {
+        return this.hedging;
+    }
+
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    /**
+     * @return 以上游延迟的哪个百分位作为对冲等待时间
+     */
+    public int getHedgePercentile() {
+        return this.hedgePercentile;
+    }
+
+    public void setHedgePercentile(int hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * @return 对冲等待时间的下限（毫秒）
+     */
+    public long getHedgeMinDelay() {
+        return this.hedgeMinDelay;
+    }
+
+    public void setHedgeMinDelay(long hedgeMinDelay) {
+        this.hedgeMinDelay = hedgeMinDelay;
+    }
+
+    /**
+     * @return 条件转发规则，域名后缀或 CIDR（反向解析）→ 上游地址，多个上游以 , 分隔
+     */
+    public Map<String, String> getForwardRules() {
+        return this.forwardRules;
+    }
+
+    public void setForwardRules(Map<String, String> forwardRules) {
+        this.forwardRules = forwardRules;
+    }
+
+    /**
+     * @return 条件转发规则使用的代理，键与 forwardRules 相同，未设置的使用 proxy，{@link Proxy#NO_PROXY} 为直接连接
+     */
+    public Map<String, Proxy> getForwardProxies() {
+        return this.forwardProxies;
+    }
+
+    public void setForwardProxies(Map<String, Proxy> forwardProxies) {
+        this.forwardProxies = forwardProxies;
+    }
+
+    /**
+     * @return 审计日志文件（JSON 行），为 null 时通过名为 Audit 的 logger 输出
+     */
+    public String getAuditFile() {
+        return this.auditFile;
+    }
+
+    public void setAuditFile(String auditFile) {
+        this.auditFile = auditFile;
+    }
+
+    /**
+     * @return 等待写出的审计记录的最大数量
+     */
+    public int getAuditQueueSize() {
+        return this.auditQueueSize;
+    }
+
+    public void setAuditQueueSize(int auditQueueSize) {
+        this.auditQueueSize = auditQueueSize;
+    }
+
+    /**
+     * @return 审计采样率，0 - 1，为 0 时不审计
+     */
+    public double getAuditSampleRate() {
+        return this.auditSampleRate;
+    }
+
+    public void setAuditSampleRate(double auditSampleRate) {
+        this.auditSampleRate = auditSampleRate;
+    }
+
+    /**
+     * @return 每批最多写出的审计记录数
+     */
+    public int getAuditBatchSize() {
+        return this.auditBatchSize;
+    }
+
+    public void setAuditBatchSize(int auditBatchSize) {
+        this.auditBatchSize = auditBatchSize;
+    }
+
+    /**
+     * @return 审计文件达到多少字节后滚动，为 0 时不滚动
+     */
+    public long getAuditMaxFileSize() {
+        return this.auditMaxFileSize;
+    }
+
+    public void setAuditMaxFileSize(long auditMaxFileSize) {
+        this.auditMaxFileSize = auditMaxFileSize;
+    }
+
+    /**
+     * @return 滚动后保留的历史审计文件数
+     */
+    public int getAuditMaxFiles() {
+        return this.auditMaxFiles;
+    }
+
+    public void setAuditMaxFiles(int auditMaxFiles) {
+        this.auditMaxFiles = auditMaxFiles;
+    }
+
+    public AuditOverflowPolicy getAuditOverflowPolicy() {
+        return this.auditOverflowPolicy;
+    }
+
+    public void setAuditOverflowPolicy(AuditOverflowPolicy auditOverflowPolicy) {
+        this.auditOverflowPolicy = auditOverflowPolicy;
+    }
+
+    /**
+     * @return 是否同时在绑定地址上监听 TCP
+     */
+    public boolean isTcp() {
+        return this.tcp;
+    }
+
+    public void setTcp(boolean tcp) {
+        this.tcp = tcp;
+    }
+
+    /**
+     * @return TCP 连接空闲多少毫秒后关闭
+     */
+    public long getTcpIdleTimeout() {
+        return this.tcpIdleTimeout;
+    }
+
+    public void setTcpIdleTimeout(long tcpIdleTimeout) {
+        this.tcpIdleTimeout = tcpIdleTimeout;
+    }
+
+    /**
+     * @return 同时打开的最大 TCP 连接数
+     */
+    public int getTcpMaxConnections() {
+        return this.tcpMaxConnections;
+    }
+
+    public void setTcpMaxConnections(int tcpMaxConnections) {
+        this.tcpMaxConnections = tcpMaxConnections;
+    }
+
+    /**
+     * @return 每个 TCP 连接进行中的最大查询数，达到后暂停读取该连接
+     */
+    public int getTcpMaxPipelined() {
+        return this.tcpMaxPipelined;
+    }
+
+    public void setTcpMaxPipelined(int tcpMaxPipelined) {
+        this.tcpMaxPipelined = tcpMaxPipelined;
+    }
+
+    /**
+     * @return DoT 监听地址，为 null 时不监听
+     */
+    public SocketAddress getDotBind() {
+        return this.dotBind;
+    }
+
+    public void setDotBind(SocketAddress dotBind) {
+        this.dotBind = dotBind;
+    }
+
+    /**
+     * @return DoH 监听地址，为 null 时不监听
+     */
+    public SocketAddress getDohBind() {
+        return this.dohBind;
+    }
+
+    public void setDohBind(SocketAddress dohBind) {
+        this.dohBind = dohBind;
+    }
+
+    /**
+     * @return DoH 服务的 URL 路径
+     */
+    public String getDohPath() {
+        return this.dohPath;
+    }
+
+    public void setDohPath(String dohPath) {
+        this.dohPath = dohPath;
+    }
+
+    /**
+     * @return DoT 与 DoH 使用的 PEM 证书链文件
+     */
+    public String getTlsCertificate() {
+        return this.tlsCertificate;
+    }
+
+    public void setTlsCertificate(String tlsCertificate) {
+        this.tlsCertificate = tlsCertificate;
+    }
+
+    /**
+     * @return DoT 与 DoH 使用的 PKCS#8 PEM 私钥文件
+     */
+    public String getTlsPrivateKey() {
+        return this.tlsPrivateKey;
+    }
+
+    public void setTlsPrivateKey(String tlsPrivateKey) {
+        this.tlsPrivateKey = tlsPrivateKey;
+    }
+
+    /**
+     * @return DoT 与 DoH 连接空闲多少毫秒后关闭
+     */
+    public long getTlsIdleTimeout() {
+        return this.tlsIdleTimeout;
+    }
+
+    public void setTlsIdleTimeout(long tlsIdleTimeout) {
+        this.tlsIdleTimeout = tlsIdleTimeout;
+    }
+
+    /**
+     * @return 用于会话恢复的 TLS 会话缓存大小
+     */
+    public long getTlsSessionCacheSize() {
+        return this.tlsSessionCacheSize;
+    }
+
+    public void setTlsSessionCacheSize(long tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+
+    /**
+     * @return TLS 会话可以恢复的秒数
+     */
+    public long getTlsSessionTimeout() {
+        return this.tlsSessionTimeout;
+    }
+
+    public void setTlsSessionTimeout(long tlsSessionTimeout) {
+        this.tlsSessionTimeout = tlsSessionTimeout;
+    }
+
+    /**
+     * @return 每个 DoT 上游保持的连接数
+     */
+    public int getDotConnections() {
+        return this.dotConnections;
+    }
+
+    public void setDotConnections(int dotConnections) {
+        this.dotConnections = dotConnections;
+    }
+
+    /**
+     * @return Prometheus 指标服务的监听地址，为 null 时不提供
+     */
+    public SocketAddress getMetricsBind() {
+        return this.metricsBind;
+    }
+
+    public void setMetricsBind(SocketAddress metricsBind) {
+        this.metricsBind = metricsBind;
+    }
+
+    /**
+     * @return 查询流分析导出的域名与客户端数，为 0 时不启用
+     */
+    public int getAnalyticsTopK() {
+        return this.analyticsTopK;
+    }
+
+    public void setAnalyticsTopK(int analyticsTopK) {
+        this.analyticsTopK = analyticsTopK;
+    }
+
+    /**
+     * @return 查询流分析的滑动窗口长度（毫秒）
+     */
+    public long getAnalyticsWindow() {
+        return this.analyticsWindow;
+    }
+
+    public void setAnalyticsWindow(long analyticsWindow) {
+        this.analyticsWindow = analyticsWindow;
+    }
+
+    /**
+     * @return 滑动窗口分为的时间片数，窗口每经过一个时间片前进一次
+     */
+    public int getAnalyticsSlices() {
+        return this.analyticsSlices;
+    }
+
+    public void setAnalyticsSlices(int analyticsSlices) {
+        this.analyticsSlices = analyticsSlices;
+    }
+
+    /**
+     * @return 每个 count-min 草图每行的计数器数，越大估计越准确，内存占用为 32 字节乘以此值乘以时间片数乘以 2
+     */
+    public int getAnalyticsSketchWidth() {
+        return this.analyticsSketchWidth;
+    }
+
+    public void setAnalyticsSketchWidth(int analyticsSketchWidth) {
+        this.analyticsSketchWidth = analyticsSketchWidth;
+    }
+
+    /**
+     * @return 每个客户端每秒的查询数上限，为 0 时不限速
+     */
+    public double getRateLimit() {
+        return this.rateLimit;
+    }
+
+    public void setRateLimit(double rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * @return 每个客户端允许的突发查询数，为 0 时等于每秒查询数上限
+     */
+    public int getRateLimitBurst() {
+        return this.rateLimitBurst;
+    }
+
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    /**
+     * @return 限速时 IPv4 地址按多长的前缀归为同一客户端
+     */
+    public int getRateLimitIPv4Prefix() {
+        return this.rateLimitIPv4Prefix;
+    }
+
+    public void setRateLimitIPv4Prefix(int rateLimitIPv4Prefix) {
+        this.rateLimitIPv4Prefix = rateLimitIPv4Prefix;
+    }
+
+    /**
+     * @return 限速时 IPv6 地址按多长的前缀归为同一客户端，最长 64
+     */
+    public int getRateLimitIPv6Prefix() {
+        return this.rateLimitIPv6Prefix;
+    }
+
+    public void setRateLimitIPv6Prefix(int rateLimitIPv6Prefix) {
+        this.rateLimitIPv6Prefix = rateLimitIPv6Prefix;
+    }
+
+    /**
+     * @return 限速表的槽位数，应大于同时活跃的客户端数
+     */
+    public int getRateLimitTableSize() {
+        return this.rateLimitTableSize;
+    }
+
+    public void setRateLimitTableSize(int rateLimitTableSize) {
+        this.rateLimitTableSize = rateLimitTableSize;
+    }
+
+    /**
+     * @return 进行中查询数上限，为 0 时不限制
+     */
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return 应答延迟预算（毫秒），近期延迟超过预算时按比例拒绝新查询，为 0 时不启用
+     */
+    public long getLatencyBudget() {
+        return this.latencyBudget;
+    }
+
+    public void setLatencyBudget(long latencyBudget) {
+        this.latencyBudget = latencyBudget;
+    }
+
+    public ShedPolicy getShedPolicy() {
+        return this.shedPolicy;
+    }
+
+    public void setShedPolicy(ShedPolicy shedPolicy) {
+        this.shedPolicy = shedPolicy;
+    }
+
+    /**
+     * @return 静态记录，域名 → IP 地址列表
+     */
+    public Map<String, List<String>> getLocalRecords() {
+        return this.localRecords;
+    }
+
+    public void setLocalRecords(Map<String, List<String>> localRecords) {
+        this.localRecords = localRecords;
+    }
+
+    /**
+     * @return hosts 格式的文件路径
+     */
+    public List<String> getHostsFiles() {
+        return this.hostsFiles;
+    }
+
+    public void setHostsFiles(List<String> hostsFiles) {
+        this.hostsFiles = hostsFiles;
+    }
+
+    /**
+     * @return 屏蔽列表文件路径，每行一个域名，也可以是 hosts 格式或 Adblock 的 ||域名^ 格式
+     */
+    public List<String> getBlocklists() {
+        return this.blocklists;
+    }
+
+    public void setBlocklists(List<String> blocklists) {
+        this.blocklists = blocklists;
+    }
+
+    public BlockResponse getBlockResponse() {
+        return this.blockResponse;
+    }
+
+    public void setBlockResponse(BlockResponse blockResponse) {
+        this.blockResponse = blockResponse;
+    }
+
+    /**
+     * @return 本地应答的 TTL（秒）
+     */
+    public long getLocalTtl() {
+        return this.localTtl;
+    }
+
+    public void setLocalTtl(long localTtl) {
+        this.localTtl = localTtl;
+    }
+
+    /**
+     * @return 检查 hosts 文件与屏蔽列表是否修改的间隔（毫秒），为 0 时不重新加载
+     */
+    public long getLocalReloadInterval() {
+        return this.localReloadInterval;
+    }
+
+    public void setLocalReloadInterval(long localReloadInterval) {
+        this.localReloadInterval = localReloadInterval;
+    }
+
+    /**
+     * @return 缓存快照文件路径，为 null 时不保存快照
+     */
+    public String getCacheSnapshot() {
+        return this.cacheSnapshot;
+    }
+
+    public void setCacheSnapshot(String cacheSnapshot) {
+        this.cacheSnapshot = cacheSnapshot;
+    }
+
+    /**
+     * @return 保存缓存快照的间隔（毫秒），为 0 时只在退出时保存
+     */
+    public long getCacheSnapshotInterval() {
+        return this.cacheSnapshotInterval;
+    }
+
+    public void setCacheSnapshotInterval(long cacheSnapshotInterval) {
+        this.cacheSnapshotInterval = cacheSnapshotInterval;
+    }
+
+    /**
+     * @return 是否在虚拟线程上获取 UDP 查询的响应
+     */
+    public boolean isVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @return 使用虚拟线程时同时获取响应的查询数上限
+     */
+    public int getUpstreamConcurrency() {
+        return this.upstreamConcurrency;
+    }
+
+    public void setUpstreamConcurrency(int upstreamConcurrency) {
+        this.upstreamConcurrency = upstreamConcurrency;
+    }
+
+    /**
+     * @return 达到上限时最多排队的查询数，为 0 时直接应答 SERVFAIL
+     */
+    public int getUpstreamQueueSize() {
+        return this.upstreamQueueSize;
+    }
+
+    public void setUpstreamQueueSize(int upstreamQueueSize) {
+        this.upstreamQueueSize = upstreamQueueSize;
+    }
+
+    /**
+     * @return 排队的最长时间（毫秒），超时后应答 SERVFAIL
+     */
+    public long getUpstreamQueueTimeout() {
+        return this.upstreamQueueTimeout;
+    }
+
+    public void setUpstreamQueueTimeout(long upstreamQueueTimeout) {
+        this.upstreamQueueTimeout = upstreamQueueTimeout;
+    }
 }
@@ -0,0 +1,112 @@
+package online.flowerinsnow.dns_j.config;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * <p>监视配置文件，修改后重新读取并交给监听者</p>
+ * <p>编辑器保存文件时通常会产生多个事件，最后一个事件之后安静一段时间才重新读取；
+ * 读取失败时保留当前配置，只记录日志</p>
+ */
+public class ConfigWatcher implements AutoCloseable {
+    private static final long QUIET_PERIOD = 500L;
+
+    @NotNull private final Logger logger;
+    @NotNull private final Path file;
+    @NotNull private final Consumer<Config> listener;
+    @NotNull private final WatchService watchService;
+    @NotNull private final Thread thread;
+
+    /**
+     * @param file 配置文件
+     * @param listener 在监视线程上接收新的配置
+     * @throws IOException 无法监视文件所在目录
+     */
+    public ConfigWatcher(@NotNull Path file, @NotNull Consumer<Config> listener) throws IOException {
+        this.logger = LogManager.getLogger(ConfigWatcher.class.getSimpleName());
+        this.file = Objects.requireNonNull(file).toAbsolutePath();
+        this.listener = Objects.requireNonNull(listener);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        // 监视目录而不是文件，编辑器以重命名方式保存时文件本身会被替换
+        this.file.getParent().register(this.watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "ConfigWatcher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        this.thread.start();
+        this.logger.info("正在监视配置文件 {}", this.file);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                boolean changed = this.changed(key);
+                // 等待连续的事件结束
+                while (true) {
+                    WatchKey next = this.watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    changed |= this.changed(next);
+                }
+                if (changed) {
+                    this.reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        }
+    }
+
+    private boolean changed(@NotNull WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path path && path.equals(this.file.getFileName())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void reload() {
+        Config config;
+        try {
+            config = ConfigLoader.load(this.file);
+        } catch (IOException | RuntimeException e) {
+            this.logger.warn("重新读取配置文件 {} 失败，继续使用当前配置", this.file, e);
+            return;
+        }
+        this.logger.info("配置文件 {} 已修改，正在应用", this.file);
+        try {
+            this.listener.accept(config);
+        } catch (RuntimeException e) {
+            this.logger.warn("应用配置失败", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.watchService.close();
+        } catch (IOException e) {
+            this.logger.warn("关闭配置文件监视失败", e);
+        }
+        this.thread.interrupt();
+    }
+}
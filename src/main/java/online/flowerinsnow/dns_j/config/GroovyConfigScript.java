@@ -0,0 +1,98 @@
+package online.flowerinsnow.dns_j.config;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+import groovy.lang.Script;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <p>以 Groovy 脚本读取配置，脚本中的 {@code config} 变量是要填写的 {@link Config}</p>
+ * <p>只有使用 Groovy 格式时才会加载这个类，Properties 格式的配置不会加载 Groovy 运行时；
+ * Groovy 不打包在程序中，由 {@link ConfigLoader} 在加载这个类之前检查是否可用</p>
+ * <p>脚本预编译到同一目录下的 {@code .config-classes} 目录，脚本未修改时直接加载编译结果，跳过解析与编译；
+ * 类名由文件名得到，不能作为 Java 标识符的字符替换为 {@code _}</p>
+ */
+final class GroovyConfigScript {
+    private static final String CLASSES = ".config-classes";
+
+    private GroovyConfigScript() {
+    }
+
+    static @NotNull Config load(@NotNull Path file) throws IOException {
+        Path script = file.toAbsolutePath();
+        String name = script.getFileName().toString();
+        String className = GroovyConfigScript.className(name.substring(0, name.length() - ".groovy".length()));
+        Path classes = script.resolveSibling(CLASSES);
+        Path compiled = classes.resolve(className + ".class");
+
+        try {
+            if (!Files.exists(compiled) || Files.getLastModifiedTime(compiled).compareTo(Files.getLastModifiedTime(script)) < 0) {
+                CompilerConfiguration configuration = new CompilerConfiguration();
+                configuration.setTargetDirectory(classes.toFile());
+                configuration.setSourceEncoding("UTF-8");
+                CompilationUnit unit = new CompilationUnit(configuration);
+                // 以处理后的类名作为源文件名，编译出的脚本类使用该类名
+                unit.addSource(className + ".groovy", Files.readString(script));
+                unit.compile();
+            }
+        } catch (CompilationFailedException e) {
+            throw new IllegalArgumentException("编译 " + file + " 失败", e);
+        } catch (RuntimeException e) {
+            // 目录不可写等情况下退回到直接执行脚本
+            try (Reader reader = Files.newBufferedReader(script)) {
+                return GroovyConfigScript.evaluate(reader);
+            }
+        }
+
+        // 每次使用新的类加载器，重新加载时可以得到修改后的类
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes.toUri().toURL()}, GroovyConfigScript.class.getClassLoader())) {
+            Class<?> clazz = loader.loadClass(className);
+            Config config = new Config();
+            Binding binding = new Binding();
+            binding.setProperty("config", config);
+            Script instance = InvokerHelper.createScript(clazz, binding);
+            instance.run();
+            return config;
+        } catch (ClassNotFoundException | LinkageError e) {
+            // 编译结果无法加载时退回到直接执行脚本
+            try (Reader reader = Files.newBufferedReader(script)) {
+                return GroovyConfigScript.evaluate(reader);
+            }
+        }
+    }
+
+    /**
+     * @param name 去掉扩展名的文件名
+     * @return 合法的 Java 类名，如 {@code my-config} 为 {@code my_config}，{@code 1.conf} 为 {@code _1_conf}
+     */
+    static @NotNull String className(@NotNull String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 1);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            sb.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        if (sb.isEmpty() || !Character.isJavaIdentifierStart(sb.charAt(0))) {
+            sb.insert(0, '_');
+        }
+        return sb.toString();
+    }
+
+    static @NotNull Config evaluate(@NotNull Reader reader) {
+        Config config = new Config();
+        Binding binding = new Binding();
+        binding.setProperty("config", config);
+        new GroovyShell(binding).evaluate(reader);
+        return config;
+    }
+}
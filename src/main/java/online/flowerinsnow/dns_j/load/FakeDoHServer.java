@@ -0,0 +1,136 @@
+package online.flowerinsnow.dns_j.load;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.netty.handler.codec.CorruptedFrameException;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>用于压测的本地 DoH 上游替身（明文 HTTP/1.1，RFC 8484 POST）</p>
+ * <p>A 查询返回 192.0.2.1，AAAA 查询返回 2001:db8::1，其他类型返回空应答；
+ * 可以注入固定延迟与随机抖动，并按比例返回 HTTP 错误或 SERVFAIL</p>
+ * <p>每个请求在独立的虚拟线程中处理，注入的延迟不占用平台线程</p>
+ */
+public class FakeDoHServer implements AutoCloseable {
+    private static final byte[] IPV4 = {(byte) 192, 0, 2, 1};
+    private static final byte[] IPV6 = {0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1};
+
+    @NotNull private final Logger logger;
+    @NotNull private final HttpServer server;
+    @NotNull private final ExecutorService executor;
+    private final long latency;
+    private final long jitter;
+    private final double errorRate;
+    private final double servfailRate;
+    private final long ttl;
+
+    /**
+     * @param bind 监听地址
+     * @param latency 每个请求的固定延迟（毫秒）
+     * @param jitter 在固定延迟上增加的随机延迟上限（毫秒）
+     * @param errorRate 返回 HTTP 500 的比例
+     * @param servfailRate 返回 SERVFAIL 的比例
+     * @param ttl 应答记录的 TTL（秒）
+     * @throws IOException 无法监听
+     */
+    public FakeDoHServer(@NotNull InetSocketAddress bind, long latency, long jitter, double errorRate, double servfailRate, long ttl) throws IOException {
+        this.logger = LogManager.getLogger(FakeDoHServer.class.getSimpleName());
+        this.latency = latency;
+        this.jitter = jitter;
+        this.errorRate = errorRate;
+        this.servfailRate = servfailRate;
+        this.ttl = ttl;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(Objects.requireNonNull(bind), 1024);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/dns-query", this::handle);
+    }
+
+    public void start() {
+        this.server.start();
+        this.logger.info("DoH 上游替身启动于 http://{}:{}/dns-query（延迟 {} + 0~{} 毫秒，HTTP 错误 {}，SERVFAIL {}）",
+                this.server.getAddress().getHostString(), this.server.getAddress().getPort(),
+                this.latency, this.jitter, this.errorRate, this.servfailRate);
+    }
+
+    private void handle(@NotNull HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] query;
+            try (InputStream in = exchange.getRequestBody()) {
+                query = in.readAllBytes();
+            }
+            if (!"POST".equals(exchange.getRequestMethod()) || query.length < DNSWire.HEADER_LENGTH) {
+                exchange.sendResponseHeaders(400, -1L);
+                return;
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = this.latency + (this.jitter > 0L ? random.nextLong(this.jitter + 1L) : 0L);
+            if (delay > 0L) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            double roll = random.nextDouble();
+            if (roll < this.errorRate) {
+                exchange.sendResponseHeaders(500, -1L);
+                return;
+            }
+            byte[] response = roll < this.errorRate + this.servfailRate
+                    ? DNSWire.errorResponse(query, DNSWire.RCODE_SERVFAIL)
+                    : this.answer(query);
+            exchange.getResponseHeaders().set("Content-Type", "application/dns-message");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        }
+    }
+
+    private @NotNull byte[] answer(@NotNull byte[] query) {
+        byte[] response = DNSWire.errorResponse(query, DNSWire.RCODE_NOERROR);
+        int type;
+        try {
+            type = DNSWire.getUnsignedShort(response, DNSWire.skipName(response, DNSWire.HEADER_LENGTH));
+        } catch (CorruptedFrameException e) {
+            return response;
+        }
+        byte[] data = type == 1 ? IPV4 : type == 28 ? IPV6 : null;
+        if (data == null) {
+            return response;
+        }
+        int offset = response.length;
+        response = Arrays.copyOf(response, offset + 12 + data.length);
+        // 名称指向问题
+        DNSWire.setShort(response, offset, 0xc00c);
+        DNSWire.setShort(response, offset + 2, type);
+        DNSWire.setShort(response, offset + 4, 1);
+        DNSWire.setInt(response, offset + 6, this.ttl);
+        DNSWire.setShort(response, offset + 10, data.length);
+        System.arraycopy(data, 0, response, offset + 12, data.length);
+        DNSWire.setShort(response, 6, 1);
+        return response;
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+}
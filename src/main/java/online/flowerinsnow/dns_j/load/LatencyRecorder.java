@@ -0,0 +1,81 @@
+package online.flowerinsnow.dns_j.load;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>对数线性延迟直方图，用于计算尾部百分位</p>
+ * <p>256 微秒以下精确到 1 微秒，以上每个 2 的幂区间分为 128 个桶，相对误差小于 1%；
+ * 不是线程安全的，每个线程使用自己的实例，结束后合并</p>
+ */
+public class LatencyRecorder {
+    private static final int LINEAR = 256;
+    private static final int SUB_BUCKETS = 128;
+    private static final int MAX_SHIFT = 40;
+
+    @NotNull private final long[] counts = new long[LINEAR + MAX_SHIFT * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    /**
+     * @param micros 延迟（微秒）
+     */
+    public void record(long micros) {
+        long value = Math.max(0L, micros);
+        this.counts[LatencyRecorder.index(value)]++;
+        this.count++;
+        this.max = Math.max(this.max, value);
+    }
+
+    public void merge(@NotNull LatencyRecorder other) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.count += other.count;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    public long count() {
+        return this.count;
+    }
+
+    public long max() {
+        return this.max;
+    }
+
+    /**
+     * @param percentile 百分位，0 - 100
+     * @return 该百分位的延迟上界（微秒），没有样本时为 0
+     */
+    public long percentile(double percentile) {
+        if (this.count == 0L) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(this.count * percentile / 100.0D));
+        long seen = 0L;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(this.max, LatencyRecorder.upperBound(i));
+            }
+        }
+        return this.max;
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        // value >> shift 落在 [128, 256)
+        int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(value) - 7);
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) Math.min(SUB_BUCKETS - 1, (value >> shift) - SUB_BUCKETS);
+    }
+
+    private static long upperBound(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
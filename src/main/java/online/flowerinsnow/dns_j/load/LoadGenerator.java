@@ -0,0 +1,214 @@
+package online.flowerinsnow.dns_j.load;
+
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>开环 UDP 压测</p>
+ * <p>发送按固定速率调度，不等待应答，服务器变慢时不会自动降低压力；延迟从计划发送时间算起，
+ * 发送线程落后时产生的排队时间也计入延迟，避免协调遗漏（coordinated omission）低估尾部延迟</p>
+ * <p>查询分散到多个套接字，每个套接字有独立的 65536 个事务 ID，按 ID 匹配应答；
+ * 超过等待时间仍未收到应答的查询计为丢失</p>
+ */
+public class LoadGenerator {
+    private static final int IDS = 0x10000;
+
+    @NotNull private final Logger logger;
+    @NotNull private final InetSocketAddress target;
+    @NotNull private final QuerySource source;
+    private final double rate;
+    private final long duration;
+    private final int sockets;
+    private final long timeout;
+
+    /**
+     * @param target 被测服务器
+     * @param source 查询集合
+     * @param rate 目标速率（次/秒）
+     * @param duration 持续时间（秒）
+     * @param sockets 套接字数
+     * @param timeout 发送结束后等待剩余应答的时间（毫秒）
+     */
+    public LoadGenerator(@NotNull InetSocketAddress target, @NotNull QuerySource source, double rate, long duration, int sockets, long timeout) {
+        if (rate <= 0.0D) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.logger = LogManager.getLogger(LoadGenerator.class.getSimpleName());
+        this.target = Objects.requireNonNull(target);
+        this.source = Objects.requireNonNull(source);
+        this.rate = rate;
+        this.duration = duration;
+        this.sockets = Math.max(1, sockets);
+        this.timeout = timeout;
+    }
+
+    /**
+     * <p>运行压测，每秒输出一次进度，结束后输出汇总</p>
+     *
+     * @throws IOException 无法打开套接字
+     * @throws InterruptedException 线程中断
+     */
+    public void run() throws IOException, InterruptedException {
+        List<Lane> lanes = new ArrayList<>(this.sockets);
+        for (int i = 0; i < this.sockets; i++) {
+            lanes.add(new Lane(i));
+        }
+        this.logger.info("开始压测 {}：{} 次/秒，{} 秒，{} 个套接字，{} 个不同查询", this.target, this.rate, this.duration, this.sockets, this.source.size());
+
+        final long intervalNanos = (long) (1_000_000_000.0D / this.rate);
+        final long total = (long) (this.rate * this.duration);
+        final long start = System.nanoTime();
+        Thread sender = new Thread(() -> this.send(lanes, start, intervalNanos, total), "DnsJ-Load-Sender");
+        sender.start();
+
+        long lastReceived = 0L;
+        long lastSent = 0L;
+        while (sender.isAlive()) {
+            sender.join(1000L);
+            long sent = lanes.stream().mapToLong(lane -> lane.sent.sum()).sum();
+            long received = lanes.stream().mapToLong(lane -> lane.received.sum()).sum();
+            this.logger.info("已发送 {}（+{}），已接收 {}（+{}）", sent, sent - lastSent, received, received - lastReceived);
+            lastSent = sent;
+            lastReceived = received;
+        }
+        long sendEnd = System.nanoTime();
+        Thread.sleep(this.timeout);
+        for (Lane lane : lanes) {
+            lane.close();
+        }
+
+        LatencyRecorder latency = new LatencyRecorder();
+        long sent = 0L;
+        long received = 0L;
+        long errors = 0L;
+        long truncated = 0L;
+        for (Lane lane : lanes) {
+            lane.receiver.join();
+            latency.merge(lane.latency);
+            sent += lane.sent.sum();
+            received += lane.received.sum();
+            errors += lane.errors;
+            truncated += lane.truncated;
+        }
+        double seconds = (sendEnd - start) / 1e9D;
+        this.logger.info("发送 {}，接收 {}，丢失 {}（{}%），SERVFAIL/REFUSED {}，截断 {}",
+                sent, received, sent - received, String.format("%.3f", sent == 0L ? 0.0D : (sent - received) * 100.0D / sent), errors, truncated);
+        this.logger.info("目标速率 {} 次/秒，实际发送 {} 次/秒，实际应答 {} 次/秒",
+                this.rate, String.format("%.1f", sent / seconds), String.format("%.1f", received / seconds));
+        this.logger.info("延迟（微秒）p50 {}，p90 {}，p99 {}，p99.9 {}，最大 {}",
+                latency.percentile(50.0D), latency.percentile(90.0D), latency.percentile(99.0D), latency.percentile(99.9D), latency.max());
+    }
+
+    private void send(@NotNull List<Lane> lanes, long start, long intervalNanos, long total) {
+        SplittableRandom random = new SplittableRandom();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(512);
+        long next = 0L;
+        while (next < total) {
+            long now = System.nanoTime();
+            // 计时器精度有限，一次发送所有已到期的查询
+            long due = Math.min(total, (now - start) / intervalNanos + 1L);
+            if (next >= due) {
+                LockSupport.parkNanos(start + next * intervalNanos - now);
+                continue;
+            }
+            for (; next < due; next++) {
+                Lane lane = lanes.get((int) (next % lanes.size()));
+                lane.send(random, buffer, start + next * intervalNanos);
+            }
+        }
+    }
+
+    /**
+     * <p>一个套接字及其事务 ID 空间，发送在发送线程，接收在自己的线程</p>
+     */
+    private class Lane {
+        @NotNull private final DatagramChannel channel;
+        @NotNull private final AtomicLongArray sendTimes = new AtomicLongArray(IDS);
+        @NotNull private final LongAdder sent = new LongAdder();
+        @NotNull private final LongAdder received = new LongAdder();
+        @NotNull private final LatencyRecorder latency = new LatencyRecorder();
+        @NotNull private final Thread receiver;
+        private int nextId;
+        // 只在接收线程上修改，线程结束后读取
+        private long errors;
+        private long truncated;
+
+        private Lane(int index) throws IOException {
+            this.channel = DatagramChannel.open();
+            this.channel.connect(LoadGenerator.this.target);
+            this.receiver = new Thread(this::receive, "DnsJ-Load-Receiver-" + index);
+            this.receiver.setDaemon(true);
+            this.receiver.start();
+        }
+
+        private void send(@NotNull SplittableRandom random, @NotNull ByteBuffer buffer, long scheduled) {
+            int id = this.nextId;
+            this.nextId = (id + 1) & (IDS - 1);
+            byte[] query = LoadGenerator.this.source.next(random);
+            buffer.clear();
+            buffer.putShort((short) id).put(query, 2, query.length - 2).flip();
+            // 计划时间为 0 表示空闲，避免与真实时间冲突
+            this.sendTimes.set(id, scheduled == 0L ? 1L : scheduled);
+            try {
+                this.channel.write(buffer);
+            } catch (IOException e) {
+                // ICMP 不可达等错误只影响这一个查询，计为丢失
+            }
+            this.sent.increment();
+        }
+
+        private void receive() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+            while (true) {
+                buffer.clear();
+                try {
+                    this.channel.receive(buffer);
+                } catch (ClosedChannelException e) {
+                    return;
+                } catch (IOException e) {
+                    continue;
+                }
+                long now = System.nanoTime();
+                if (buffer.position() < DNSWire.HEADER_LENGTH) {
+                    continue;
+                }
+                int id = buffer.getShort(0) & 0xffff;
+                long scheduled = this.sendTimes.getAndSet(id, 0L);
+                if (scheduled == 0L) {
+                    // 重复或已被新查询覆盖的应答
+                    continue;
+                }
+                this.latency.record(TimeUnit.NANOSECONDS.toMicros(now - scheduled));
+                this.received.increment();
+                int flags = buffer.getShort(2) & 0xffff;
+                int rcode = flags & 0x0f;
+                if (rcode == DNSWire.RCODE_SERVFAIL || rcode == DNSWire.RCODE_REFUSED) {
+                    this.errors++;
+                }
+                if ((flags & 0x0200) != 0) {
+                    this.truncated++;
+                }
+            }
+        }
+
+        private void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
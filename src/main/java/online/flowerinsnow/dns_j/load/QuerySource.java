@@ -0,0 +1,190 @@
+package online.flowerinsnow.dns_j.load;
+
+import io.netty.handler.codec.dns.DnsRecordType;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>压测使用的查询集合，所有查询在开始前编码为报文，发送时只改写事务 ID</p>
+ */
+public abstract class QuerySource {
+    // 审计日志中第一个 name/type 是问题
+    private static final Pattern AUDIT_QUESTION = Pattern.compile("\"name\":\"((?:[^\"\\\\]|\\\\.)*)\",\"type\":\"([A-Za-z0-9]+)\"");
+
+    /**
+     * @param random 发送线程的随机数生成器
+     * @return 下一个查询报文，调用方不能修改
+     */
+    public abstract @NotNull byte[] next(@NotNull SplittableRandom random);
+
+    /**
+     * @return 不同查询的数量
+     */
+    public abstract int size();
+
+    /**
+     * <p>合成的域名集合，名称的流行度服从 Zipf 分布，与真实解析器看到的流量相似：少数名称占大部分查询</p>
+     * <p>名称为 n&lt;排名&gt;.&lt;后缀&gt;，A 与 AAAA 各占一半</p>
+     *
+     * @param names 名称数
+     * @param exponent Zipf 指数，越大越集中
+     * @param suffix 域名后缀
+     * @return 查询集合
+     */
+    public static @NotNull QuerySource zipf(int names, double exponent, @NotNull String suffix) {
+        if (names <= 0) {
+            throw new IllegalArgumentException("names must be positive");
+        }
+        final byte[][] queries = new byte[names * 2][];
+        final double[] cdf = new double[names];
+        double sum = 0.0D;
+        for (int i = 0; i < names; i++) {
+            String name = "n" + (i + 1) + "." + suffix;
+            queries[i * 2] = QuerySource.encode(name, DnsRecordType.A.intValue());
+            queries[i * 2 + 1] = QuerySource.encode(name, DnsRecordType.AAAA.intValue());
+            sum += 1.0D / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < names; i++) {
+            cdf[i] /= sum;
+        }
+        return new QuerySource() {
+            @Override
+            public @NotNull byte[] next(@NotNull SplittableRandom random) {
+                int rank = Arrays.binarySearch(cdf, random.nextDouble());
+                if (rank < 0) {
+                    rank = Math.min(cdf.length - 1, -rank - 1);
+                }
+                return queries[rank * 2 + (random.nextBoolean() ? 1 : 0)];
+            }
+
+            @Override
+            public int size() {
+                return queries.length;
+            }
+        };
+    }
+
+    /**
+     * <p>按顺序循环重放查询日志</p>
+     * <p>每行为 {@code 域名 [类型]}，或 DnsJ 审计日志的 JSON 行；空行与 # 开头的行被忽略</p>
+     *
+     * @param file 查询日志
+     * @return 查询集合
+     * @throws IOException 读取失败
+     */
+    public static @NotNull QuerySource replay(@NotNull Path file) throws IOException {
+        List<byte[]> list = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String name;
+                String type;
+                if (line.startsWith("{")) {
+                    Matcher matcher = AUDIT_QUESTION.matcher(line);
+                    if (!matcher.find()) {
+                        continue;
+                    }
+                    name = matcher.group(1);
+                    type = matcher.group(2);
+                } else {
+                    String[] parts = line.split("\\s+");
+                    name = parts[0];
+                    type = parts.length > 1 ? parts[1] : "A";
+                }
+                int typeValue = QuerySource.parseType(type);
+                if (typeValue >= 0) {
+                    list.add(QuerySource.encode(name, typeValue));
+                }
+            }
+        }
+        if (list.isEmpty()) {
+            throw new IOException(file + " 中没有查询");
+        }
+        final byte[][] queries = list.toArray(new byte[0][]);
+        return new QuerySource() {
+            private int index;
+
+            @Override
+            public @NotNull byte[] next(@NotNull SplittableRandom random) {
+                byte[] query = queries[this.index];
+                this.index = (this.index + 1) % queries.length;
+                return query;
+            }
+
+            @Override
+            public int size() {
+                return queries.length;
+            }
+        };
+    }
+
+    private static int parseType(@NotNull String type) {
+        String upper = type.toUpperCase(Locale.ROOT);
+        if (upper.startsWith("TYPE")) {
+            try {
+                return Integer.parseInt(upper.substring(4));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        try {
+            return DnsRecordType.valueOf(upper).intValue();
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * <p>编码查询报文：RD 置位，附带声明 1232 字节 UDP 负载的 OPT 记录</p>
+     */
+    static @NotNull byte[] encode(@NotNull String name, int type) {
+        byte[] buf = new byte[12 + 256 + 4 + 11];
+        // RD，QDCOUNT = 1，ARCOUNT = 1
+        buf[2] = 0x01;
+        buf[5] = 1;
+        buf[11] = 1;
+        int offset = 12;
+        for (String label : name.split("\\.")) {
+            if (label.isEmpty()) {
+                continue;
+            }
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            if (bytes.length > 63 || offset + 1 + bytes.length > 12 + 255) {
+                throw new IllegalArgumentException("invalid name: " + name);
+            }
+            buf[offset++] = (byte) bytes.length;
+            System.arraycopy(bytes, 0, buf, offset, bytes.length);
+            offset += bytes.length;
+        }
+        buf[offset++] = 0;
+        buf[offset++] = (byte) (type >>> 8);
+        buf[offset++] = (byte) type;
+        buf[offset++] = 0;
+        buf[offset++] = 1;
+        // OPT：根域名、类型 41、CLASS 为 UDP 负载大小
+        buf[offset++] = 0;
+        buf[offset++] = 0;
+        buf[offset++] = 41;
+        buf[offset++] = (byte) (1232 >>> 8);
+        buf[offset++] = (byte) 1232;
+        offset += 6;
+        return Arrays.copyOf(buf, offset);
+    }
+}
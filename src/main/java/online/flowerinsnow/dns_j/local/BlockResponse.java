@@ -0,0 +1,15 @@
+package online.flowerinsnow.dns_j.local;
+
+/**
+ * <p>被屏蔽的域名的应答方式</p>
+ */
+public enum BlockResponse {
+    /**
+     * 应答 NXDOMAIN
+     */
+    NXDOMAIN,
+    /**
+     * A 查询应答 0.0.0.0，AAAA 查询应答 ::，其他类型应答空的 NOERROR
+     */
+    NULL_ADDRESS
+}
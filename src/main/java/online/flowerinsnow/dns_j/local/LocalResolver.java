@@ -0,0 +1,230 @@
+package online.flowerinsnow.dns_j.local;
+
+import io.netty.handler.codec.CorruptedFrameException;
+import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.metrics.Metrics;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>本地解析：静态记录、hosts 文件与屏蔽列表，命中时不经过缓存与上游</p>
+ * <p>静态记录优先于屏蔽列表；静态记录中存在的域名查询其他类型时应答空的 NOERROR，不会泄露给上游</p>
+ * <p>文件在后台线程中定期检查，修改后在同一线程中重新加载，完成后整体替换，查询线程不会看到加载到一半的数据</p>
+ */
+public class LocalResolver implements AutoCloseable {
+    private static final byte[] IPV4_UNSPECIFIED = new byte[4];
+    private static final byte[] IPV6_UNSPECIFIED = new byte[16];
+
+    @NotNull private final Logger logger;
+    @NotNull private final Map<String, List<String>> records;
+    @NotNull private final List<Path> hostsFiles;
+    @NotNull private final List<Path> blocklists;
+    @NotNull private final BlockResponse blockResponse;
+    private final long ttl;
+    private final long reloadInterval;
+    @NotNull private final Metrics metrics;
+    @NotNull private final Map<Path, FileTime> modified = new HashMap<>();
+    @Nullable private ScheduledExecutorService reloader;
+
+    @NotNull private volatile LocalZone zone = LocalZone.EMPTY;
+
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>localRecords：静态记录</li>
+     *     <li>hostsFiles：hosts 文件</li>
+     *     <li>blocklists：屏蔽列表文件</li>
+     *     <li>blockResponse：被屏蔽的域名的应答方式</li>
+     *     <li>localTtl：本地应答的 TTL</li>
+     *     <li>localReloadInterval：检查文件修改的间隔</li>
+     * </ul>
+     *
+     * @param config 配置
+     * @param metrics 运行指标
+     */
+    public LocalResolver(@NotNull Config config, @NotNull Metrics metrics) {
+        this.logger = LogManager.getLogger(LocalResolver.class.getSimpleName());
+        this.records = config.getLocalRecords() != null ? config.getLocalRecords() : Map.of();
+        this.hostsFiles = LocalResolver.paths(config.getHostsFiles());
+        this.blocklists = LocalResolver.paths(config.getBlocklists());
+        this.blockResponse = Objects.requireNonNull(config.getBlockResponse());
+        this.ttl = config.getLocalTtl();
+        this.reloadInterval = config.getLocalReloadInterval();
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    /**
+     * @return 配置中是否有任何本地解析数据
+     */
+    public static boolean isEnabled(@NotNull Config config) {
+        return config.getLocalRecords() != null && !config.getLocalRecords().isEmpty()
+                || config.getHostsFiles() != null && !config.getHostsFiles().isEmpty()
+                || config.getBlocklists() != null && !config.getBlocklists().isEmpty();
+    }
+
+    /**
+     * <p>加载数据并开始检查文件修改，应在服务器开始监听前调用</p>
+     *
+     * @throws IOException 读取文件失败
+     */
+    public void start() throws IOException {
+        this.load();
+        if (this.reloadInterval > 0L && !(this.hostsFiles.isEmpty() && this.blocklists.isEmpty())) {
+            this.reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "LocalResolver");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.reloader.scheduleWithFixedDelay(this::reloadIfModified, this.reloadInterval, this.reloadInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * <p>尝试在本地应答查询</p>
+     *
+     * @param query 查询报文
+     * @return 响应报文，事务 ID 与查询相同；需要转发给上游时返回 null
+     */
+    public @Nullable byte[] answer(@NotNull byte[] query) {
+        Objects.requireNonNull(query);
+        try {
+            // 只处理恰好包含一个 IN 类问题的标准查询
+            if (query.length < DNSWire.HEADER_LENGTH || (query[2] & 0x78) != 0 || DNSWire.count(query, DNSWire.SECTION_QUESTION) != 1) {
+                return null;
+            }
+            int offset = DNSWire.skipName(query, DNSWire.HEADER_LENGTH);
+            int type = DNSWire.getUnsignedShort(query, offset);
+            if (DNSWire.getUnsignedShort(query, offset + 2) != DNSWire.CLASS_IN) {
+                return null;
+            }
+
+            LocalZone zone = this.zone;
+            if (!zone.hosts().isEmpty()) {
+                LocalZone.Host host = zone.hosts().get(DNSWire.readName(query, DNSWire.HEADER_LENGTH));
+                if (host != null) {
+                    this.metrics.localAnswer();
+                    return switch (type) {
+                        case DNSWire.TYPE_A -> this.response(query, DNSWire.RCODE_NOERROR, type, host.ipv4());
+                        case DNSWire.TYPE_AAAA -> this.response(query, DNSWire.RCODE_NOERROR, type, host.ipv6());
+                        case DNSWire.TYPE_PTR -> this.response(query, DNSWire.RCODE_NOERROR, type, host.ptr());
+                        default -> this.response(query, DNSWire.RCODE_NOERROR, type, List.of());
+                    };
+                }
+            }
+            if (zone.blocked().matches(query, DNSWire.HEADER_LENGTH)) {
+                this.metrics.blocked();
+                if (this.blockResponse == BlockResponse.NXDOMAIN) {
+                    return this.response(query, DNSWire.RCODE_NXDOMAIN, type, List.of());
+                }
+                return switch (type) {
+                    case DNSWire.TYPE_A -> this.response(query, DNSWire.RCODE_NOERROR, type, List.of(IPV4_UNSPECIFIED));
+                    case DNSWire.TYPE_AAAA -> this.response(query, DNSWire.RCODE_NOERROR, type, List.of(IPV6_UNSPECIFIED));
+                    default -> this.response(query, DNSWire.RCODE_NOERROR, type, List.of());
+                };
+            }
+            return null;
+        } catch (CorruptedFrameException e) {
+            // 无法解析的查询交给上游处理
+            return null;
+        }
+    }
+
+    /**
+     * <p>构造权威应答，应答记录的域名以压缩指针指向问题</p>
+     */
+    private @NotNull byte[] response(@NotNull byte[] query, int responseCode, int type, @NotNull List<byte[]> rdata) {
+        byte[] header = DNSWire.errorResponse(query, responseCode);
+        // AA
+        header[2] |= 0x04;
+        int length = header.length;
+        for (byte[] data : rdata) {
+            length += 12 + data.length;
+        }
+        byte[] response = Arrays.copyOf(header, length);
+        DNSWire.setShort(response, 6, rdata.size());
+        int offset = header.length;
+        for (byte[] data : rdata) {
+            DNSWire.setShort(response, offset, 0xc000 | DNSWire.HEADER_LENGTH);
+            DNSWire.setShort(response, offset + 2, type);
+            DNSWire.setShort(response, offset + 4, DNSWire.CLASS_IN);
+            DNSWire.setInt(response, offset + 6, this.ttl);
+            DNSWire.setShort(response, offset + 10, data.length);
+            System.arraycopy(data, 0, response, offset + 12, data.length);
+            offset += 12 + data.length;
+        }
+        return response;
+    }
+
+    private void load() throws IOException {
+        long start = System.nanoTime();
+        Map<Path, FileTime> modified = new HashMap<>();
+        for (Path file : this.hostsFiles) {
+            modified.put(file, Files.getLastModifiedTime(file));
+        }
+        for (Path file : this.blocklists) {
+            modified.put(file, Files.getLastModifiedTime(file));
+        }
+        LocalZone zone = LocalZone.load(this.records, this.hostsFiles, this.blocklists, this.logger);
+        this.zone = zone;
+        synchronized (this.modified) {
+            this.modified.clear();
+            this.modified.putAll(modified);
+        }
+        this.logger.info("已加载本地解析：{} 个域名，{} 条屏蔽规则，用时 {} ms",
+                zone.hosts().size(), zone.blocked().size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void reloadIfModified() {
+        try {
+            boolean changed = false;
+            synchronized (this.modified) {
+                for (Map.Entry<Path, FileTime> entry : this.modified.entrySet()) {
+                    if (!Files.getLastModifiedTime(entry.getKey()).equals(entry.getValue())) {
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+            if (changed) {
+                this.load();
+            }
+        } catch (IOException e) {
+            // 保留当前数据，下次检查时重试
+            this.logger.warn("重新加载本地解析失败", e);
+        }
+    }
+
+    private static @NotNull List<Path> paths(@Nullable List<String> files) {
+        List<Path> paths = new ArrayList<>();
+        if (files != null) {
+            for (String file : files) {
+                paths.add(Path.of(file));
+            }
+        }
+        return paths;
+    }
+
+    @Override
+    public void close() {
+        if (this.reloader != null) {
+            this.reloader.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package online.flowerinsnow.dns_j.local;
+
+import io.netty.util.NetUtil;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>一份加载完成的本地解析数据，构造后不可变</p>
+ *
+ * @param hosts 静态记录，键为小写并以 {@code .} 结尾的域名
+ * @param blocked 屏蔽列表
+ */
+record LocalZone(@NotNull Map<String, Host> hosts, @NotNull SuffixSet blocked) {
+    static final LocalZone EMPTY = new LocalZone(Map.of(), SuffixSet.empty());
+
+    /**
+     * <p>一个域名的静态记录</p>
+     *
+     * @param ipv4 A 记录的地址
+     * @param ipv6 AAAA 记录的地址
+     * @param ptr PTR 记录指向的域名，已编码为报文格式
+     */
+    record Host(@NotNull List<byte[]> ipv4, @NotNull List<byte[]> ipv6, @NotNull List<byte[]> ptr) {
+        Host() {
+            this(new ArrayList<>(1), new ArrayList<>(0), new ArrayList<>(0));
+        }
+    }
+
+    /**
+     * <p>加载本地解析数据，在后台线程调用</p>
+     *
+     * @param records 配置中的静态记录，域名 → 地址
+     * @param hostsFiles hosts 文件
+     * @param blocklists 屏蔽列表文件
+     * @param logger 记录无法识别的行
+     * @return 加载结果
+     * @throws IOException 读取文件失败
+     */
+    static @NotNull LocalZone load(@NotNull Map<String, List<String>> records, @NotNull List<Path> hostsFiles,
+                                   @NotNull List<Path> blocklists, @NotNull Logger logger) throws IOException {
+        Map<String, Host> hosts = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : records.entrySet()) {
+            for (String address : entry.getValue()) {
+                byte[] bytes = NetUtil.createByteArrayFromIpAddressString(address);
+                if (bytes == null) {
+                    logger.warn("{} 的地址 {} 不是合法的 IP 地址", entry.getKey(), address);
+                    continue;
+                }
+                if (!LocalZone.addHost(hosts, entry.getKey(), bytes, true)) {
+                    logger.warn("{} 不是合法的域名", entry.getKey());
+                }
+            }
+        }
+
+        for (Path file : hostsFiles) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = LocalZone.fields(line);
+                    if (fields.length == 0) {
+                        continue;
+                    }
+                    byte[] bytes = NetUtil.createByteArrayFromIpAddressString(fields[0]);
+                    if (bytes == null || fields.length < 2) {
+                        logger.debug("{}：无法识别的行 {}", file, line);
+                        continue;
+                    }
+                    for (int i = 1; i < fields.length; i++) {
+                        // 与系统解析器一致，地址只反向解析到第一个域名
+                        if (!LocalZone.addHost(hosts, fields[i], bytes, i == 1)) {
+                            logger.debug("{}：无法识别的域名 {}", file, fields[i]);
+                        }
+                    }
+                }
+            }
+        }
+
+        SuffixSet.Builder blocked = new SuffixSet.Builder();
+        for (Path file : blocklists) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = LocalZone.fields(line);
+                    if (fields.length == 0 || fields[0].startsWith("!")) {
+                        continue;
+                    }
+                    // hosts 格式：0.0.0.0 域名 [域名...]
+                    int first = fields.length > 1 && (NetUtil.isValidIpV4Address(fields[0]) || NetUtil.isValidIpV6Address(fields[0])) ? 1 : 0;
+                    for (int i = first; i < fields.length; i++) {
+                        String name = LocalZone.blocklistEntry(fields[i]);
+                        if (name == null) {
+                            continue;
+                        }
+                        if (!blocked.add(name)) {
+                            logger.debug("{}：无法识别的域名 {}", file, fields[i]);
+                        }
+                    }
+                }
+            }
+        }
+
+        return new LocalZone(hosts, blocked.build());
+    }
+
+    private static @NotNull String[] fields(@NotNull String line) {
+        int comment = line.indexOf('#');
+        String content = (comment >= 0 ? line.substring(0, comment) : line).trim();
+        return content.isEmpty() ? new String[0] : content.split("\\s+");
+    }
+
+    /**
+     * @return 屏蔽条目，不是域名或是 hosts 文件中常见的本机名时返回 null
+     */
+    private static @Nullable String blocklistEntry(@NotNull String field) {
+        String name = field.toLowerCase(Locale.ROOT);
+        // Adblock 格式：||example.com^
+        if (name.startsWith("||")) {
+            name = name.substring(2);
+        }
+        if (name.endsWith("^")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        if (NetUtil.isValidIpV4Address(name) || NetUtil.isValidIpV6Address(name)) {
+            return null;
+        }
+        return switch (name) {
+            case "localhost", "localhost.localdomain", "local", "broadcasthost", "ip6-localhost", "ip6-loopback" -> null;
+            default -> name;
+        };
+    }
+
+    /**
+     * @return 域名合法时返回 true
+     */
+    private static boolean addHost(@NotNull Map<String, Host> hosts, @NotNull String name, @NotNull byte[] address, boolean reverse) {
+        String normalized = LocalZone.normalize(name);
+        if (!LocalZone.isValidName(normalized)) {
+            return false;
+        }
+        Host host = hosts.computeIfAbsent(normalized, k -> new Host());
+        (address.length == 4 ? host.ipv4() : host.ipv6()).add(address);
+        if (reverse && !LocalZone.isUnspecified(address)) {
+            hosts.computeIfAbsent(LocalZone.reverseName(address), k -> new Host()).ptr().add(LocalZone.encodeName(normalized));
+        }
+        return true;
+    }
+
+    /**
+     * @param name 以 {@code .} 结尾的域名
+     * @return 每个标签长度为 1 至 63，总长度不超过 254 且只包含 ASCII 字符时返回 true
+     */
+    private static boolean isValidName(@NotNull String name) {
+        if (name.length() < 2 || name.length() > 254) {
+            return false;
+        }
+        int start = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c > 0x7f) {
+                return false;
+            }
+            if (c == '.') {
+                if (i == start || i - start > 63) {
+                    return false;
+                }
+                start = i + 1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 小写并以 {@code .} 结尾的域名
+     */
+    static @NotNull String normalize(@NotNull String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".") ? lower : lower + ".";
+    }
+
+    private static boolean isUnspecified(@NotNull byte[] address) {
+        for (byte b : address) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 地址的反向解析域名，位于 in-addr.arpa 或 ip6.arpa 下
+     */
+    private static @NotNull String reverseName(@NotNull byte[] address) {
+        StringBuilder sb = new StringBuilder(72);
+        if (address.length == 4) {
+            for (int i = 3; i >= 0; i--) {
+                sb.append(address[i] & 0xff).append('.');
+            }
+            return sb.append("in-addr.arpa.").toString();
+        }
+        for (int i = address.length - 1; i >= 0; i--) {
+            sb.append(Character.forDigit(address[i] & 0x0f, 16)).append('.')
+                    .append(Character.forDigit(address[i] >> 4 & 0x0f, 16)).append('.');
+        }
+        return sb.append("ip6.arpa.").toString();
+    }
+
+    /**
+     * @param name 以 {@code .} 结尾的域名
+     * @return 报文格式的域名，不使用压缩
+     */
+    private static @NotNull byte[] encodeName(@NotNull String name) {
+        byte[] encoded = new byte[name.length() + 1];
+        int offset = 0;
+        int start = 0;
+        for (int end = name.indexOf('.'); end >= 0; end = name.indexOf('.', start)) {
+            encoded[offset++] = (byte) (end - start);
+            for (int i = start; i < end; i++) {
+                encoded[offset++] = (byte) name.charAt(i);
+            }
+            start = end + 1;
+        }
+        encoded[offset] = 0;
+        return encoded;
+    }
+}
@@ -0,0 +1,172 @@
+package online.flowerinsnow.dns_j.local;
+
+import io.netty.handler.codec.CorruptedFrameException;
+import online.flowerinsnow.dns_j.util.DomainHash;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * <p>域名后缀集合，用于数量巨大的屏蔽列表</p>
+ * <p>逻辑上是一棵按标签倒序（从顶级域开始）组织的字典树：每个域名对应从根出发的一条路径，
+ * 以 {@link DomainHash} 计算的路径哈希为键，查询时从右向左每经过一个标签就得到一个后缀节点的哈希</p>
+ * <p>节点只保存哈希和两个标志，存放在开放寻址的数组中，每个条目占 18 至 36 字节，不保存域名本身；
+ * 哈希冲突导致误判的概率约为 n / 2<sup>64</sup>，可以忽略</p>
+ * <p>构造完成后不可变，可以被任意线程并发读取</p>
+ */
+public final class SuffixSet {
+    /**
+     * 匹配域名本身
+     */
+    private static final byte SELF = 1;
+    /**
+     * 匹配所有子域名
+     */
+    private static final byte SUBDOMAINS = 2;
+
+    private static final SuffixSet EMPTY = new Builder().build();
+
+    @NotNull private final long[] keys;
+    @NotNull private final byte[] flags;
+    private final int mask;
+    private final int size;
+
+    private SuffixSet(@NotNull long[] keys, @NotNull byte[] flags, int size) {
+        this.keys = keys;
+        this.flags = flags;
+        this.mask = keys.length - 1;
+        this.size = size;
+    }
+
+    public static @NotNull SuffixSet empty() {
+        return SuffixSet.EMPTY;
+    }
+
+    /**
+     * @return 集合中的条目数
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * <p>检查报文中的域名是否被集合匹配</p>
+     *
+     * @param message 报文
+     * @param offset 域名起始位置，域名不能使用压缩指针
+     * @return 域名本身或它的某个上级域名在集合中时返回 true
+     * @throws CorruptedFrameException 报文损坏或域名使用了压缩指针
+     */
+    public boolean matches(@NotNull byte[] message, int offset) {
+        Objects.requireNonNull(message);
+        if (this.size == 0) {
+            return false;
+        }
+        int[] labels = new int[DomainHash.MAX_LABELS];
+        int count = DomainHash.labels(message, offset, labels);
+
+        long hash = DomainHash.SEED;
+        for (int i = count - 1; i >= 0; i--) {
+            hash = DomainHash.label(hash, message, labels[i]);
+            byte flags = this.get(DomainHash.finish(hash));
+            if ((flags & (i == 0 ? SELF : SUBDOMAINS)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte get(long key) {
+        for (int slot = (int) key & this.mask; ; slot = slot + 1 & this.mask) {
+            long k = this.keys[slot];
+            if (k == key) {
+                return this.flags[slot];
+            }
+            if (k == 0L) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * <p>构造后缀集合，非线程安全</p>
+     */
+    public static final class Builder {
+        private long[] keys = new long[1024];
+        private byte[] flags = new byte[1024];
+        private int size;
+
+        /**
+         * <p>添加一个屏蔽条目</p>
+         * <ul>
+         *     <li>{@code example.com}：匹配 example.com 及其所有子域名</li>
+         *     <li>{@code *.example.com}：只匹配 example.com 的子域名</li>
+         * </ul>
+         *
+         * @param pattern 条目，大小写不敏感，可以以 {@code .} 结尾
+         * @return 条目合法时返回 true
+         */
+        public boolean add(@NotNull String pattern) {
+            Objects.requireNonNull(pattern);
+            byte flags = SELF | SUBDOMAINS;
+            String name = pattern;
+            if (name.startsWith("*.")) {
+                flags = SUBDOMAINS;
+                name = name.substring(2);
+            }
+            if (name.endsWith(".")) {
+                name = name.substring(0, name.length() - 1);
+            }
+            long hash = DomainHash.of(name);
+            if (hash == 0L) {
+                return false;
+            }
+            this.put(hash, flags);
+            return true;
+        }
+
+        private void put(long key, byte flags) {
+            // 负载因子不超过 1/2
+            if (this.size + 1 > this.keys.length >>> 1) {
+                this.resize();
+            }
+            int mask = this.keys.length - 1;
+            for (int slot = (int) key & mask; ; slot = slot + 1 & mask) {
+                long k = this.keys[slot];
+                if (k == key) {
+                    this.flags[slot] |= flags;
+                    return;
+                }
+                if (k == 0L) {
+                    this.keys[slot] = key;
+                    this.flags[slot] = flags;
+                    this.size++;
+                    return;
+                }
+            }
+        }
+
+        private void resize() {
+            long[] oldKeys = this.keys;
+            byte[] oldFlags = this.flags;
+            this.keys = new long[oldKeys.length << 1];
+            this.flags = new byte[oldKeys.length << 1];
+            this.size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0L) {
+                    this.put(oldKeys[i], oldFlags[i]);
+                }
+            }
+        }
+
+        /**
+         * <p>构造集合，之后不能再使用这个构造器</p>
+         */
+        public @NotNull SuffixSet build() {
+            SuffixSet set = new SuffixSet(this.keys, this.flags, this.size);
+            this.keys = null;
+            this.flags = null;
+            return set;
+        }
+    }
+}
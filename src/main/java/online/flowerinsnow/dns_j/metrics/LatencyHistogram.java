@@ -0,0 +1,58 @@
+package online.flowerinsnow.dns_j.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>无锁延迟直方图</p>
+ * <p>桶按微秒以 2 的幂划分，第 i 个桶的上界为 2<sup>i</sup> 微秒，最后一个桶没有上界；
+ * 计数按线程分散到多个条带，每个条带占独立的缓存行，事件循环线程之间不会争用同一个计数器，
+ * 只在导出时合并</p>
+ */
+public class LatencyHistogram {
+    /**
+     * 桶数，有上界的桶最大为 2<sup>25</sup> 微秒（约 33.5 秒）
+     */
+    public static final int BUCKETS = 27;
+    private static final int SUM = BUCKETS;
+    // 每个条带 32 个 long，包括桶、总和与填充，对齐到 64 字节的缓存行
+    private static final int STRIDE = 32;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+
+    @NotNull private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIDE);
+
+    /**
+     * @param nanos 延迟（纳秒）
+     */
+    public void record(long nanos) {
+        // 向上取整，1001 纳秒应落入上界为 2 微秒的桶，而不是上界为 1 微秒的桶
+        long micros = (Math.max(0L, nanos) + 999L) / 1000L;
+        int bucket = micros <= 1L ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1L));
+        int base = ((int) Thread.currentThread().threadId() & (STRIPES - 1)) * STRIDE;
+        this.cells.incrementAndGet(base + bucket);
+        this.cells.addAndGet(base + SUM, nanos);
+    }
+
+    /**
+     * @param bucket 桶序号
+     * @return 桶的上界（秒），最后一个桶为正无穷
+     */
+    public static double upperBound(int bucket) {
+        return bucket >= BUCKETS - 1 ? Double.POSITIVE_INFINITY : (1L << bucket) / 1_000_000.0D;
+    }
+
+    /**
+     * @return 合并所有条带后各桶的计数（非累积），最后一个元素为延迟总和（纳秒）
+     */
+    public @NotNull long[] snapshot() {
+        long[] snapshot = new long[BUCKETS + 1];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int base = stripe * STRIDE;
+            for (int i = 0; i <= SUM; i++) {
+                snapshot[i] += this.cells.get(base + i);
+            }
+        }
+        return snapshot;
+    }
+}
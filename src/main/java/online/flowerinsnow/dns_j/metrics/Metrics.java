@@ -0,0 +1,264 @@
+package online.flowerinsnow.dns_j.metrics;
+
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.handler.codec.CorruptedFrameException;
+import online.flowerinsnow.dns_j.admission.AdmissionResult;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>运行指标</p>
+ * <p>所有记录方法都是无锁的：计数器为 {@link LongAdder}，直方图按线程分条带，只在导出时合并，
+ * 不会降低查询吞吐量</p>
+ * <p>以 Prometheus 文本格式导出，QPS 由 Prometheus 对计数器求速率得到</p>
+ */
+public class Metrics {
+    private static final String[] RCODES = {
+            "NOERROR", "FORMERR", "SERVFAIL", "NXDOMAIN", "NOTIMP", "REFUSED",
+            "YXDOMAIN", "YXRRSET", "NXRRSET", "NOTAUTH", "NOTZONE"
+    };
+
+    @NotNull private final LongAdder[] queries = Metrics.adders(Transport.values().length);
+    @NotNull private final LongAdder[] shed = Metrics.adders(AdmissionResult.values().length);
+    @NotNull private final LongAdder[] responseCodes = Metrics.adders(16);
+    @NotNull private final ConcurrentHashMap<Integer, LongAdder> queryTypes = new ConcurrentHashMap<>();
+    @NotNull private final LatencyHistogram latency = new LatencyHistogram();
+    @NotNull private final LongAdder inFlight = new LongAdder();
+    @NotNull private final LongAdder cacheHits = new LongAdder();
+    @NotNull private final LongAdder cacheMisses = new LongAdder();
+    @NotNull private final LongAdder cacheStale = new LongAdder();
+    @NotNull private final LongAdder localAnswers = new LongAdder();
+    @NotNull private final LongAdder blocked = new LongAdder();
+    @NotNull private final ConcurrentHashMap<String, UpstreamMetrics> upstreams = new ConcurrentHashMap<>();
+
+    /**
+     * <p>收到一个查询</p>
+     *
+     * @param transport 传输
+     */
+    public void queryReceived(@NotNull Transport transport) {
+        this.queries[transport.ordinal()].increment();
+        this.inFlight.increment();
+    }
+
+    /**
+     * <p>一个查询已应答，与 {@link #queryReceived(Transport)} 成对调用</p>
+     *
+     * @param response 响应报文
+     * @param latency 从收到查询到得到响应的时间（纳秒）
+     */
+    public void queryCompleted(@NotNull byte[] response, long latency) {
+        int type = -1;
+        try {
+            if (DNSWire.count(response, DNSWire.SECTION_QUESTION) > 0) {
+                type = DNSWire.getUnsignedShort(response, DNSWire.skipName(response, DNSWire.HEADER_LENGTH));
+            }
+        } catch (CorruptedFrameException ignored) {
+        }
+        this.completed(type, DNSWire.responseCode(response), latency);
+    }
+
+    /**
+     * <p>一个查询已应答，与 {@link #queryReceived(Transport)} 成对调用</p>
+     *
+     * @param response 响应
+     * @param latency 从收到查询到得到响应的时间（纳秒）
+     */
+    public void queryCompleted(@NotNull DnsResponse response, long latency) {
+        DnsRecord question = response.recordAt(DnsSection.QUESTION);
+        this.completed(question != null ? question.type().intValue() : -1, response.code().intValue(), latency);
+    }
+
+    private void completed(int type, int responseCode, long latency) {
+        this.inFlight.decrement();
+        this.responseCodes[responseCode & 0x0f].increment();
+        if (type >= 0) {
+            LongAdder adder = this.queryTypes.get(type);
+            if (adder == null) {
+                adder = this.queryTypes.computeIfAbsent(type, k -> new LongAdder());
+            }
+            adder.increment();
+        }
+        this.latency.record(latency);
+    }
+
+    /**
+     * <p>一个查询未被接纳</p>
+     *
+     * @param reason 原因
+     */
+    public void shed(@NotNull AdmissionResult reason) {
+        this.shed[reason.ordinal()].increment();
+    }
+
+    public void cacheHit() {
+        this.cacheHits.increment();
+    }
+
+    public void cacheMiss() {
+        this.cacheMisses.increment();
+    }
+
+    public void cacheStale() {
+        this.cacheStale.increment();
+    }
+
+    public void localAnswer() {
+        this.localAnswers.increment();
+    }
+
+    public void blocked() {
+        this.blocked.increment();
+    }
+
+    /**
+     * @param name 上游名称
+     * @return 该上游的指标，同名返回同一个实例
+     */
+    public @NotNull UpstreamMetrics upstream(@NotNull String name) {
+        Objects.requireNonNull(name);
+        return this.upstreams.computeIfAbsent(name, k -> new UpstreamMetrics());
+    }
+
+    /**
+     * <p>以 Prometheus 文本格式（0.0.4）导出</p>
+     *
+     * @param sb 输出
+     */
+    public void writePrometheus(@NotNull StringBuilder sb) {
+        Metrics.header(sb, "dnsj_queries_total", "counter", "Queries received.");
+        for (Transport transport : Transport.values()) {
+            Metrics.sample(sb, "dnsj_queries_total", "transport", transport.label(), this.queries[transport.ordinal()].sum());
+        }
+
+        Metrics.header(sb, "dnsj_shed_total", "counter", "Queries refused or dropped by admission control.");
+        for (AdmissionResult reason : AdmissionResult.values()) {
+            if (reason != AdmissionResult.ADMITTED) {
+                Metrics.sample(sb, "dnsj_shed_total", "reason", reason.label(), this.shed[reason.ordinal()].sum());
+            }
+        }
+
+        Metrics.header(sb, "dnsj_responses_total", "counter", "Responses sent by response code.");
+        for (int i = 0; i < this.responseCodes.length; i++) {
+            long count = this.responseCodes[i].sum();
+            if (count > 0 || i < 6) {
+                Metrics.sample(sb, "dnsj_responses_total", "rcode", Metrics.rcodeName(i), count);
+            }
+        }
+
+        Metrics.header(sb, "dnsj_queries_by_type_total", "counter", "Answered queries by question type.");
+        Map<Integer, LongAdder> types = new TreeMap<>(this.queryTypes);
+        for (Map.Entry<Integer, LongAdder> entry : types.entrySet()) {
+            Metrics.sample(sb, "dnsj_queries_by_type_total", "qtype", Metrics.typeName(entry.getKey()), entry.getValue().sum());
+        }
+
+        Metrics.header(sb, "dnsj_in_flight", "gauge", "Queries received and not yet answered.");
+        Metrics.sample(sb, "dnsj_in_flight", null, null, this.inFlight.sum());
+
+        Metrics.header(sb, "dnsj_request_duration_seconds", "histogram", "Time from receiving a query to having its answer.");
+        Metrics.histogram(sb, "dnsj_request_duration_seconds", null, null, this.latency);
+
+        Metrics.header(sb, "dnsj_cache_hits_total", "counter", "Fresh cache hits.");
+        Metrics.sample(sb, "dnsj_cache_hits_total", null, null, this.cacheHits.sum());
+        Metrics.header(sb, "dnsj_cache_misses_total", "counter", "Cache misses.");
+        Metrics.sample(sb, "dnsj_cache_misses_total", null, null, this.cacheMisses.sum());
+        Metrics.header(sb, "dnsj_cache_stale_total", "counter", "Expired cache entries found while serve-stale is enabled.");
+        Metrics.sample(sb, "dnsj_cache_stale_total", null, null, this.cacheStale.sum());
+        Metrics.header(sb, "dnsj_local_answers_total", "counter", "Queries answered from local records and hosts files.");
+        Metrics.sample(sb, "dnsj_local_answers_total", null, null, this.localAnswers.sum());
+        Metrics.header(sb, "dnsj_blocked_total", "counter", "Queries answered by the blocklist.");
+        Metrics.sample(sb, "dnsj_blocked_total", null, null, this.blocked.sum());
+
+        Map<String, UpstreamMetrics> upstreams = new TreeMap<>(this.upstreams);
+        Metrics.header(sb, "dnsj_upstream_duration_seconds", "histogram", "Successful upstream request latency.");
+        for (Map.Entry<String, UpstreamMetrics> entry : upstreams.entrySet()) {
+            Metrics.histogram(sb, "dnsj_upstream_duration_seconds", "upstream", entry.getKey(), entry.getValue().latency);
+        }
+        Metrics.header(sb, "dnsj_upstream_errors_total", "counter", "Failed upstream requests, excluding timeouts.");
+        for (Map.Entry<String, UpstreamMetrics> entry : upstreams.entrySet()) {
+            Metrics.sample(sb, "dnsj_upstream_errors_total", "upstream", entry.getKey(), entry.getValue().errors.sum());
+        }
+        Metrics.header(sb, "dnsj_upstream_timeouts_total", "counter", "Timed out upstream requests.");
+        for (Map.Entry<String, UpstreamMetrics> entry : upstreams.entrySet()) {
+            Metrics.sample(sb, "dnsj_upstream_timeouts_total", "upstream", entry.getKey(), entry.getValue().timeouts.sum());
+        }
+    }
+
+    private static void header(@NotNull StringBuilder sb, @NotNull String name, @NotNull String type, @NotNull String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(@NotNull StringBuilder sb, @NotNull String name, String label, String value, long count) {
+        sb.append(name);
+        if (label != null) {
+            sb.append('{').append(label).append("=\"");
+            Metrics.escape(sb, value);
+            sb.append("\"}");
+        }
+        sb.append(' ').append(count).append('\n');
+    }
+
+    private static void histogram(@NotNull StringBuilder sb, @NotNull String name, String label, String value, @NotNull LatencyHistogram histogram) {
+        long[] snapshot = histogram.snapshot();
+        long cumulative = 0L;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            cumulative += snapshot[i];
+            sb.append(name).append("_bucket{");
+            if (label != null) {
+                sb.append(label).append("=\"");
+                Metrics.escape(sb, value);
+                sb.append("\",");
+            }
+            double bound = LatencyHistogram.upperBound(i);
+            sb.append("le=\"").append(Double.isInfinite(bound) ? "+Inf" : Double.toString(bound)).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        String labels = "";
+        if (label != null) {
+            StringBuilder escaped = new StringBuilder();
+            Metrics.escape(escaped, value);
+            labels = "{" + label + "=\"" + escaped + "\"}";
+        }
+        sb.append(name).append("_sum").append(labels).append(' ').append(snapshot[LatencyHistogram.BUCKETS] / 1e9D).append('\n');
+        sb.append(name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+    }
+
+    private static void escape(@NotNull StringBuilder sb, @NotNull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '"' -> sb.append("\\\"");
+                case '\n' -> sb.append("\\n");
+                default -> sb.append(c);
+            }
+        }
+    }
+
+    static @NotNull String rcodeName(int rcode) {
+        return rcode < RCODES.length ? RCODES[rcode] : Integer.toString(rcode);
+    }
+
+    static @NotNull String typeName(int type) {
+        DnsRecordType recordType = DnsRecordType.valueOf(type);
+        return recordType.intValue() == type && !"UNKNOWN".equals(recordType.name()) ? recordType.name() : "TYPE" + type;
+    }
+
+    private static @NotNull LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,117 @@
+package online.flowerinsnow.dns_j.metrics;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.*;
+import online.flowerinsnow.dns_j.exception.UnexpectedException;
+import online.flowerinsnow.dns_j.server.EventLoops;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.BindException;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * <p>以 HTTP 提供 Prometheus 抓取的指标，路径为 /metrics；启用查询流分析时在 /analytics 以 JSON 提供窗口内的统计</p>
+ * <p>运行在共用的事件循环上，应只绑定到本机或内网地址</p>
+ */
+public class MetricsServer implements AutoCloseable {
+    @NotNull private final Logger logger;
+    @NotNull private final Metrics metrics;
+    @Nullable private final QueryAnalytics analytics;
+    @NotNull private final SocketAddress bind;
+    @NotNull private final EventLoops loops;
+    private Channel channel;
+
+    /**
+     * @param metrics 运行指标
+     * @param analytics 查询流分析，为 null 时不提供 /analytics
+     * @param bind 绑定地址
+     * @param loops 共用的事件循环
+     */
+    public MetricsServer(@NotNull Metrics metrics, @Nullable QueryAnalytics analytics, @NotNull SocketAddress bind, @NotNull EventLoops loops) {
+        this.logger = LogManager.getLogger(MetricsServer.class.getSimpleName());
+        this.metrics = Objects.requireNonNull(metrics);
+        this.analytics = analytics;
+        this.bind = Objects.requireNonNull(bind);
+        this.loops = Objects.requireNonNull(loops);
+    }
+
+    public void start() throws BindException {
+        try {
+            this.channel = new ServerBootstrap()
+                    .group(this.loops.boss(), this.loops.worker())
+                    .channel(this.loops.serverChannel())
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline()
+                                    .addLast(new HttpServerCodec())
+                                    .addLast(new HttpServerKeepAliveHandler())
+                                    .addLast(new HttpObjectAggregator(8192))
+                                    .addLast(new ScrapeHandler());
+                        }
+                    })
+                    .bind(this.bind)
+                    .sync()
+                    .channel();
+            this.logger.info("指标服务启动于 http://{}/metrics", this.channel.localAddress());
+        } catch (InterruptedException e) {
+            this.logger.warn("线程中断");
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (this.channel != null) {
+                this.channel.close().sync();
+            }
+        } catch (InterruptedException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private static @NotNull FullHttpResponse ok(@NotNull ChannelHandlerContext ctx, @NotNull StringBuilder sb, @NotNull String contentType) {
+        ByteBuf content = ctx.alloc().buffer(sb.length());
+        content.writeCharSequence(sb, StandardCharsets.UTF_8);
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        return response;
+    }
+
+    private class ScrapeHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            FullHttpResponse response;
+            String path = new QueryStringDecoder(request.uri()).path();
+            if (!HttpMethod.GET.equals(request.method())) {
+                response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+            } else if (path.equals("/metrics")) {
+                StringBuilder sb = new StringBuilder(8192);
+                MetricsServer.this.metrics.writePrometheus(sb);
+                response = MetricsServer.ok(ctx, sb, "text/plain; version=0.0.4; charset=utf-8");
+            } else if (path.equals("/analytics") && MetricsServer.this.analytics != null) {
+                StringBuilder sb = new StringBuilder(4096);
+                MetricsServer.this.analytics.writeJson(sb);
+                response = MetricsServer.ok(ctx, sb, "application/json; charset=utf-8");
+            } else {
+                response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+            }
+            response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+            HttpUtil.setKeepAlive(response, HttpUtil.isKeepAlive(request));
+            ctx.writeAndFlush(response);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package online.flowerinsnow.dns_j.metrics;
+
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.handler.codec.dns.DnsSection;
+import online.flowerinsnow.dns_j.audit.AuditFormatter;
+import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import online.flowerinsnow.dns_j.util.DomainHash;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>查询流分析：滑动窗口内查询最多的域名与客户端，以及各查询类型与响应码的次数</p>
+ * <p>窗口分为若干个时间片，每个时间片有自己的 {@link TopKSketch}，时间片过期后被下一轮复用并清空；
+ * 导出时合并仍在窗口内的时间片。域名与客户端都是近似值，次数只会偏大</p>
+ * <p>记录方法无锁，域名按报文中的标签直接计算哈希，只有进入候选表时才生成字符串；
+ * 内存占用在构造时确定，不随流量增长</p>
+ */
+public class QueryAnalytics {
+    /**
+     * 类型值不小于此值的查询类型合并计数
+     */
+    private static final int TYPES = 256;
+
+    @NotNull private final Slice[] slices;
+    private final long sliceMillis;
+    private final int topK;
+
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>analyticsTopK：导出的域名与客户端数</li>
+     *     <li>analyticsWindow：滑动窗口长度</li>
+     *     <li>analyticsSlices：窗口分为的时间片数</li>
+     *     <li>analyticsSketchWidth：每个 count-min 草图每行的计数器数</li>
+     * </ul>
+     *
+     * @param config 配置
+     */
+    public QueryAnalytics(@NotNull Config config) {
+        this.topK = Math.max(1, config.getAnalyticsTopK());
+        int slices = Math.max(1, config.getAnalyticsSlices());
+        this.sliceMillis = Math.max(1L, config.getAnalyticsWindow() / slices);
+        this.slices = new Slice[slices];
+        for (int i = 0; i < slices; i++) {
+            // 候选表取 K 的 8 倍，减少高频键之间互相替换
+            this.slices[i] = new Slice(config.getAnalyticsSketchWidth(), this.topK * 8);
+        }
+    }
+
+    /**
+     * @param config 配置
+     * @return 是否启用
+     */
+    public static boolean isEnabled(@NotNull Config config) {
+        return config.getAnalyticsTopK() > 0;
+    }
+
+    /**
+     * <p>记录一个已应答的查询</p>
+     *
+     * @param client 客户端地址
+     * @param response 响应报文
+     */
+    public void record(@NotNull InetAddress client, @NotNull byte[] response) {
+        Slice slice = this.slice(System.currentTimeMillis());
+        slice.rcodes.incrementAndGet(DNSWire.responseCode(response) & 0x0f);
+        this.recordClient(slice, client);
+        try {
+            if (DNSWire.count(response, DNSWire.SECTION_QUESTION) == 0) {
+                return;
+            }
+            int[] labels = new int[DomainHash.MAX_LABELS];
+            int count = DomainHash.labels(response, DNSWire.HEADER_LENGTH, labels);
+            long hash = DomainHash.SEED;
+            for (int i = count - 1; i >= 0; i--) {
+                hash = DomainHash.label(hash, response, labels[i]);
+            }
+            hash = DomainHash.finish(hash);
+            long estimate = slice.domains.add(hash);
+            if (slice.domains.admits(hash, estimate)) {
+                slice.domains.offer(hash, DNSWire.readName(response, DNSWire.HEADER_LENGTH));
+            }
+            int type = DNSWire.getUnsignedShort(response, DNSWire.skipName(response, DNSWire.HEADER_LENGTH));
+            slice.types.incrementAndGet(Math.min(type, TYPES));
+        } catch (CorruptedFrameException ignored) {
+        }
+    }
+
+    /**
+     * <p>记录一个已应答的查询</p>
+     *
+     * @param client 客户端地址
+     * @param response 响应
+     */
+    public void record(@NotNull InetAddress client, @NotNull DnsResponse response) {
+        Slice slice = this.slice(System.currentTimeMillis());
+        slice.rcodes.incrementAndGet(response.code().intValue() & 0x0f);
+        this.recordClient(slice, client);
+        DnsRecord question = response.recordAt(DnsSection.QUESTION);
+        if (question == null) {
+            return;
+        }
+        String name = question.name();
+        long hash = DomainHash.of(name.endsWith(".") ? name.substring(0, name.length() - 1) : name);
+        if (hash != 0L) {
+            long estimate = slice.domains.add(hash);
+            if (slice.domains.admits(hash, estimate)) {
+                slice.domains.offer(hash, name);
+            }
+        }
+        slice.types.incrementAndGet(Math.min(question.type().intValue(), TYPES));
+    }
+
+    private void recordClient(@NotNull Slice slice, @NotNull InetAddress client) {
+        byte[] address = client.getAddress();
+        long hash = DomainHash.SEED;
+        for (byte b : address) {
+            hash = DomainHash.update(hash, b);
+        }
+        hash = DomainHash.finish(hash);
+        long estimate = slice.clients.add(hash);
+        if (slice.clients.admits(hash, estimate)) {
+            slice.clients.offer(hash, client.getHostAddress());
+        }
+    }
+
+    /**
+     * <p>取得当前时间所在的时间片，过期的时间片在这里被清空并复用</p>
+     */
+    private @NotNull Slice slice(long now) {
+        long epoch = now / this.sliceMillis;
+        Slice slice = this.slices[(int) (epoch % this.slices.length)];
+        long current = slice.epoch.get();
+        // 只有一个线程能赢得清空的机会；清空期间其他线程写入的少量计数会被丢弃或保留，只影响精度
+        if (current < epoch && slice.epoch.compareAndSet(current, epoch)) {
+            slice.clear();
+        }
+        return slice;
+    }
+
+    /**
+     * <p>以 JSON 导出窗口内的统计</p>
+     *
+     * @param sb 输出
+     */
+    public void writeJson(@NotNull StringBuilder sb) {
+        Objects.requireNonNull(sb);
+        long epoch = System.currentTimeMillis() / this.sliceMillis;
+        List<Slice> live = new ArrayList<>(this.slices.length);
+        for (Slice slice : this.slices) {
+            long e = slice.epoch.get();
+            if (e > epoch - this.slices.length && e <= epoch) {
+                live.add(slice);
+            }
+        }
+
+        sb.append("{\"window\":").append(this.sliceMillis * this.slices.length);
+        sb.append(",\"domains\":");
+        this.writeTop(sb, live, true);
+        sb.append(",\"clients\":");
+        this.writeTop(sb, live, false);
+
+        long[] types = new long[TYPES + 1];
+        long[] rcodes = new long[16];
+        for (Slice slice : live) {
+            for (int i = 0; i < types.length; i++) {
+                types[i] += slice.types.get(i);
+            }
+            for (int i = 0; i < rcodes.length; i++) {
+                rcodes[i] += slice.rcodes.get(i);
+            }
+        }
+        sb.append(",\"types\":{");
+        boolean first = true;
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == 0L) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(i == TYPES ? "OTHER" : Metrics.typeName(i)).append("\":").append(types[i]);
+        }
+        sb.append("},\"rcodes\":{");
+        first = true;
+        for (int i = 0; i < rcodes.length; i++) {
+            if (rcodes[i] == 0L) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(Metrics.rcodeName(i)).append("\":").append(rcodes[i]);
+        }
+        sb.append("}}");
+    }
+
+    /**
+     * <p>合并各时间片的候选，按合并后的草图估计次数排序，输出前 K 个</p>
+     */
+    private void writeTop(@NotNull StringBuilder sb, @NotNull List<Slice> live, boolean domains) {
+        Map<Long, String> candidates = new HashMap<>();
+        for (Slice slice : live) {
+            TopKSketch sketch = domains ? slice.domains : slice.clients;
+            for (int i = 0; i < sketch.candidates(); i++) {
+                TopKSketch.Candidate candidate = sketch.candidate(i);
+                if (candidate != null) {
+                    candidates.putIfAbsent(candidate.hash(), candidate.key());
+                }
+            }
+        }
+
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>(candidates.size());
+        for (Map.Entry<Long, String> candidate : candidates.entrySet()) {
+            // 同一位置的计数器在各时间片之间相加，得到整个窗口的草图
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < TopKSketch.DEPTH; row++) {
+                long sum = 0L;
+                for (Slice slice : live) {
+                    sum += (domains ? slice.domains : slice.clients).cell(candidate.getKey(), row);
+                }
+                estimate = Math.min(estimate, sum);
+            }
+            ranked.add(Map.entry(candidate.getValue(), estimate));
+        }
+        ranked.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+        sb.append('[');
+        for (int i = 0; i < Math.min(this.topK, ranked.size()); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":");
+            AuditFormatter.appendString(sb, ranked.get(i).getKey());
+            sb.append(",\"count\":").append(ranked.get(i).getValue()).append('}');
+        }
+        sb.append(']');
+    }
+
+    /**
+     * <p>一个时间片的统计</p>
+     */
+    private static class Slice {
+        @NotNull private final AtomicLong epoch = new AtomicLong(-1L);
+        @NotNull private final TopKSketch domains;
+        @NotNull private final TopKSketch clients;
+        @NotNull private final AtomicLongArray types = new AtomicLongArray(TYPES + 1);
+        @NotNull private final AtomicLongArray rcodes = new AtomicLongArray(16);
+
+        private Slice(int width, int candidates) {
+            this.domains = new TopKSketch(width, candidates);
+            this.clients = new TopKSketch(width, candidates);
+        }
+
+        private void clear() {
+            this.domains.clear();
+            this.clients.clear();
+            for (int i = 0; i < this.types.length(); i++) {
+                this.types.set(i, 0L);
+            }
+            for (int i = 0; i < this.rcodes.length(); i++) {
+                this.rcodes.set(i, 0L);
+            }
+        }
+    }
+}
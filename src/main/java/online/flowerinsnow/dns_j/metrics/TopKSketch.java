@@ -0,0 +1,160 @@
+package online.flowerinsnow.dns_j.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>固定大小的频率草图，用于在查询流中找出出现最多的键</p>
+ * <p>计数保存在 count-min 草图中（{@value #DEPTH} 行，每行 width 个计数器），估计值只会偏大，
+ * 偏差不超过总数的 e / width；另有一张候选表保存可能的高频键：
+ * 每个键有两个候选位置，位置空闲时直接占用，否则替换估计值更小的一个。键本身只在进入候选表时才需要生成</p>
+ * <p>所有操作都是无锁的，并发更新与清空之间的竞争只会让计数略有偏差；内存占用在构造时确定，不随流量增长</p>
+ */
+final class TopKSketch {
+    static final int DEPTH = 4;
+
+    @NotNull private final AtomicLongArray counts;
+    @NotNull private final AtomicReferenceArray<Candidate> candidates;
+    private final int width;
+    private final int candidateMask;
+
+    /**
+     * @param width 每行的计数器数，会向上取整为 2 的幂
+     * @param candidates 候选表大小，会向上取整为 2 的幂
+     */
+    TopKSketch(int width, int candidates) {
+        this.width = TopKSketch.powerOfTwo(width);
+        this.counts = new AtomicLongArray(DEPTH * this.width);
+        this.candidates = new AtomicReferenceArray<>(TopKSketch.powerOfTwo(candidates));
+        this.candidateMask = this.candidates.length() - 1;
+    }
+
+    /**
+     * <p>键出现一次</p>
+     *
+     * @param hash 键的 64 位哈希
+     * @return 增加后的估计次数
+     */
+    long add(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, this.counts.incrementAndGet(this.index(hash, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * @param hash 键的 64 位哈希
+     * @return 估计次数
+     */
+    long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, this.counts.get(this.index(hash, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * @return 第 row 行中键对应的计数器，用于合并多个草图
+     */
+    long cell(long hash, int row) {
+        return this.counts.get(this.index(hash, row));
+    }
+
+    /**
+     * <p>检查键是否应该进入候选表，调用方在返回 true 时生成键并调用 {@link #offer}</p>
+     *
+     * @param hash 键的 64 位哈希
+     * @param estimate {@link #add} 返回的估计次数
+     * @return 键不在候选表中，且有空闲位置或估计次数超过某个候选时返回 true
+     */
+    boolean admits(long hash, long estimate) {
+        Candidate a = this.candidates.get(this.first(hash));
+        Candidate b = this.candidates.get(this.second(hash));
+        if (a != null && a.hash() == hash || b != null && b.hash() == hash) {
+            return false;
+        }
+        return a == null || b == null || estimate > Math.min(this.estimate(a.hash()), this.estimate(b.hash()));
+    }
+
+    /**
+     * <p>把键放入候选表，替换估计次数更小的候选</p>
+     *
+     * @param hash 键的 64 位哈希
+     * @param key 键
+     */
+    void offer(long hash, @NotNull String key) {
+        int first = this.first(hash);
+        int second = this.second(hash);
+        Candidate a = this.candidates.get(first);
+        Candidate b = this.candidates.get(second);
+        int slot;
+        Candidate expected;
+        if (a == null) {
+            slot = first;
+            expected = null;
+        } else if (b == null) {
+            slot = second;
+            expected = null;
+        } else {
+            boolean replaceFirst = this.estimate(a.hash()) <= this.estimate(b.hash());
+            slot = replaceFirst ? first : second;
+            expected = replaceFirst ? a : b;
+        }
+        // 与其他线程竞争失败时放弃，键下次出现时会再次尝试
+        this.candidates.compareAndSet(slot, expected, new Candidate(hash, key));
+    }
+
+    /**
+     * @param i 位置
+     * @return 候选表中第 i 个候选，可能为 null
+     */
+    @Nullable Candidate candidate(int i) {
+        return this.candidates.get(i);
+    }
+
+    int candidates() {
+        return this.candidates.length();
+    }
+
+    /**
+     * <p>清空所有计数与候选</p>
+     */
+    void clear() {
+        for (int i = 0; i < this.counts.length(); i++) {
+            this.counts.set(i, 0L);
+        }
+        for (int i = 0; i < this.candidates.length(); i++) {
+            this.candidates.set(i, null);
+        }
+    }
+
+    private int index(long hash, int row) {
+        // 由两个 32 位哈希组合出每行独立的位置（Kirsch-Mitzenmacher）
+        int h = (int) hash + row * (int) (hash >>> 32);
+        return row * this.width + (h & this.width - 1);
+    }
+
+    private int first(long hash) {
+        return (int) (hash >>> 40) & this.candidateMask;
+    }
+
+    private int second(long hash) {
+        return (int) (hash >>> 16) & this.candidateMask;
+    }
+
+    private static int powerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * @param hash 键的 64 位哈希
+     * @param key 键
+     */
+    record Candidate(long hash, @NotNull String key) {
+    }
+}
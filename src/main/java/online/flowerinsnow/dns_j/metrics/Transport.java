@@ -0,0 +1,22 @@
+package online.flowerinsnow.dns_j.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * <p>客户端查询使用的传输</p>
+ */
+public enum Transport {
+    UDP,
+    TCP,
+    DOT,
+    DOH;
+
+    /**
+     * @return 指标标签值
+     */
+    public @NotNull String label() {
+        return this.name().toLowerCase(Locale.ROOT);
+    }
+}
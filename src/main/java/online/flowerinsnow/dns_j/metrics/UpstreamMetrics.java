@@ -0,0 +1,46 @@
+package online.flowerinsnow.dns_j.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>一个上游的延迟与失败计数</p>
+ */
+public class UpstreamMetrics {
+    @NotNull final LatencyHistogram latency = new LatencyHistogram();
+    @NotNull final LongAdder errors = new LongAdder();
+    @NotNull final LongAdder timeouts = new LongAdder();
+
+    UpstreamMetrics() {
+    }
+
+    /**
+     * @param nanos 请求耗时（纳秒）
+     */
+    public void success(long nanos) {
+        this.latency.record(nanos);
+    }
+
+    /**
+     * <p>记录一次失败，超时与其他错误分别计数</p>
+     *
+     * @param throwable 失败原因
+     */
+    public void failure(@NotNull Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        // OkHttp 的调用超时为 InterruptedIOException
+        if (cause instanceof TimeoutException || cause instanceof InterruptedIOException) {
+            this.timeouts.increment();
+        } else {
+            this.errors.increment();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package online.flowerinsnow.dns_j.resolver;
+
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.dns.DnsQuery;
+import io.netty.handler.codec.dns.DnsResponse;
+import online.flowerinsnow.dns_j.cache.CacheHit;
+import online.flowerinsnow.dns_j.cache.CacheKey;
+import online.flowerinsnow.dns_j.cache.DNSCache;
+import online.flowerinsnow.dns_j.client.UpstreamGroup;
+import online.flowerinsnow.dns_j.local.LocalResolver;
+import online.flowerinsnow.dns_j.metrics.Metrics;
+import online.flowerinsnow.dns_j.util.DNSCodec;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>解析查询：先查本地解析，再查缓存，未命中时转发给上游，相同的进行中查询只会发出一次上游请求</p>
+ * <p>匹配条件转发规则的查询交给规则的上游，其他查询交给默认上游</p>
+ * <p>缓存提示预取时在后台刷新；命中过期条目时同时刷新，上游失败或超过等待时间则返回过期应答，
+ * 刷新失败后的一段时间内直接返回过期应答，不再等待上游</p>
+ */
+public class DNSResolver {
+    @NotNull private final Logger logger;
+    @NotNull private volatile UpstreamGroup client;
+    @Nullable private volatile RouteTable routes;
+    @Nullable private final LocalResolver local;
+    @Nullable private final DNSCache cache;
+    @NotNull private final Metrics metrics;
+    private final long staleTimeout;
+    @NotNull private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * @param client 上游
+     * @param local 本地解析，为 null 时不启用
+     * @param cache 响应缓存，为 null 时不缓存
+     * @param metrics 运行指标，记录缓存命中情况
+     * @param staleTimeout 命中过期条目时等待上游刷新的最长时间（毫秒）
+     */
+    public DNSResolver(@NotNull UpstreamGroup client, @Nullable LocalResolver local, @Nullable DNSCache cache, @NotNull Metrics metrics, long staleTimeout) {
+        this.logger = LogManager.getLogger(DNSResolver.class.getSimpleName());
+        this.client = Objects.requireNonNull(client);
+        this.local = local;
+        this.cache = cache;
+        this.metrics = Objects.requireNonNull(metrics);
+        this.staleTimeout = staleTimeout;
+    }
+
+    /**
+     * <p>替换上游，已经发出的查询继续在原来的上游上完成</p>
+     *
+     * @param client 新的上游
+     * @return 原来的上游，由调用方在进行中的查询完成后关闭
+     */
+    public @NotNull UpstreamGroup setClient(@NotNull UpstreamGroup client) {
+        UpstreamGroup old = this.client;
+        this.client = Objects.requireNonNull(client);
+        return old;
+    }
+
+    /**
+     * <p>替换条件转发规则，已经发出的查询继续在原来的上游上完成</p>
+     *
+     * @param routes 新的规则，为 null 时所有查询交给默认上游
+     * @return 原来的规则，由调用方在进行中的查询完成后关闭
+     */
+    public @Nullable RouteTable setRoutes(@Nullable RouteTable routes) {
+        RouteTable old = this.routes;
+        this.routes = routes;
+        return old;
+    }
+
+    public @NotNull CompletableFuture<DnsResponse> resolve(@NotNull DnsQuery query, @NotNull InetSocketAddress sender, @NotNull InetSocketAddress recipient) {
+        Objects.requireNonNull(query);
+        return this.resolve(DNSCodec.encode(query))
+                .thenApply(response -> DNSCodec.decode(response, sender, recipient));
+    }
+
+    /**
+     * <p>解析查询报文</p>
+     *
+     * @param query 查询报文
+     * @return 完成时得到响应报文，事务 ID 与查询相同
+     */
+    public @NotNull CompletableFuture<byte[]> resolve(@NotNull byte[] query) {
+        Objects.requireNonNull(query);
+        if (this.local != null) {
+            byte[] answer = this.local.answer(query);
+            if (answer != null) {
+                return CompletableFuture.completedFuture(answer);
+            }
+        }
+        final CacheKey key = DNSResolver.cacheKey(query);
+        if (key == null) {
+            return this.upstream(query).query(query);
+        }
+
+        if (this.cache == null) {
+            return this.fetch(key, query);
+        }
+        final DNSCache cache = this.cache;
+        CacheHit hit = cache.get(key, query);
+        if (hit == null) {
+            this.metrics.cacheMiss();
+            return this.fetch(key, query);
+        }
+        if (!hit.stale()) {
+            this.metrics.cacheHit();
+            if (hit.refresh()) {
+                this.refresh(key, query);
+            }
+            return CompletableFuture.completedFuture(hit.response());
+        }
+
+        // serve-stale：上游刷新失败或超时时返回过期应答
+        this.metrics.cacheStale();
+        final byte[] stale = hit.response();
+        if (!hit.refresh()) {
+            // 最近一次刷新失败，等待期内不询问上游
+            return CompletableFuture.completedFuture(stale);
+        }
+        CompletableFuture<byte[]> refresh = this.fetch(key, query).whenComplete((response, throwable) -> {
+            if (throwable != null || DNSWire.responseCode(response) == DNSWire.RCODE_SERVFAIL) {
+                cache.refreshFailed(key);
+                this.logger.debug("刷新过期条目 {} 失败", key.name(), throwable);
+            }
+        });
+        if (this.staleTimeout <= 0) {
+            return CompletableFuture.completedFuture(stale);
+        }
+        return refresh
+                .thenApply(response -> DNSWire.responseCode(response) == DNSWire.RCODE_SERVFAIL ? stale : response)
+                .exceptionally(throwable -> stale)
+                .completeOnTimeout(stale, this.staleTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private @NotNull CompletableFuture<byte[]> fetch(@NotNull CacheKey key, @NotNull byte[] query) {
+        final DNSCache cache = this.cache;
+        return this.singleFlight.execute(key, query, () -> this.upstream(query).query(query).thenApply(response -> {
+            if (cache != null) {
+                cache.put(key, response);
+            }
+            return response;
+        }));
+    }
+
+    private @NotNull UpstreamGroup upstream(@NotNull byte[] query) {
+        RouteTable routes = this.routes;
+        if (routes != null) {
+            UpstreamGroup group = routes.route(query);
+            if (group != null) {
+                return group;
+            }
+        }
+        return this.client;
+    }
+
+    /**
+     * <p>在后台刷新缓存，不等待结果</p>
+     */
+    private void refresh(@NotNull CacheKey key, @NotNull byte[] query) {
+        this.fetch(key, query).whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                this.logger.debug("后台刷新 {} 失败", key.name(), throwable);
+            }
+        });
+    }
+
+    private static @Nullable CacheKey cacheKey(@NotNull byte[] query) {
+        try {
+            return CacheKey.of(query);
+        } catch (CorruptedFrameException e) {
+            // 无法解析的查询直接转发，交给上游处理
+            return null;
+        }
+    }
+}
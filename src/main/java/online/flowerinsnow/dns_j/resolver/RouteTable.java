@@ -0,0 +1,257 @@
+package online.flowerinsnow.dns_j.resolver;
+
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.NetUtil;
+import online.flowerinsnow.dns_j.client.UpstreamGroup;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import online.flowerinsnow.dns_j.util.DomainHash;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * <p>条件转发：按域名后缀把查询交给指定的上游，多条规则匹配时最长的后缀优先</p>
+ * <p>规则编译为一棵按标签倒序组织的字典树，以 {@link DomainHash} 计算的路径哈希为键存放在开放寻址的数组中；
+ * 规则的上级节点也会写入（不带规则），查询时从顶级域开始逐个标签查找，遇到不存在的节点即停止，
+ * 多数不匹配任何规则的查询只需要一两次查找</p>
+ * <p>构造完成后不可变，可以被任意线程并发读取</p>
+ */
+public final class RouteTable implements AutoCloseable {
+    /**
+     * 中间节点，没有规则
+     */
+    private static final int NONE = -1;
+
+    @NotNull private final long[] keys;
+    @NotNull private final int[] rules;
+    private final int mask;
+    @NotNull private final List<UpstreamGroup> groups;
+
+    private RouteTable(@NotNull long[] keys, @NotNull int[] rules, @NotNull List<UpstreamGroup> groups) {
+        this.keys = keys;
+        this.rules = rules;
+        this.mask = keys.length - 1;
+        this.groups = groups;
+    }
+
+    /**
+     * @return 规则数
+     */
+    public int size() {
+        return this.groups.size();
+    }
+
+    /**
+     * <p>查找查询应该交给的上游</p>
+     *
+     * @param query 查询报文
+     * @return 匹配的规则中后缀最长的上游，没有匹配或报文无法解析时返回 null
+     */
+    public @Nullable UpstreamGroup route(@NotNull byte[] query) {
+        Objects.requireNonNull(query);
+        if (this.groups.isEmpty() || query.length < DNSWire.HEADER_LENGTH || DNSWire.count(query, DNSWire.SECTION_QUESTION) != 1) {
+            return null;
+        }
+        int[] labels = new int[DomainHash.MAX_LABELS];
+        int count;
+        try {
+            count = DomainHash.labels(query, DNSWire.HEADER_LENGTH, labels);
+        } catch (CorruptedFrameException e) {
+            return null;
+        }
+
+        int matched = NONE;
+        long hash = DomainHash.SEED;
+        for (int i = count - 1; i >= 0; i--) {
+            hash = DomainHash.label(hash, query, labels[i]);
+            int slot = this.slot(DomainHash.finish(hash));
+            if (slot < 0) {
+                break;
+            }
+            if (this.rules[slot] != NONE) {
+                matched = this.rules[slot];
+            }
+        }
+        return matched != NONE ? this.groups.get(matched) : null;
+    }
+
+    private int slot(long key) {
+        for (int slot = (int) key & this.mask; ; slot = slot + 1 & this.mask) {
+            long k = this.keys[slot];
+            if (k == key) {
+                return slot;
+            }
+            if (k == 0L) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * <p>关闭所有规则的上游</p>
+     */
+    @Override
+    public void close() {
+        for (UpstreamGroup group : this.groups) {
+            group.close();
+        }
+    }
+
+    /**
+     * <p>把规则的键转换为域名后缀</p>
+     * <ul>
+     *     <li>域名：匹配该域名及其所有子域名</li>
+     *     <li>CIDR（如 {@code 10.0.0.0/8}、{@code fd00::/8}）：匹配该网段的反向解析（PTR）查询，
+     *     前缀长度不在 in-addr.arpa 的 8 位或 ip6.arpa 的 4 位边界上时展开为覆盖它的多个区域</li>
+     * </ul>
+     *
+     * @param key 规则的键，大小写不敏感，可以以 {@code .} 结尾
+     * @return 域名后缀
+     * @throws IllegalArgumentException 键不合法
+     */
+    public static @NotNull List<String> suffixes(@NotNull String key) {
+        Objects.requireNonNull(key);
+        int slash = key.indexOf('/');
+        if (slash < 0) {
+            String name = key.endsWith(".") ? key.substring(0, key.length() - 1) : key;
+            return List.of(name.toLowerCase(Locale.ROOT));
+        }
+
+        byte[] address = NetUtil.createByteArrayFromIpAddressString(key.substring(0, slash));
+        if (address == null) {
+            throw new IllegalArgumentException(key + " 不是合法的 CIDR");
+        }
+        int prefix;
+        try {
+            prefix = Integer.parseInt(key.substring(slash + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " 不是合法的 CIDR", e);
+        }
+        if (prefix < 0 || prefix > address.length * 8) {
+            throw new IllegalArgumentException(key + " 的前缀长度不合法");
+        }
+
+        // IPv4 每个标签是一个字节（十进制），IPv6 每个标签是半个字节（十六进制）
+        boolean v4 = address.length == 4;
+        int bits = v4 ? 8 : 4;
+        int[] digits = new int[address.length * 8 / bits];
+        for (int i = 0; i < digits.length; i++) {
+            digits[i] = v4 ? address[i] & 0xff : address[i >> 1] >> ((i & 1) == 0 ? 4 : 0) & 0xf;
+        }
+        int labels = (prefix + bits - 1) / bits;
+        int free = labels * bits - prefix;
+        String zone = v4 ? "in-addr.arpa" : "ip6.arpa";
+
+        List<String> suffixes = new ArrayList<>(1 << free);
+        int base = labels > 0 ? digits[labels - 1] & ~((1 << free) - 1) : 0;
+        for (int n = 0; n < 1 << free; n++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = labels - 1; i >= 0; i--) {
+                int digit = i == labels - 1 ? base + n : digits[i];
+                sb.append(v4 ? Integer.toString(digit) : Integer.toHexString(digit)).append('.');
+            }
+            suffixes.add(sb.append(zone).toString());
+        }
+        return suffixes;
+    }
+
+    /**
+     * <p>构造转发规则表，非线程安全</p>
+     */
+    public static final class Builder {
+        private long[] keys = new long[64];
+        private int[] rules = new int[64];
+        private int size;
+        private final List<UpstreamGroup> groups = new ArrayList<>();
+
+        /**
+         * <p>添加一条规则，相同的后缀以后添加的为准</p>
+         *
+         * @param key 域名后缀或 CIDR，见 {@link RouteTable#suffixes(String)}
+         * @param group 匹配时使用的上游，由规则表负责关闭
+         * @throws IllegalArgumentException 键不合法
+         */
+        public void add(@NotNull String key, @NotNull UpstreamGroup group) {
+            Objects.requireNonNull(group);
+            List<String> suffixes = RouteTable.suffixes(key);
+            long[] hashes = new long[suffixes.size()];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = DomainHash.of(suffixes.get(i));
+                if (hashes[i] == 0L) {
+                    throw new IllegalArgumentException(key + " 不是合法的域名");
+                }
+            }
+
+            int rule = this.groups.size();
+            this.groups.add(group);
+            for (int i = 0; i < hashes.length; i++) {
+                String suffix = suffixes.get(i);
+                // 写入上级节点，查询时在不存在的节点处停止
+                for (int dot = suffix.indexOf('.'); dot >= 0; dot = suffix.indexOf('.', dot + 1)) {
+                    this.put(DomainHash.of(suffix.substring(dot + 1)), NONE);
+                }
+                this.put(hashes[i], rule);
+            }
+        }
+
+        private void put(long key, int rule) {
+            // 负载因子不超过 1/2
+            if (this.size + 1 > this.keys.length >>> 1) {
+                this.resize();
+            }
+            int mask = this.keys.length - 1;
+            for (int slot = (int) key & mask; ; slot = slot + 1 & mask) {
+                long k = this.keys[slot];
+                if (k == key) {
+                    if (rule != NONE) {
+                        this.rules[slot] = rule;
+                    }
+                    return;
+                }
+                if (k == 0L) {
+                    this.keys[slot] = key;
+                    this.rules[slot] = rule;
+                    this.size++;
+                    return;
+                }
+            }
+        }
+
+        private void resize() {
+            long[] oldKeys = this.keys;
+            int[] oldRules = this.rules;
+            this.keys = new long[oldKeys.length << 1];
+            this.rules = new int[oldKeys.length << 1];
+            this.size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0L) {
+                    this.put(oldKeys[i], oldRules[i]);
+                }
+            }
+        }
+
+        /**
+         * <p>构造规则表，之后不能再使用这个构造器</p>
+         */
+        public @NotNull RouteTable build() {
+            RouteTable table = new RouteTable(this.keys, this.rules, List.copyOf(this.groups));
+            this.keys = null;
+            this.rules = null;
+            return table;
+        }
+
+        /**
+         * <p>放弃构造，关闭已添加规则的上游</p>
+         */
+        public void discard() {
+            for (UpstreamGroup group : this.groups) {
+                group.close();
+            }
+            this.groups.clear();
+        }
+    }
+}
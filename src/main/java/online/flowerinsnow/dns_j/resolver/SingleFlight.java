@@ -0,0 +1,63 @@
+package online.flowerinsnow.dns_j.resolver;
+
+import online.flowerinsnow.dns_j.cache.CacheKey;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * <p>合并相同的进行中查询</p>
+ * <p>同一问题在上游返回前只会发出一次请求，后续到达的查询等待同一个结果，
+ * 每个调用方得到一份写入了自己事务 ID 与问题域名（保留 0x20 随机大小写）的响应副本</p>
+ */
+public class SingleFlight {
+    @NotNull private final ConcurrentHashMap<CacheKey, CompletableFuture<byte[]>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * @param key 问题
+     * @param query 调用方的查询报文
+     * @param upstream 没有进行中的请求时用于发起上游请求
+     * @return 完成时得到响应报文，事务 ID 与问题域名与 {@code query} 相同
+     */
+    public @NotNull CompletableFuture<byte[]> execute(@NotNull CacheKey key, @NotNull byte[] query, @NotNull Supplier<CompletableFuture<byte[]>> upstream) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(query);
+        Objects.requireNonNull(upstream);
+        CompletableFuture<byte[]> created = new CompletableFuture<>();
+        CompletableFuture<byte[]> shared = this.calls.putIfAbsent(key, created);
+        if (shared == null) {
+            shared = created;
+            CompletableFuture<byte[]> call;
+            try {
+                call = upstream.get();
+            } catch (Throwable t) {
+                call = CompletableFuture.failedFuture(t);
+            }
+            call.whenComplete((response, throwable) -> {
+                this.calls.remove(key, created);
+                if (throwable != null) {
+                    created.completeExceptionally(throwable);
+                } else {
+                    created.complete(response);
+                }
+            });
+        }
+        return shared.thenApply(response -> {
+            byte[] copy = response.clone();
+            DNSWire.setId(copy, DNSWire.id(query));
+            DNSWire.copyQuestionName(query, copy);
+            return copy;
+        });
+    }
+
+    /**
+     * @return 进行中的上游请求数
+     */
+    public int size() {
+        return this.calls.size();
+    }
+}
@@ -0,0 +1,286 @@
+package online.flowerinsnow.dns_j.server;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http2.*;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import online.flowerinsnow.dns_j.audit.AuditLog;
+import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.exception.UnexpectedException;
+import online.flowerinsnow.dns_j.metrics.Metrics;
+import online.flowerinsnow.dns_j.metrics.Transport;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>DNS over HTTPS 服务器（RFC 8484）</p>
+ * <p>通过 ALPN 协商 HTTP/2，每个连接上的请求以独立的流并发处理；不支持 HTTP/2 的客户端回退到 HTTP/1.1，
+ * 此时同一连接上的请求依次处理</p>
+ * <p>支持 POST（请求体为报文）与 GET（dns 参数为 base64url 编码的报文），响应的 Cache-Control 为记录的最小 TTL</p>
+ */
+public abstract class DoHDNSServer implements AutoCloseable {
+    private static final String CONTENT_TYPE = "application/dns-message";
+    private static final int MAX_MESSAGE_SIZE = 65535;
+
+    @NotNull private final Logger logger;
+    @NotNull private final SocketAddress bind;
+    @NotNull private final SslContext sslContext;
+    @NotNull private final AuditLog audit;
+    @NotNull private final Metrics metrics;
+    @NotNull private final EventLoops loops;
+    @NotNull private final String path;
+    private final long timeout;
+    private final long idleTimeout;
+    private final int maxConcurrentStreams;
+    private Channel channel;
+
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>dohBind：绑定地址</li>
+     *     <li>dohPath：服务的 URL 路径，其他路径返回 404</li>
+     *     <li>queryTimeout：单次查询的最长等待时间，超时后向客户端返回 SERVFAIL</li>
+     *     <li>tlsIdleTimeout：连接空闲超时</li>
+     *     <li>tcpMaxPipelined：每个 HTTP/2 连接的最大并发流数</li>
+     * </ul>
+     *
+     * @param config 配置
+     * @param audit 审计日志，每次查询事务写入一条记录
+     * @param metrics 运行指标
+     * @param loops 共用的事件循环
+     * @param sslContext TLS 上下文，ALPN 协议应包含 h2 与 http/1.1
+     */
+    public DoHDNSServer(@NotNull Config config, @NotNull AuditLog audit, @NotNull Metrics metrics, @NotNull EventLoops loops, @NotNull SslContext sslContext) {
+        this.logger = LogManager.getLogger(DoHDNSServer.class.getSimpleName());
+        this.bind = Objects.requireNonNull(config.getDohBind());
+        this.sslContext = Objects.requireNonNull(sslContext);
+        this.audit = Objects.requireNonNull(audit);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.loops = Objects.requireNonNull(loops);
+        this.path = Objects.requireNonNull(config.getDohPath());
+        this.timeout = config.getQueryTimeout();
+        this.idleTimeout = config.getTlsIdleTimeout();
+        this.maxConcurrentStreams = Math.max(1, config.getTcpMaxPipelined());
+    }
+
+    public void start() throws BindException {
+        try {
+            this.channel = new ServerBootstrap()
+                    .group(this.loops.boss(), this.loops.worker())
+                    .channel(this.loops.serverChannel())
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline()
+                                    .addLast(DoHDNSServer.this.sslContext.newHandler(ch.alloc()))
+                                    .addLast(new IdleStateHandler(0L, 0L, DoHDNSServer.this.idleTimeout, TimeUnit.MILLISECONDS))
+                                    .addLast(new IdleHandler())
+                                    .addLast(new NegotiationHandler());
+                        }
+                    })
+                    .bind(this.bind)
+                    .sync()
+                    .channel();
+            this.logger.info("DoH 服务器启动于 {}{}", this.channel.localAddress(), this.path);
+        } catch (InterruptedException e) {
+            this.logger.warn("线程中断");
+        }
+    }
+
+    /**
+     * <p>以报文形式获取查询的响应内容</p>
+     * <p>该方法在事件循环线程上调用，实现不能阻塞</p>
+     *
+     * @param query 查询报文
+     * @param client 查询客户端
+     * @return 完成时得到响应报文，事务 ID 必须与查询相同
+     */
+    public abstract @NotNull CompletionStage<byte[]> getRawResponse(@NotNull byte[] query, @NotNull InetSocketAddress client);
+
+    @Override
+    public void close() {
+        try {
+            if (this.channel != null) {
+                this.channel.close().sync();
+            }
+        } catch (InterruptedException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    /**
+     * <p>根据 ALPN 协商结果配置 HTTP/2 或 HTTP/1.1</p>
+     */
+    private class NegotiationHandler extends ApplicationProtocolNegotiationHandler {
+        private NegotiationHandler() {
+            super(ApplicationProtocolNames.HTTP_1_1);
+        }
+
+        @Override
+        protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+            if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                ctx.pipeline()
+                        .addLast(Http2FrameCodecBuilder.forServer()
+                                .initialSettings(Http2Settings.defaultSettings().maxConcurrentStreams(DoHDNSServer.this.maxConcurrentStreams))
+                                .build())
+                        .addLast(new Http2MultiplexHandler(new ChannelInitializer<Http2StreamChannel>() {
+                            @Override
+                            protected void initChannel(Http2StreamChannel ch) {
+                                ch.pipeline()
+                                        .addLast(new Http2StreamFrameToHttpObjectCodec(true))
+                                        .addLast(new HttpObjectAggregator(DoHDNSServer.MAX_MESSAGE_SIZE))
+                                        .addLast(new RequestHandler());
+                            }
+                        }));
+            } else if (ApplicationProtocolNames.HTTP_1_1.equals(protocol)) {
+                ctx.pipeline()
+                        .addLast(new HttpServerCodec())
+                        .addLast(new HttpServerKeepAliveHandler())
+                        .addLast(new HttpObjectAggregator(DoHDNSServer.MAX_MESSAGE_SIZE))
+                        .addLast(new RequestHandler());
+            } else {
+                ctx.close();
+            }
+        }
+    }
+
+    /**
+     * <p>关闭空闲连接</p>
+     */
+    private static class IdleHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                ctx.close();
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    /**
+     * <p>处理一个 HTTP 请求，HTTP/2 下每个流一个实例</p>
+     */
+    private class RequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            final long start = System.nanoTime();
+            final long received = System.currentTimeMillis();
+            // HTTP/2 流的远端地址为所在连接的地址
+            Channel connection = ctx.channel() instanceof Http2StreamChannel stream ? stream.parent() : ctx.channel();
+            final InetSocketAddress client = (InetSocketAddress) connection.remoteAddress();
+
+            QueryStringDecoder uri = new QueryStringDecoder(request.uri());
+            if (!uri.path().equals(DoHDNSServer.this.path)) {
+                this.respond(ctx, request, HttpResponseStatus.NOT_FOUND);
+                return;
+            }
+            final byte[] query;
+            if (HttpMethod.GET.equals(request.method())) {
+                List<String> dns = uri.parameters().get("dns");
+                if (dns == null || dns.isEmpty()) {
+                    this.respond(ctx, request, HttpResponseStatus.BAD_REQUEST);
+                    return;
+                }
+                try {
+                    // base64url，不带填充
+                    query = Base64.getUrlDecoder().decode(dns.get(0));
+                } catch (IllegalArgumentException e) {
+                    this.respond(ctx, request, HttpResponseStatus.BAD_REQUEST);
+                    return;
+                }
+            } else if (HttpMethod.POST.equals(request.method())) {
+                String contentType = request.headers().get(HttpHeaderNames.CONTENT_TYPE);
+                if (contentType == null || !contentType.startsWith(DoHDNSServer.CONTENT_TYPE)) {
+                    this.respond(ctx, request, HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE);
+                    return;
+                }
+                query = ByteBufUtil.getBytes(request.content());
+            } else {
+                this.respond(ctx, request, HttpResponseStatus.METHOD_NOT_ALLOWED);
+                return;
+            }
+            if (query.length < DNSWire.HEADER_LENGTH || DNSWire.isResponse(query)) {
+                this.respond(ctx, request, HttpResponseStatus.BAD_REQUEST);
+                return;
+            }
+
+            DoHDNSServer.this.metrics.queryReceived(Transport.DOH);
+            final boolean keepAlive = HttpUtil.isKeepAlive(request);
+            final boolean http1 = !(ctx.channel() instanceof Http2StreamChannel);
+            if (http1) {
+                // HTTP/1.1 的响应必须按请求顺序返回，处理完当前请求前不读取下一个
+                ctx.channel().config().setAutoRead(false);
+            }
+            CompletableFuture<byte[]> future;
+            try {
+                future = DoHDNSServer.this.getRawResponse(query, client).toCompletableFuture().copy();
+            } catch (Throwable t) {
+                future = CompletableFuture.failedFuture(t);
+            }
+            future.orTimeout(DoHDNSServer.this.timeout, TimeUnit.MILLISECONDS)
+                    .whenComplete((result, throwable) -> {
+                        byte[] response = result;
+                        if (throwable != null) {
+                            DoHDNSServer.this.logger.warn("查询失败 ({})", client, throwable);
+                            response = DNSWire.errorResponse(query, DNSWire.RCODE_SERVFAIL);
+                        }
+                        long latency = System.nanoTime() - start;
+                        DoHDNSServer.this.metrics.queryCompleted(response, latency);
+                        DoHDNSServer.this.audit.log(client, received, response, latency);
+
+                        FullHttpResponse httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.wrappedBuffer(response));
+                        httpResponse.headers()
+                                .set(HttpHeaderNames.CONTENT_TYPE, DoHDNSServer.CONTENT_TYPE)
+                                .setInt(HttpHeaderNames.CONTENT_LENGTH, response.length);
+                        long ttl = DNSWire.minTtl(response);
+                        if (ttl >= 0) {
+                            httpResponse.headers().set(HttpHeaderNames.CACHE_CONTROL, "max-age=" + ttl);
+                        }
+                        HttpUtil.setKeepAlive(httpResponse, keepAlive);
+                        ctx.writeAndFlush(httpResponse).addListener(f -> {
+                            if (http1) {
+                                ctx.channel().config().setAutoRead(true);
+                            }
+                        });
+                    });
+        }
+
+        private void respond(@NotNull ChannelHandlerContext ctx, @NotNull FullHttpRequest request, @NotNull HttpResponseStatus status) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.EMPTY_BUFFER);
+            response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 0);
+            if (status == HttpResponseStatus.METHOD_NOT_ALLOWED) {
+                response.headers().set(HttpHeaderNames.ALLOW, "GET, POST");
+            }
+            HttpUtil.setKeepAlive(response, HttpUtil.isKeepAlive(request));
+            ctx.writeAndFlush(response);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            DoHDNSServer.this.logger.debug("连接 {} 出错", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package online.flowerinsnow.dns_j.server;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import online.flowerinsnow.dns_j.config.Config;
+import org.apache.logging.log4j.LogManager;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>所有监听器共用的事件循环</p>
+ * <p>UDP、TCP、DoT、DoH 的连接以及 DoT 上游连接都在同一组 worker 线程上处理，接受连接由单独的 boss 线程负责</p>
+ */
+public class EventLoops implements AutoCloseable {
+    private final boolean epoll;
+    private final int threads;
+    @NotNull private final EventLoopGroup boss;
+    @NotNull private final EventLoopGroup worker;
+
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>epoll：在 Linux 上使用原生 epoll 传输，不可用时回退到 NIO</li>
+     *     <li>listeners：worker 线程数，0 为处理器数</li>
+     * </ul>
+     *
+     * @param config 配置
+     */
+    public EventLoops(@NotNull Config config) {
+        boolean epoll = config.isEpoll();
+        if (epoll && !Epoll.isAvailable()) {
+            LogManager.getLogger(EventLoops.class.getSimpleName()).warn("epoll 不可用，使用 NIO", Epoll.unavailabilityCause());
+            epoll = false;
+        }
+        this.epoll = epoll;
+        this.threads = config.getListeners() > 0 ? config.getListeners() : Runtime.getRuntime().availableProcessors();
+        if (epoll) {
+            this.boss = new EpollEventLoopGroup(1);
+            this.worker = new EpollEventLoopGroup(this.threads);
+        } else {
+            this.boss = new NioEventLoopGroup(1);
+            this.worker = new NioEventLoopGroup(this.threads);
+        }
+    }
+
+    /**
+     * @return 是否使用 epoll 传输
+     */
+    public boolean isEpoll() {
+        return this.epoll;
+    }
+
+    /**
+     * @return worker 线程数
+     */
+    public int threads() {
+        return this.threads;
+    }
+
+    /**
+     * @return 接受 TCP 连接的事件循环
+     */
+    public @NotNull EventLoopGroup boss() {
+        return this.boss;
+    }
+
+    /**
+     * @return 处理读写的事件循环
+     */
+    public @NotNull EventLoopGroup worker() {
+        return this.worker;
+    }
+
+    public @NotNull Class<? extends DatagramChannel> datagramChannel() {
+        return this.epoll ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    }
+
+    public @NotNull Class<? extends ServerSocketChannel> serverChannel() {
+        return this.epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public @NotNull Class<? extends SocketChannel> socketChannel() {
+        return this.epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    @Override
+    public void close() {
+        this.boss.shutdownGracefully();
+        this.worker.shutdownGracefully();
+    }
+}
@@ -0,0 +1,43 @@
+package online.flowerinsnow.dns_j.server;
+
+import io.netty.handler.ssl.*;
+import online.flowerinsnow.dns_j.config.Config;
+import org.jetbrains.annotations.NotNull;
+
+import javax.net.ssl.SSLException;
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * <p>创建 DoT 与 DoH 监听使用的 TLS 上下文</p>
+ */
+public final class ServerTLS {
+    private ServerTLS() {
+    }
+
+    /**
+     * <p>创建服务端 TLS 上下文</p>
+     * <p>服务端会话缓存使客户端重连时可以通过会话 ID 或会话票据（TLS 1.3）恢复会话，省去完整握手；
+     * 类路径中有 netty-tcnative 时使用 OpenSSL，否则使用 JDK 的实现</p>
+     *
+     * @param config 配置，使用其中的 tlsCertificate、tlsPrivateKey、tlsSessionCacheSize、tlsSessionTimeout
+     * @param protocols 通过 ALPN 协商的应用层协议，按优先级排列
+     * @return TLS 上下文
+     * @throws SSLException 证书或私钥无法加载
+     */
+    public static @NotNull SslContext forServer(@NotNull Config config, @NotNull String... protocols) throws SSLException {
+        Objects.requireNonNull(config.getTlsCertificate(), "未设置 tlsCertificate");
+        Objects.requireNonNull(config.getTlsPrivateKey(), "未设置 tlsPrivateKey");
+        SslProvider provider = SslProvider.isAlpnSupported(SslProvider.OPENSSL) ? SslProvider.OPENSSL : SslProvider.JDK;
+        return SslContextBuilder.forServer(new File(config.getTlsCertificate()), new File(config.getTlsPrivateKey()))
+                .sslProvider(provider)
+                .sessionCacheSize(config.getTlsSessionCacheSize())
+                .sessionTimeout(config.getTlsSessionTimeout())
+                .applicationProtocolConfig(new ApplicationProtocolConfig(
+                        ApplicationProtocolConfig.Protocol.ALPN,
+                        ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                        ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                        protocols))
+                .build();
+    }
+}
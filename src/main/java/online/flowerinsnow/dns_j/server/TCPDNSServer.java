@@ -0,0 +1,269 @@
+package online.flowerinsnow.dns_j.server;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import online.flowerinsnow.dns_j.audit.AuditLog;
+import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.exception.UnexpectedException;
+import online.flowerinsnow.dns_j.metrics.Metrics;
+import online.flowerinsnow.dns_j.metrics.Transport;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>DNS over TCP（RFC 7766）与 DNS over TLS（RFC 7858）服务器</p>
+ * <p>每条消息前有 2 字节长度；同一连接上可以连续发送多个查询，响应按完成顺序返回，客户端按事务 ID 匹配</p>
+ * <p>连接空闲超过指定时间且没有进行中的查询时关闭；同时打开的连接数和每个连接进行中的查询数有上限，
+ * 达到后者时暂停读取该连接；暂停前已经读入的查询排队等待，有查询完成时再依次处理</p>
+ */
+public abstract class TCPDNSServer implements AutoCloseable {
+    @NotNull private final Logger logger;
+    @NotNull private final SocketAddress bind;
+    @Nullable private final SslContext sslContext;
+    @NotNull private final AuditLog audit;
+    @NotNull private final Metrics metrics;
+    @NotNull private final EventLoops loops;
+    private final long timeout;
+    private final long idleTimeout;
+    private final int maxConnections;
+    private final int maxPipelined;
+    @NotNull private final AtomicInteger connections = new AtomicInteger();
+    private Channel channel;
+
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>bind：绑定地址，与 UDP 相同</li>
+     *     <li>queryTimeout：单次查询的最长等待时间，超时后向客户端返回 SERVFAIL</li>
+     *     <li>tcpIdleTimeout：连接空闲超时</li>
+     *     <li>tcpMaxConnections：同时打开的最大连接数</li>
+     *     <li>tcpMaxPipelined：每个连接进行中的最大查询数</li>
+     * </ul>
+     *
+     * @param config 配置
+     * @param audit 审计日志，每次查询事务写入一条记录
+     * @param metrics 运行指标
+     * @param loops 共用的事件循环
+     */
+    public TCPDNSServer(@NotNull Config config, @NotNull AuditLog audit, @NotNull Metrics metrics, @NotNull EventLoops loops) {
+        this(config, audit, metrics, loops, Objects.requireNonNull(config.getBind()), null);
+    }
+
+    /**
+     * <p>提供 TLS 上下文时作为 DoT 服务器，空闲超时改用配置中的 tlsIdleTimeout，以保持长连接</p>
+     *
+     * @param config 配置
+     * @param audit 审计日志，每次查询事务写入一条记录
+     * @param metrics 运行指标
+     * @param loops 共用的事件循环
+     * @param bind 绑定地址
+     * @param sslContext TLS 上下文，为 null 时为明文 TCP
+     */
+    public TCPDNSServer(@NotNull Config config, @NotNull AuditLog audit, @NotNull Metrics metrics, @NotNull EventLoops loops,
+                        @NotNull SocketAddress bind, @Nullable SslContext sslContext) {
+        this.logger = LogManager.getLogger(sslContext != null ? "DoTDNSServer" : TCPDNSServer.class.getSimpleName());
+        this.bind = Objects.requireNonNull(bind);
+        this.sslContext = sslContext;
+        this.audit = Objects.requireNonNull(audit);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.loops = Objects.requireNonNull(loops);
+        this.timeout = config.getQueryTimeout();
+        this.idleTimeout = sslContext != null ? config.getTlsIdleTimeout() : config.getTcpIdleTimeout();
+        this.maxConnections = config.getTcpMaxConnections();
+        this.maxPipelined = Math.max(1, config.getTcpMaxPipelined());
+    }
+
+    public void start() throws BindException {
+        try {
+            this.channel = new ServerBootstrap()
+                    .group(this.loops.boss(), this.loops.worker())
+                    .channel(this.loops.serverChannel())
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            if (TCPDNSServer.this.sslContext != null) {
+                                ch.pipeline().addLast(TCPDNSServer.this.sslContext.newHandler(ch.alloc()));
+                            }
+                            ch.pipeline()
+                                    .addLast(new IdleStateHandler(0L, 0L, TCPDNSServer.this.idleTimeout, TimeUnit.MILLISECONDS))
+                                    .addLast(new LengthFieldBasedFrameDecoder(65535, 0, 2, 0, 2))
+                                    .addLast(new LengthFieldPrepender(2))
+                                    .addLast(new ConnectionHandler());
+                        }
+                    })
+                    .bind(this.bind)
+                    .sync()
+                    .channel();
+            this.logger.info("{} 服务器启动于 {}", this.sslContext != null ? "DoT" : "TCP", this.channel.localAddress());
+        } catch (InterruptedException e) {
+            this.logger.warn("线程中断");
+        }
+    }
+
+    /**
+     * <p>以报文形式获取查询的响应内容</p>
+     * <p>该方法在事件循环线程上调用，实现不能阻塞</p>
+     *
+     * @param query 查询报文
+     * @param client 查询客户端
+     * @return 完成时得到响应报文，事务 ID 必须与查询相同
+     */
+    public abstract @NotNull CompletionStage<byte[]> getRawResponse(@NotNull byte[] query, @NotNull InetSocketAddress client);
+
+    @Override
+    public void close() {
+        try {
+            if (this.channel != null) {
+                this.channel.close().sync();
+            }
+        } catch (InterruptedException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    /**
+     * <p>处理一个连接上的查询，计数只在该连接的事件循环上修改</p>
+     */
+    private class ConnectionHandler extends SimpleChannelInboundHandler<ByteBuf> {
+        /**
+         * 达到进行中查询上限后收到的查询；暂停读取只影响之后的读取，解码器已经读入的消息仍会到达，
+         * 数量不超过暂停前最后一次读取的数据量
+         */
+        @NotNull private final ArrayDeque<PendingQuery> pending = new ArrayDeque<>();
+        private int inFlight;
+        private boolean accepted;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            this.accepted = true;
+            if (TCPDNSServer.this.connections.incrementAndGet() > TCPDNSServer.this.maxConnections) {
+                TCPDNSServer.this.logger.warn("TCP 连接数已达上限 {}，拒绝 {}", TCPDNSServer.this.maxConnections, ctx.channel().remoteAddress());
+                ctx.close();
+                return;
+            }
+            super.channelActive(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (this.accepted) {
+                TCPDNSServer.this.connections.decrementAndGet();
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            final long start = System.nanoTime();
+            final long received = System.currentTimeMillis();
+            final byte[] query = ByteBufUtil.getBytes(frame);
+            if (query.length < DNSWire.HEADER_LENGTH || DNSWire.isResponse(query)) {
+                // 不是查询，关闭连接
+                ctx.close();
+                return;
+            }
+
+            TCPDNSServer.this.metrics.queryReceived(TCPDNSServer.this.sslContext != null ? Transport.DOT : Transport.TCP);
+            if (this.inFlight >= TCPDNSServer.this.maxPipelined) {
+                this.pending.add(new PendingQuery(query, start, received));
+                return;
+            }
+            this.process(ctx, query, start, received);
+        }
+
+        private void process(@NotNull ChannelHandlerContext ctx, @NotNull byte[] query, long start, long received) {
+            final InetSocketAddress client = (InetSocketAddress) ctx.channel().remoteAddress();
+            if (++this.inFlight >= TCPDNSServer.this.maxPipelined) {
+                ctx.channel().config().setAutoRead(false);
+            }
+            CompletableFuture<byte[]> future;
+            try {
+                future = TCPDNSServer.this.getRawResponse(query, client).toCompletableFuture().copy();
+            } catch (Throwable t) {
+                future = CompletableFuture.failedFuture(t);
+            }
+            future.orTimeout(TCPDNSServer.this.timeout, TimeUnit.MILLISECONDS)
+                    .whenComplete((result, throwable) -> {
+                        byte[] response = result;
+                        if (throwable != null) {
+                            TCPDNSServer.this.logger.warn("查询失败 ({})", client, throwable);
+                            response = DNSWire.errorResponse(query, DNSWire.RCODE_SERVFAIL);
+                        }
+                        long latency = System.nanoTime() - start;
+                        TCPDNSServer.this.metrics.queryCompleted(response, latency);
+                        TCPDNSServer.this.audit.log(client, received, response, latency);
+                        final byte[] answer = response;
+                        try {
+                            ctx.executor().execute(() -> this.complete(ctx, answer));
+                        } catch (RejectedExecutionException ignored) {
+                            // 服务器正在关闭
+                        }
+                    });
+        }
+
+        private void complete(@NotNull ChannelHandlerContext ctx, @NotNull byte[] response) {
+            this.inFlight--;
+            if (!ctx.channel().isActive()) {
+                this.pending.clear();
+                return;
+            }
+            ctx.writeAndFlush(Unpooled.wrappedBuffer(response));
+            PendingQuery next;
+            while (this.inFlight < TCPDNSServer.this.maxPipelined && (next = this.pending.poll()) != null) {
+                this.process(ctx, next.query(), next.start(), next.received());
+            }
+            if (this.inFlight < TCPDNSServer.this.maxPipelined && !ctx.channel().config().isAutoRead()) {
+                ctx.channel().config().setAutoRead(true);
+            }
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                if (this.inFlight == 0) {
+                    ctx.close();
+                }
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            TCPDNSServer.this.logger.debug("连接 {} 出错", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * @param query 查询报文
+     * @param start 收到查询时的 {@link System#nanoTime()}
+     * @param received 收到查询的时间（毫秒）
+     */
+    private record PendingQuery(@NotNull byte[] query, long start, long received) {
+    }
+}
@@ -1,90 +1,411 @@
 package online.flowerinsnow.dns_j.server;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.socket.DatagramPacket;
 import io.netty.handler.codec.dns.*;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import online.flowerinsnow.dns_j.admission.Admission;
+import online.flowerinsnow.dns_j.admission.AdmissionResult;
+import online.flowerinsnow.dns_j.audit.AuditLog;
+import online.flowerinsnow.dns_j.config.Config;
 import online.flowerinsnow.dns_j.exception.UnexpectedException;
-import online.flowerinsnow.dns_j.util.DNSRecordParser;
+import online.flowerinsnow.dns_j.metrics.Metrics;
+import online.flowerinsnow.dns_j.metrics.QueryAnalytics;
+import online.flowerinsnow.dns_j.metrics.Transport;
+import online.flowerinsnow.dns_j.util.DNSWire;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.net.BindException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public abstract class UDPDNSServer implements AutoCloseable {
     @NotNull private final Logger logger;
     @NotNull private final SocketAddress bind;
-    private Channel channel;
+    @NotNull private final AuditLog audit;
+    @NotNull private final Metrics metrics;
+    @NotNull private volatile Admission admission;
+    @Nullable private final QueryAnalytics analytics;
+    private final long timeout;
+    private final boolean passthrough;
+    private final int listeners;
+    private final int maxDatagramSize;
+    private final int receiveBatch;
+    @NotNull private final List<Channel> channels = new ArrayList<>();
+    @Nullable private final UpstreamExecutor executor;
 
-    private final EventLoopGroup group = new NioEventLoopGroup();
+    @NotNull private final EventLoops loops;
 
-    public UDPDNSServer(@NotNull SocketAddress bind) {
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>bind：绑定地址</li>
+     *     <li>queryTimeout：单次查询的最长等待时间，超时后向客户端返回 SERVFAIL</li>
+     *     <li>passthrough：是否以报文形式直接转发，不解码为 Netty 的 DNS 消息</li>
+     *     <li>maxDatagramSize、receiveBatch：epoll 传输下批量接收的数据报大小与数量</li>
+     *     <li>virtualThreads：在虚拟线程上调用 {@link #getResponse} 与 {@link #getRawResponse}，见 {@link UpstreamExecutor}</li>
+     * </ul>
+     *
+     * @param config 配置
+     * @param audit 审计日志，每次查询事务写入一条记录
+     * @param metrics 运行指标
+     * @param admission 准入控制，在查询交给解析器之前检查
+     * @param analytics 查询流分析，每个已应答的查询记录一次，为 null 时不启用
+     * @param loops 共用的事件循环，使用 epoll 时以 SO_REUSEPORT 为每个线程打开一个套接字并批量收发
+     */
+    public UDPDNSServer(@NotNull Config config, @NotNull AuditLog audit, @NotNull Metrics metrics, @NotNull Admission admission, @Nullable QueryAnalytics analytics, @NotNull EventLoops loops) {
         this.logger = LogManager.getLogger(UDPDNSServer.class.getSimpleName());
-        this.bind = Objects.requireNonNull(bind);
+        this.bind = Objects.requireNonNull(config.getBind());
+        this.audit = Objects.requireNonNull(audit);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.admission = Objects.requireNonNull(admission);
+        this.analytics = analytics;
+        this.timeout = config.getQueryTimeout();
+        this.passthrough = config.isPassthrough();
+        this.maxDatagramSize = config.getMaxDatagramSize();
+        this.receiveBatch = config.getReceiveBatch();
+        this.executor = config.isVirtualThreads() ? new UpstreamExecutor(config) : null;
+
+        this.loops = Objects.requireNonNull(loops);
+        // epoll 下每个事件循环一个套接字，由内核分散数据包；NIO 不支持 SO_REUSEPORT，只能打开一个
+        this.listeners = loops.isEpoll() ? loops.threads() : 1;
+    }
+
+    /**
+     * <p>替换准入控制，用于在运行时应用新的限速配置</p>
+     *
+     * @param admission 新的准入控制
+     */
+    public void setAdmission(@NotNull Admission admission) {
+        this.admission = Objects.requireNonNull(admission);
     }
 
     public void start() throws BindException {
-        try {
-            this.channel = new Bootstrap()
-                    .group(this.group)
-                    .channel(NioDatagramChannel.class)
-                    .option(ChannelOption.SO_BROADCAST, true)
-                    .handler(new ChannelInitializer<>() {
-                        @Override
-                        protected void initChannel(Channel ch) {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(this.loops.worker())
+                .channel(this.loops.datagramChannel())
+                .option(ChannelOption.SO_BROADCAST, true)
+                .handler(new ChannelInitializer<>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        // 合并同一轮读取中产生的多次 flush，使 epoll 可以用 sendmmsg 批量发送
+                        ch.pipeline().addLast(new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+                        if (UDPDNSServer.this.passthrough) {
+                            ch.pipeline().addLast(new PassthroughHandler());
+                        } else {
                             ch.pipeline()
                                     .addLast(new DatagramDnsQueryDecoder())
                                     .addLast(new DatagramDnsResponseEncoder())
-                                    .addLast(new SimpleChannelInboundHandler<DatagramDnsQuery>() {
-                                        @Override
-                                        protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery msg) throws Exception {
-                                            final Logger logger = UDPDNSServer.this.logger;
-                                            // log 查询内容
-                                            logger.info("--------- BEGIN DNS QUERY ({}) ---------", msg.sender());
-                                            DNSRecordParser.logMsg(logger, msg);
-                                            logger.info("--------- END DNS QUERY ({})---------", msg.sender());
-
-                                            // 通过 DoH 服务器获取响应内容
-                                            DnsResponse response = UDPDNSServer.this.getResponse(msg, msg.recipient(), msg.sender());
-                                            // log 响应内容
-                                            logger.info("--------- BEGIN DNS RESPONSE ({}) ---------", msg.sender());
-                                            DNSRecordParser.logMsg(logger, response);
-                                            logger.info("--------- END DNS RESPONSE ({}) ---------", msg.sender());
-                                            // 将响应内容返回给查询客户端
-                                            ctx.writeAndFlush(response).sync();
-                                        }
-                                    });
+                                    .addLast(new QueryHandler());
                         }
-                    })
-                    .bind(this.bind)
-                    .addListener((ChannelFutureListener) future -> {
-                        if (future.isSuccess()) {
-                            UDPDNSServer.this.logger.info("服务器启动于 {}", future.channel().localAddress());
-                        }
-                    })
-                    .sync()
-                    .channel();
+                    }
+                });
+        if (this.loops.isEpoll()) {
+            // 每次读取用 recvmmsg 接收多个数据报
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true)
+                    .option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, this.maxDatagramSize)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(this.maxDatagramSize * this.receiveBatch));
+        }
+
+        try {
+            for (int i = 0; i < this.listeners; i++) {
+                Channel channel = bootstrap.bind(this.bind).sync().channel();
+                this.channels.add(channel);
+                if (i == 0) {
+                    this.logger.info("服务器启动于 {}（{}，{} 个套接字）", channel.localAddress(), this.loops.isEpoll() ? "epoll" : "NIO", this.listeners);
+                }
+            }
         } catch (InterruptedException e) {
             this.logger.warn("线程中断");
         }
     }
 
-    public abstract @NotNull DnsResponse getResponse(@NotNull DnsQuery query, @NotNull InetSocketAddress sender, @NotNull InetSocketAddress recipient);
+    /**
+     * <p>获取查询的响应内容</p>
+     * <p>该方法在事件循环线程上调用，实现不能阻塞；启用 virtualThreads 时在虚拟线程上调用，可以阻塞</p>
+     *
+     * @param query 查询内容
+     * @param sender 响应的发送者
+     * @param recipient 响应的接收者
+     * @return 完成时得到响应内容
+     */
+    public abstract @NotNull CompletionStage<DnsResponse> getResponse(@NotNull DnsQuery query, @NotNull InetSocketAddress sender, @NotNull InetSocketAddress recipient);
+
+    /**
+     * <p>以报文形式获取查询的响应内容，用于直接转发模式</p>
+     * <p>该方法在事件循环线程上调用，实现不能阻塞；启用 virtualThreads 时在虚拟线程上调用，可以阻塞</p>
+     *
+     * @param query 查询报文
+     * @param client 查询客户端
+     * @return 完成时得到响应报文，事务 ID 必须与查询相同
+     */
+    public abstract @NotNull CompletionStage<byte[]> getRawResponse(@NotNull byte[] query, @NotNull InetSocketAddress client);
+
+    /**
+     * <p>检查是否接纳查询，未被接纳时计入指标</p>
+     *
+     * @return 应答的响应码，为 -1 时接纳查询，为 -2 时丢弃查询
+     */
+    private int admit(@NotNull Admission admission, @NotNull InetSocketAddress client) {
+        AdmissionResult result = admission.admit(client.getAddress());
+        if (result == AdmissionResult.ADMITTED) {
+            return -1;
+        }
+        this.metrics.shed(result);
+        return switch (admission.policy()) {
+            case DROP -> -2;
+            case REFUSED -> DNSWire.RCODE_REFUSED;
+            case SERVFAIL -> DNSWire.RCODE_SERVFAIL;
+        };
+    }
+
+    private static @NotNull DnsResponse errorResponse(@NotNull DatagramDnsQuery query, @NotNull DnsResponseCode code) {
+        DatagramDnsResponse response = new DatagramDnsResponse(query.recipient(), query.sender(), query.id(), query.opCode(), code);
+        response.setRecursionDesired(query.isRecursionDesired());
+        response.setRecursionAvailable(true);
+        DnsRecord question = query.recordAt(DnsSection.QUESTION);
+        if (question != null) {
+            response.addRecord(DnsSection.QUESTION, question);
+        }
+        return response;
+    }
+
+    /**
+     * @return 在 channel 所在的事件循环上执行的 {@link Executor}，已在事件循环上时直接执行
+     */
+    private static @NotNull Executor eventLoop(@NotNull ChannelHandlerContext ctx) {
+        EventLoop loop = ctx.channel().eventLoop();
+        return command -> {
+            if (loop.inEventLoop()) {
+                command.run();
+            } else {
+                loop.execute(command);
+            }
+        };
+    }
+
+    /**
+     * @return 客户端通过 EDNS 声明的 UDP 负载大小，没有 OPT 记录时为 512
+     */
+    private static int udpPayloadSize(@NotNull DnsQuery query) {
+        int count = query.count(DnsSection.ADDITIONAL);
+        for (int i = 0; i < count; i++) {
+            DnsRecord record = query.recordAt(DnsSection.ADDITIONAL, i);
+            if (record.type() == DnsRecordType.OPT) {
+                // OPT 记录的 CLASS 字段是请求方的 UDP 负载大小
+                return Math.max(512, record.dnsClass());
+            }
+        }
+        return 512;
+    }
+
+    /**
+     * <p>计算响应编码后的长度，Netty 的编码器不压缩域名，因此可以精确计算</p>
+     */
+    private static int encodedSize(@NotNull DnsResponse response) {
+        int size = DNSWire.HEADER_LENGTH;
+        for (DnsSection section : DnsSection.values()) {
+            int count = response.count(section);
+            for (int i = 0; i < count; i++) {
+                DnsRecord record = response.recordAt(section, i);
+                size += UDPDNSServer.encodedNameSize(record.name()) + 4;
+                if (section == DnsSection.QUESTION) {
+                    continue;
+                }
+                size += 6;
+                if (record instanceof DnsRawRecord rr) {
+                    size += rr.content().readableBytes();
+                } else if (record instanceof DnsPtrRecord ptr) {
+                    size += UDPDNSServer.encodedNameSize(ptr.hostname());
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int encodedNameSize(@NotNull String name) {
+        if (name.isEmpty() || name.equals(".")) {
+            return 1;
+        }
+        return name.length() + (name.endsWith(".") ? 1 : 2);
+    }
+
+    private static @NotNull DnsResponse truncate(@NotNull DatagramDnsQuery query, @NotNull DnsResponse response) {
+        DatagramDnsResponse truncated = new DatagramDnsResponse(query.recipient(), query.sender(), response.id(), response.opCode(), response.code());
+        truncated.setRecursionDesired(response.isRecursionDesired());
+        truncated.setRecursionAvailable(response.isRecursionAvailable());
+        truncated.setAuthoritativeAnswer(response.isAuthoritativeAnswer());
+        truncated.setTruncated(true);
+        DnsRecord question = response.recordAt(DnsSection.QUESTION);
+        if (question != null) {
+            truncated.addRecord(DnsSection.QUESTION, question);
+        }
+        // 保留 OPT 记录，客户端据此得知服务器支持 EDNS 及扩展 RCODE、DO 标志
+        for (int i = 0, count = response.count(DnsSection.ADDITIONAL); i < count; i++) {
+            DnsRecord record = response.recordAt(DnsSection.ADDITIONAL, i);
+            if (record.type() == DnsRecordType.OPT) {
+                truncated.addRecord(DnsSection.ADDITIONAL, record instanceof DnsRawRecord raw ? raw.retainedDuplicate() : record);
+                break;
+            }
+        }
+        return truncated;
+    }
 
     @Override
     public void close() {
+        if (this.executor != null) {
+            this.executor.close();
+        }
         try {
-            if (this.channel != null) {
-                this.channel.close().sync();
+            for (Channel channel : this.channels) {
+                channel.close().sync();
             }
-            this.group.shutdownGracefully();
         } catch (InterruptedException e) {
             throw new UnexpectedException(e);
         }
     }
+
+    /**
+     * <p>处理解码后的查询</p>
+     */
+    private class QueryHandler extends SimpleChannelInboundHandler<DatagramDnsQuery> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery msg) {
+            final Logger logger = UDPDNSServer.this.logger;
+            final long start = System.nanoTime();
+            final long received = System.currentTimeMillis();
+            final int payloadSize = UDPDNSServer.udpPayloadSize(msg);
+            // 查询完成时要在接纳它的同一个实例上计数，配置重新加载后实例可能已被替换
+            final Admission admission = UDPDNSServer.this.admission;
+            int shed = UDPDNSServer.this.admit(admission, msg.sender());
+            if (shed != -1) {
+                // 未被接纳，不经过解析器，也不写审计日志
+                if (shed != -2) {
+                    ctx.writeAndFlush(UDPDNSServer.errorResponse(msg, DnsResponseCode.valueOf(shed)));
+                }
+                return;
+            }
+            UDPDNSServer.this.metrics.queryReceived(Transport.UDP);
+
+            // 通过 DoH 服务器异步获取响应内容，查询在响应返回前不能被释放
+            msg.retain();
+            CompletionStage<DnsResponse> stage;
+            try {
+                stage = UDPDNSServer.this.executor != null
+                        ? UDPDNSServer.this.executor.submit(() -> UDPDNSServer.this.getResponse(msg, msg.recipient(), msg.sender()))
+                        : UDPDNSServer.this.getResponse(msg, msg.recipient(), msg.sender());
+            } catch (Throwable t) {
+                stage = CompletableFuture.failedFuture(t);
+            }
+            CompletableFuture<DnsResponse> future = new CompletableFuture<>();
+            stage.whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    future.completeExceptionally(throwable);
+                } else if (!future.complete(response)) {
+                    // 已经超时，迟到的响应不会再被写出，必须在这里释放
+                    response.release();
+                }
+            });
+            // 响应在虚拟线程或上游线程上完成时，回到 channel 所在的事件循环处理
+            future.orTimeout(UDPDNSServer.this.timeout, TimeUnit.MILLISECONDS)
+                    .whenCompleteAsync((result, throwable) -> {
+                        try {
+                            DnsResponse response = result;
+                            if (throwable != null) {
+                                logger.warn("查询失败 ({})", msg.sender(), throwable);
+                                response = UDPDNSServer.errorResponse(msg, DnsResponseCode.SERVFAIL);
+                            } else if (UDPDNSServer.encodedSize(response) > payloadSize) {
+                                // 超出客户端能接收的长度，截断后让客户端改用 TCP
+                                DnsResponse truncated = UDPDNSServer.truncate(msg, response);
+                                response.release();
+                                response = truncated;
+                            }
+                            // 审计记录会 retain 响应，必须在写入 channel 之前提交
+                            long latency = System.nanoTime() - start;
+                            admission.complete(latency);
+                            UDPDNSServer.this.metrics.queryCompleted(response, latency);
+                            if (UDPDNSServer.this.analytics != null) {
+                                UDPDNSServer.this.analytics.record(msg.sender().getAddress(), response);
+                            }
+                            UDPDNSServer.this.audit.log(msg.sender(), received, response, latency);
+                            // 将响应内容返回给查询客户端，写入操作会被调度到 channel 所在的事件循环
+                            ctx.writeAndFlush(response);
+                        } finally {
+                            msg.release();
+                        }
+                    }, UDPDNSServer.eventLoop(ctx));
+        }
+    }
+
+    /**
+     * <p>直接转发模式：查询与响应都保持报文原样，只读取报头</p>
+     */
+    private class PassthroughHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+            final Logger logger = UDPDNSServer.this.logger;
+            final InetSocketAddress client = packet.sender();
+            final InetSocketAddress local = packet.recipient();
+            final long start = System.nanoTime();
+            final long received = System.currentTimeMillis();
+            final byte[] query = ByteBufUtil.getBytes(packet.content());
+            if (query.length < DNSWire.HEADER_LENGTH || DNSWire.isResponse(query)) {
+                // 不是查询，丢弃
+                return;
+            }
+            final int payloadSize = DNSWire.udpPayloadSize(query);
+            final Admission admission = UDPDNSServer.this.admission;
+            int shed = UDPDNSServer.this.admit(admission, client);
+            if (shed != -1) {
+                // 未被接纳，不经过解析器，也不写审计日志
+                if (shed != -2) {
+                    ctx.writeAndFlush(new DatagramPacket(Unpooled.wrappedBuffer(DNSWire.errorResponse(query, shed)), client, local));
+                }
+                return;
+            }
+            UDPDNSServer.this.metrics.queryReceived(Transport.UDP);
+
+            CompletableFuture<byte[]> future;
+            try {
+                future = UDPDNSServer.this.executor != null
+                        ? UDPDNSServer.this.executor.submit(() -> UDPDNSServer.this.getRawResponse(query, client))
+                        : UDPDNSServer.this.getRawResponse(query, client).toCompletableFuture().copy();
+            } catch (Throwable t) {
+                future = CompletableFuture.failedFuture(t);
+            }
+            future.orTimeout(UDPDNSServer.this.timeout, TimeUnit.MILLISECONDS)
+                    .whenCompleteAsync((result, throwable) -> {
+                        byte[] response = result;
+                        if (throwable != null) {
+                            logger.warn("查询失败 ({})", client, throwable);
+                            response = DNSWire.errorResponse(query, DNSWire.RCODE_SERVFAIL);
+                        } else if (response.length > payloadSize) {
+                            // 超出客户端能接收的长度，截断后让客户端改用 TCP
+                            response = DNSWire.truncate(response);
+                        }
+                        long latency = System.nanoTime() - start;
+                        admission.complete(latency);
+                        UDPDNSServer.this.metrics.queryCompleted(response, latency);
+                        if (UDPDNSServer.this.analytics != null) {
+                            UDPDNSServer.this.analytics.record(client.getAddress(), response);
+                        }
+                        UDPDNSServer.this.audit.log(client, received, response, latency);
+                        ctx.writeAndFlush(new DatagramPacket(Unpooled.wrappedBuffer(response), client, local));
+                    }, UDPDNSServer.eventLoop(ctx));
+        }
+    }
 }
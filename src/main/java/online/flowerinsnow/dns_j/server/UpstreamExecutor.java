@@ -0,0 +1,121 @@
+package online.flowerinsnow.dns_j.server;
+
+import online.flowerinsnow.dns_j.config.Config;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * <p>在虚拟线程上获取响应，使阻塞的实现不会占用事件循环线程</p>
+ * <p>同时进行的调用数受信号量限制，许可在返回的响应完成时才释放；
+ * 许可用尽时新的调用最多排队 {@code upstreamQueueSize} 个、每个最多等待 {@code upstreamQueueTimeout}，
+ * 超出时立即以 {@link RejectedExecutionException} 失败</p>
+ * <p>虚拟线程阻塞时只占用很少的内存，数千个慢速的上游请求可以同时进行</p>
+ */
+public class UpstreamExecutor implements AutoCloseable {
+    @NotNull private final ExecutorService executor;
+    @NotNull private final Semaphore permits;
+    private final int queueSize;
+    private final long queueTimeout;
+    @NotNull private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * <p>使用配置中的以下内容</p>
+     * <ul>
+     *     <li>upstreamConcurrency：同时进行的调用数上限</li>
+     *     <li>upstreamQueueSize：许可用尽时最多排队的调用数，为 0 时直接拒绝</li>
+     *     <li>upstreamQueueTimeout：排队的最长时间</li>
+     * </ul>
+     *
+     * @param config 配置
+     */
+    public UpstreamExecutor(@NotNull Config config) {
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("upstream-", 0L).factory());
+        this.permits = new Semaphore(config.getUpstreamConcurrency());
+        this.queueSize = config.getUpstreamQueueSize();
+        this.queueTimeout = config.getUpstreamQueueTimeout();
+    }
+
+    /**
+     * <p>在虚拟线程上执行调用</p>
+     *
+     * @param call 获取响应，可以阻塞
+     * @return 完成时得到响应，排队已满、排队超时或调用失败时异常完成
+     */
+    public <T> @NotNull CompletableFuture<T> submit(@NotNull Supplier<? extends CompletionStage<T>> call) {
+        Objects.requireNonNull(call);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (this.permits.tryAcquire()) {
+            try {
+                this.executor.execute(() -> this.run(call, result));
+            } catch (RejectedExecutionException e) {
+                this.permits.release();
+                return CompletableFuture.failedFuture(e);
+            }
+            return result;
+        }
+
+        if (this.queued.incrementAndGet() > this.queueSize) {
+            this.queued.decrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("上游并发数已达上限"));
+        }
+        try {
+            this.executor.execute(() -> {
+                boolean acquired;
+                try {
+                    acquired = this.permits.tryAcquire(this.queueTimeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    result.completeExceptionally(e);
+                    return;
+                } finally {
+                    this.queued.decrementAndGet();
+                }
+                if (!acquired) {
+                    result.completeExceptionally(new RejectedExecutionException("等待上游并发许可超时"));
+                    return;
+                }
+                this.run(call, result);
+            });
+        } catch (RejectedExecutionException e) {
+            this.queued.decrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+        return result;
+    }
+
+    /**
+     * <p>已取得许可，执行调用并在响应完成时释放许可</p>
+     */
+    private <T> void run(@NotNull Supplier<? extends CompletionStage<T>> call, @NotNull CompletableFuture<T> result) {
+        CompletionStage<T> stage;
+        try {
+            stage = call.get();
+        } catch (Throwable t) {
+            this.permits.release();
+            result.completeExceptionally(t);
+            return;
+        }
+        stage.whenComplete((value, throwable) -> {
+            this.permits.release();
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(value);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+}
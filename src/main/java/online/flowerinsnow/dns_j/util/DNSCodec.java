@@ -0,0 +1,46 @@
+package online.flowerinsnow.dns_j.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.dns.DnsQuery;
+import io.netty.handler.codec.dns.DnsResponse;
+import online.flowerinsnow.dns_j.exception.UnexpectedException;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.InetSocketAddress;
+
+/**
+ * <p>Netty DNS 消息与 DNS 报文（wire format）之间的转换</p>
+ * <p>编码使用池化缓冲区，解码直接包装报文数组，不做额外复制</p>
+ */
+public abstract class DNSCodec {
+    private static final NettyDatagramDnsResponseDecoder DECODER = new NettyDatagramDnsResponseDecoder();
+
+    private DNSCodec() {
+    }
+
+    public static @NotNull byte[] encode(@NotNull DnsQuery query) {
+        ByteBuf buf = ByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            NettyDnsQueryEncoder.DEFAULT.encode(query, buf);
+            return ByteBufUtil.getBytes(buf);
+        } catch (Exception e) {
+            throw new UnexpectedException(e);
+        } finally {
+            buf.release();
+        }
+    }
+
+    public static @NotNull DnsResponse decode(@NotNull byte[] response, InetSocketAddress sender, InetSocketAddress recipient) {
+        ByteBuf buf = Unpooled.wrappedBuffer(response);
+        try {
+            return DECODER.decode(sender, recipient, buf);
+        } catch (Exception e) {
+            throw new UnexpectedException(e);
+        } finally {
+            buf.release();
+        }
+    }
+}
@@ -1,31 +1,50 @@
 package online.flowerinsnow.dns_j.util;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.handler.codec.dns.*;
 import io.netty.util.NetUtil;
+import io.netty.util.concurrent.FastThreadLocal;
 import online.flowerinsnow.dns_j.object.record.MXRecord;
 import online.flowerinsnow.dns_j.object.record.SRVRecord;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Map;
 import java.util.Objects;
 
+/**
+ * <p>解析记录内容</p>
+ * <p>记录内容中的域名可能使用压缩指针，指针指向完整报文中的位置；Netty 解码器产生的记录内容与完整报文共享索引，
+ * 因此可以直接在内容上跟随指针</p>
+ */
 public abstract class DNSRecordParser {
+    /**
+     * 跟随压缩指针的最大次数，防止恶意报文造成死循环
+     */
+    private static final int MAX_POINTERS = 64;
+
+    private static final DnsSection[] SECTIONS = {DnsSection.QUESTION, DnsSection.ANSWER, DnsSection.AUTHORITY, DnsSection.ADDITIONAL};
+    private static final String[] SECTION_NAMES = {"Queries", "Answers", "Authoritative nameservers", "Additional"};
+
+    private static final FastThreadLocal<byte[]> IPV6 = new FastThreadLocal<>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[16];
+        }
+    };
+
     private DNSRecordParser() {
     }
 
     public static @NotNull String parseA(ByteBuf content) {
         Objects.requireNonNull(content);
-        byte[] bytes = new byte[4];
-        content.readBytes(bytes);
-        return NetUtil.bytesToIpAddress(bytes);
+        return content.readUnsignedByte() + "." + content.readUnsignedByte() + "." + content.readUnsignedByte() + "." + content.readUnsignedByte();
     }
 
     public static @NotNull String parseAAAA(@NotNull ByteBuf content) {
         Objects.requireNonNull(content);
-        byte[] bytes = new byte[16];
+        byte[] bytes = IPV6.get();
         content.readBytes(bytes);
         return NetUtil.bytesToIpAddress(bytes);
     }
@@ -73,6 +92,7 @@ public abstract class DNSRecordParser {
 
     /**
      * <p>解析 TXT 记录内容</p>
+     * <p>包含多个字符串时按顺序拼接</p>
      *
      * @param content 数据
      * @return TXT 记录内容
@@ -80,20 +100,29 @@ public abstract class DNSRecordParser {
     public static @NotNull String parseTXT(@NotNull ByteBuf content) {
         Objects.requireNonNull(content);
         /*
-        uint8 len
-        char[len] txt
+        Loop: {
+            uint8 len
+            char[len] txt
+        }
          */
         short length = content.readUnsignedByte();
-        byte[] bytes = new byte[length];
-        content.readBytes(bytes);
-        return new String(bytes, StandardCharsets.UTF_8);
+        String first = content.readCharSequence(length, StandardCharsets.UTF_8).toString();
+        if (!content.isReadable()) {
+            return first;
+        }
+        StringBuilder sb = new StringBuilder(first);
+        while (content.isReadable()) {
+            length = content.readUnsignedByte();
+            sb.append(content.readCharSequence(length, StandardCharsets.UTF_8));
+        }
+        return sb.toString();
     }
 
     /**
-     * <p>解析 TXT 记录内容</p>
+     * <p>解析 SRV 记录内容</p>
      *
      * @param content 数据
-     * @return TXT 记录内容
+     * @return SRV 记录内容
      */
     public static @NotNull SRVRecord parseSRV(@NotNull ByteBuf content) {
         Objects.requireNonNull(content);
@@ -115,81 +144,164 @@ public abstract class DNSRecordParser {
 
     private static @NotNull String parseContentName(@NotNull ByteBuf content) {
         Objects.requireNonNull(content);
-        StringBuilder sb = new StringBuilder();
-        byte len;
-        boolean first = true;
-        while ((len = content.readByte()) > 0) {
-            if (!first) {
-                sb.append('.');
-            } else {
-                first = false;
-            }
-            ByteBuf read = content.readBytes(len);
-            byte[] bytes = new byte[len];
-            read.readBytes(bytes);
-            read.release();
-            sb.append(new String(bytes, StandardCharsets.US_ASCII));
+        StringBuilder sb = new StringBuilder(64);
+        int offset = content.readerIndex();
+        DNSRecordParser.appendName(content, 0, offset, sb);
+        content.readerIndex(DNSRecordParser.skipName(content, offset));
+        // 记录内容中的域名不带结尾的 .
+        if (!sb.isEmpty()) {
+            sb.setLength(sb.length() - 1);
         }
         return sb.toString();
     }
 
+    /**
+     * <p>跳过一个域名</p>
+     *
+     * @param buf 报文
+     * @param offset 域名起始位置
+     * @return 域名之后的位置
+     */
+    public static int skipName(@NotNull ByteBuf buf, int offset) {
+        while (true) {
+            int len = buf.getUnsignedByte(offset);
+            if (len == 0) {
+                return offset + 1;
+            }
+            if ((len & 0xc0) == 0xc0) {
+                return offset + 2;
+            }
+            if ((len & 0xc0) != 0) {
+                throw new CorruptedFrameException("unsupported label type: " + len);
+            }
+            offset += 1 + len;
+        }
+    }
+
+    /**
+     * <p>读取一个域名并输出到 {@code sb}，跟随压缩指针，每个标签后输出一个 {@code .}</p>
+     * <p>直接从缓冲区逐字节读取，不产生中间对象</p>
+     *
+     * @param buf 报文
+     * @param base 报文起始位置，压缩指针相对于此位置
+     * @param offset 域名起始位置
+     * @param sb 输出
+     */
+    public static void appendName(@NotNull ByteBuf buf, int base, int offset, @NotNull StringBuilder sb) {
+        int pointers = 0;
+        while (true) {
+            int len = buf.getUnsignedByte(offset);
+            if (len == 0) {
+                return;
+            }
+            if ((len & 0xc0) == 0xc0) {
+                if (++pointers > MAX_POINTERS) {
+                    throw new CorruptedFrameException("too many compression pointers");
+                }
+                offset = base + (buf.getUnsignedShort(offset) & 0x3fff);
+                continue;
+            }
+            if ((len & 0xc0) != 0) {
+                throw new CorruptedFrameException("unsupported label type: " + len);
+            }
+            for (int i = offset + 1; i <= offset + len; i++) {
+                sb.append((char) buf.getUnsignedByte(i));
+            }
+            sb.append('.');
+            offset += 1 + len;
+        }
+    }
+
+    /**
+     * <p>依次访问报文中的所有记录，不改变缓冲区的读写位置</p>
+     * <p>整个过程只使用一个视图对象，字段在访问时才读取</p>
+     *
+     * @param message 完整报文，从 readerIndex 开始
+     * @param visitor 访问者
+     */
+    public static void visit(@NotNull ByteBuf message, @NotNull DNSRecordVisitor visitor) {
+        DNSRecordParser.visit(message, new DNSRecordView(), visitor);
+    }
+
+    /**
+     * <p>依次访问报文中的所有记录，使用调用方提供的视图对象</p>
+     *
+     * @param message 完整报文，从 readerIndex 开始
+     * @param view 复用的视图
+     * @param visitor 访问者
+     */
+    public static void visit(@NotNull ByteBuf message, @NotNull DNSRecordView view, @NotNull DNSRecordVisitor visitor) {
+        Objects.requireNonNull(message);
+        Objects.requireNonNull(view);
+        Objects.requireNonNull(visitor);
+        final int base = message.readerIndex();
+        int offset = base + DNSWire.HEADER_LENGTH;
+        for (int i = 0; i < SECTIONS.length; i++) {
+            int count = message.getUnsignedShort(base + 4 + i * 2);
+            for (int j = 0; j < count; j++) {
+                offset = view.reset(message, base, SECTIONS[i], offset);
+                if (!visitor.visit(view)) {
+                    return;
+                }
+            }
+        }
+    }
+
     public static void logMsg(@NotNull Logger logger, @NotNull DnsMessage msg) {
         Objects.requireNonNull(logger);
         Objects.requireNonNull(msg);
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
         logger.info("Transaction ID: {}", msg.id());
-        Map.of(
-                DnsSection.QUESTION, "Queries",
-                DnsSection.ANSWER, "Answers",
-                DnsSection.AUTHORITY, "Authoritative nameservers",
-                DnsSection.ADDITIONAL, "Additional"
-        ).forEach((section, text) -> {
+        for (int i = 0; i < SECTIONS.length; i++) {
+            DnsSection section = SECTIONS[i];
             int count = msg.count(section);
             if (count > 0) {
-                logger.info("{}({})", text, count);
+                logger.info("{}({})", SECTION_NAMES[i], count);
             }
-            for (int i = 0; i < count; i++) {
-                DNSRecordParser.logRecord(logger, msg.recordAt(section, i));
+            for (int j = 0; j < count; j++) {
+                DNSRecordParser.logRecord(logger, msg.recordAt(section, j));
             }
-        });
+        }
     }
 
     public static void logRecord(@NotNull Logger logger, DnsRecord record) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
         DnsRecordType type = record.type();
         if (record instanceof DnsQuestion) {
             logger.info("(TYPE={}) {}", type.name(), record.name());
+        } else if (record instanceof DnsPtrRecord ptr) {
+            logger.info("(TYPE={}) (TTL={}) {}", type.name(), record.timeToLive(), ptr.name());
+            logger.info("  Domain Name: {}", ptr.hostname());
         } else if (record instanceof DnsRawRecord rr) {
-            ByteBuf copy = null;
-            try {
-                copy = rr.content().copy();
-                logger.info("(TYPE={}) (TTL={}) {}", type.name(), record.timeToLive(), rr.name());
-                if (type == DnsRecordType.A) {
-                    logger.info("  Address: {}", DNSRecordParser.parseA(copy));
-                } else if (type == DnsRecordType.NS) {
-                    logger.info("  Name Server: {}", DNSRecordParser.parseName(copy));
-                } else if (type == DnsRecordType.CNAME) {
-                    logger.info("  CNAME: {}", DNSRecordParser.parseName(copy));
-                } else if (type == DnsRecordType.PTR) {
-                    logger.info("  Domain Name: {}", DNSRecordParser.parseName(copy));
-                } else if (type == DnsRecordType.MX) {
-                    MXRecord mxRecord = DNSRecordParser.parseMX(copy);
-                    logger.info("  Preference: {}", mxRecord.preference());
-                    logger.info("  Mail Exchange: {}", mxRecord.mailExchange());
-                } else if (type == DnsRecordType.TXT) {
-                    MXRecord mxRecord = DNSRecordParser.parseMX(copy);
-                    logger.info("  TXT: {}", mxRecord.preference());
-                } else if (type == DnsRecordType.SRV) {
-                    SRVRecord srvRecord = DNSRecordParser.parseSRV(copy);
-                    logger.info("  Priority: {}", srvRecord.priority());
-                    logger.info("  Weight: {}", srvRecord.weight());
-                    logger.info("  Port: {}", srvRecord.port());
-                    logger.info("  Target: {}", srvRecord.target());
-                } else if (type == DnsRecordType.AAAA) {
-                    logger.info("  AAAA Address: {}", DNSRecordParser.parseAAAA(copy));
-                }
-            } finally {
-                if (copy != null) {
-                    copy.release();
-                }
+            // duplicate 与原内容共享数据，只有独立的读写位置
+            ByteBuf content = rr.content().duplicate();
+            logger.info("(TYPE={}) (TTL={}) {}", type.name(), record.timeToLive(), rr.name());
+            if (type == DnsRecordType.A) {
+                logger.info("  Address: {}", DNSRecordParser.parseA(content));
+            } else if (type == DnsRecordType.NS) {
+                logger.info("  Name Server: {}", DNSRecordParser.parseName(content));
+            } else if (type == DnsRecordType.CNAME) {
+                logger.info("  CNAME: {}", DNSRecordParser.parseName(content));
+            } else if (type == DnsRecordType.PTR) {
+                logger.info("  Domain Name: {}", DNSRecordParser.parseName(content));
+            } else if (type == DnsRecordType.MX) {
+                MXRecord mxRecord = DNSRecordParser.parseMX(content);
+                logger.info("  Preference: {}", mxRecord.preference());
+                logger.info("  Mail Exchange: {}", mxRecord.mailExchange());
+            } else if (type == DnsRecordType.TXT) {
+                logger.info("  TXT: {}", DNSRecordParser.parseTXT(content));
+            } else if (type == DnsRecordType.SRV) {
+                SRVRecord srvRecord = DNSRecordParser.parseSRV(content);
+                logger.info("  Priority: {}", srvRecord.priority());
+                logger.info("  Weight: {}", srvRecord.weight());
+                logger.info("  Port: {}", srvRecord.port());
+                logger.info("  Target: {}", srvRecord.target());
+            } else if (type == DnsRecordType.AAAA) {
+                logger.info("  AAAA Address: {}", DNSRecordParser.parseAAAA(content));
             }
         }
     }
@@ -0,0 +1,181 @@
+package online.flowerinsnow.dns_j.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>报文中一条记录的视图（享元）</p>
+ * <p>只保存各字段在报文中的位置，字段在需要时才从缓冲区中读取，字符串只在调用 {@link #name()}、
+ * {@link #data()} 等方法时生成；同一个视图可以通过 {@link #reset(ByteBuf, int, DnsSection, int)} 反复使用</p>
+ */
+public final class DNSRecordView {
+    private static final FastThreadLocal<byte[]> IPV6 = new FastThreadLocal<>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[16];
+        }
+    };
+
+    private ByteBuf message;
+    private int base;
+    private DnsSection section;
+    private int nameOffset;
+    private int type;
+    private int dnsClass;
+    private int ttlOffset;
+    private int rdataOffset;
+    private int rdLength;
+    private int end;
+
+    /**
+     * <p>定位到一条记录</p>
+     *
+     * @param message 完整报文
+     * @param base 报文起始位置，压缩指针相对于此位置
+     * @param section 记录所在分区
+     * @param offset 记录起始位置
+     * @return 记录之后的位置
+     */
+    public int reset(@NotNull ByteBuf message, int base, @NotNull DnsSection section, int offset) {
+        this.message = message;
+        this.base = base;
+        this.section = section;
+        this.nameOffset = offset;
+        int p = DNSRecordParser.skipName(message, offset);
+        this.type = message.getUnsignedShort(p);
+        this.dnsClass = message.getUnsignedShort(p + 2);
+        if (section == DnsSection.QUESTION) {
+            this.ttlOffset = -1;
+            this.rdataOffset = p + 4;
+            this.rdLength = 0;
+        } else {
+            this.ttlOffset = p + 4;
+            this.rdLength = message.getUnsignedShort(p + 8);
+            this.rdataOffset = p + 10;
+        }
+        this.end = this.rdataOffset + this.rdLength;
+        if (this.end > message.writerIndex()) {
+            throw new IndexOutOfBoundsException("record exceeds message: " + this.end + " > " + message.writerIndex());
+        }
+        return this.end;
+    }
+
+    public @NotNull DnsSection section() {
+        return this.section;
+    }
+
+    public int type() {
+        return this.type;
+    }
+
+    public @NotNull DnsRecordType recordType() {
+        return DnsRecordType.valueOf(this.type);
+    }
+
+    public int dnsClass() {
+        return this.dnsClass;
+    }
+
+    /**
+     * @return TTL，问题记录返回 -1
+     */
+    public long ttl() {
+        return this.ttlOffset < 0 ? -1L : this.message.getUnsignedInt(this.ttlOffset);
+    }
+
+    /**
+     * @return TTL 字段在报文中的位置，问题记录返回 -1
+     */
+    public int ttlOffset() {
+        return this.ttlOffset;
+    }
+
+    public int nameOffset() {
+        return this.nameOffset;
+    }
+
+    public int rdataOffset() {
+        return this.rdataOffset;
+    }
+
+    public int rdLength() {
+        return this.rdLength;
+    }
+
+    /**
+     * @return 记录名，以 {@code .} 结尾
+     */
+    public @NotNull String name() {
+        StringBuilder sb = new StringBuilder(64);
+        this.appendName(sb);
+        return sb.toString();
+    }
+
+    public void appendName(@NotNull StringBuilder sb) {
+        DNSRecordParser.appendName(this.message, this.base, this.nameOffset, sb);
+    }
+
+    /**
+     * @return 记录内容的文本形式
+     */
+    public @NotNull String data() {
+        StringBuilder sb = new StringBuilder(64);
+        this.appendData(sb);
+        return sb.toString();
+    }
+
+    /**
+     * <p>输出记录内容的文本形式，不认识的类型输出十六进制</p>
+     */
+    public void appendData(@NotNull StringBuilder sb) {
+        final ByteBuf m = this.message;
+        final int p = this.rdataOffset;
+        if (this.type == DnsRecordType.A.intValue() && this.rdLength == 4) {
+            sb.append(m.getUnsignedByte(p)).append('.')
+                    .append(m.getUnsignedByte(p + 1)).append('.')
+                    .append(m.getUnsignedByte(p + 2)).append('.')
+                    .append(m.getUnsignedByte(p + 3));
+        } else if (this.type == DnsRecordType.AAAA.intValue() && this.rdLength == 16) {
+            byte[] bytes = IPV6.get();
+            m.getBytes(p, bytes);
+            sb.append(NetUtil.bytesToIpAddress(bytes));
+        } else if (this.type == DnsRecordType.NS.intValue() || this.type == DnsRecordType.CNAME.intValue()
+                || this.type == DnsRecordType.PTR.intValue()) {
+            DNSRecordParser.appendName(m, this.base, p, sb);
+        } else if (this.type == DnsRecordType.MX.intValue()) {
+            sb.append(m.getUnsignedShort(p)).append(' ');
+            DNSRecordParser.appendName(m, this.base, p + 2, sb);
+        } else if (this.type == DnsRecordType.SRV.intValue()) {
+            sb.append(m.getUnsignedShort(p)).append(' ')
+                    .append(m.getUnsignedShort(p + 2)).append(' ')
+                    .append(m.getUnsignedShort(p + 4)).append(' ');
+            DNSRecordParser.appendName(m, this.base, p + 6, sb);
+        } else if (this.type == DnsRecordType.SOA.intValue()) {
+            int q = p;
+            DNSRecordParser.appendName(m, this.base, q, sb);
+            sb.append(' ');
+            q = DNSRecordParser.skipName(m, q);
+            DNSRecordParser.appendName(m, this.base, q, sb);
+            q = DNSRecordParser.skipName(m, q);
+            for (int i = 0; i < 5; i++) {
+                sb.append(' ').append(m.getUnsignedInt(q + i * 4));
+            }
+        } else if (this.type == DnsRecordType.TXT.intValue()) {
+            int q = p;
+            while (q < this.end) {
+                int length = m.getUnsignedByte(q);
+                sb.append(m.getCharSequence(q + 1, Math.min(length, this.end - q - 1), StandardCharsets.UTF_8));
+                q += 1 + length;
+            }
+        } else {
+            sb.append(ByteBufUtil.hexDump(m, p, this.rdLength));
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package online.flowerinsnow.dns_j.util;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>逐条访问报文中的记录</p>
+ *
+ * @see DNSRecordParser#visit(io.netty.buffer.ByteBuf, DNSRecordVisitor)
+ */
+@FunctionalInterface
+public interface DNSRecordVisitor {
+    /**
+     * <p>访问一条记录</p>
+     * <p>{@code record} 是可复用的视图，只在本次调用期间有效，不能保存</p>
+     *
+     * @param record 记录视图
+     * @return 是否继续访问后续记录
+     */
+    boolean visit(@NotNull DNSRecordView record);
+}
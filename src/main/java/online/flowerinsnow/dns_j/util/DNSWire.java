@@ -0,0 +1,408 @@
+package online.flowerinsnow.dns_j.util;
+
+import io.netty.handler.codec.CorruptedFrameException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * <p>直接读写 DNS 报文（wire format）的工具</p>
+ * <p>只解析转发、缓存所需的字段，不会构造 Netty 的记录对象</p>
+ */
+public abstract class DNSWire {
+    public static final int HEADER_LENGTH = 12;
+
+    public static final int SECTION_QUESTION = 0;
+    public static final int SECTION_ANSWER = 1;
+    public static final int SECTION_AUTHORITY = 2;
+    public static final int SECTION_ADDITIONAL = 3;
+
+    public static final int TYPE_A = 1;
+    public static final int TYPE_SOA = 6;
+    public static final int TYPE_PTR = 12;
+    public static final int TYPE_AAAA = 28;
+    public static final int TYPE_OPT = 41;
+
+    public static final int CLASS_IN = 1;
+
+    public static final int RCODE_NOERROR = 0;
+    public static final int RCODE_SERVFAIL = 2;
+    public static final int RCODE_NXDOMAIN = 3;
+    public static final int RCODE_REFUSED = 5;
+
+    /**
+     * 跟随压缩指针的最大次数，防止恶意报文造成死循环
+     */
+    private static final int MAX_POINTERS = 64;
+
+    private DNSWire() {
+    }
+
+    public static int id(@NotNull byte[] message) {
+        return DNSWire.getUnsignedShort(message, 0);
+    }
+
+    public static void setId(@NotNull byte[] message, int id) {
+        DNSWire.setShort(message, 0, id);
+    }
+
+    public static int flags(@NotNull byte[] message) {
+        return DNSWire.getUnsignedShort(message, 2);
+    }
+
+    public static boolean isResponse(@NotNull byte[] message) {
+        return (message[2] & 0x80) != 0;
+    }
+
+    public static boolean isTruncated(@NotNull byte[] message) {
+        return (message[2] & 0x02) != 0;
+    }
+
+    public static boolean isCheckingDisabled(@NotNull byte[] message) {
+        return (message[3] & 0x10) != 0;
+    }
+
+    public static int responseCode(@NotNull byte[] message) {
+        return message[3] & 0x0f;
+    }
+
+    /**
+     * @param message 报文
+     * @param section 分区，取值为 {@code SECTION_*}
+     * @return 分区中的记录数
+     */
+    public static int count(@NotNull byte[] message, int section) {
+        return DNSWire.getUnsignedShort(message, 4 + section * 2);
+    }
+
+    public static int getUnsignedShort(@NotNull byte[] message, int index) {
+        DNSWire.checkBounds(message, index, 2);
+        return (message[index] & 0xff) << 8 | message[index + 1] & 0xff;
+    }
+
+    public static long getUnsignedInt(@NotNull byte[] message, int index) {
+        DNSWire.checkBounds(message, index, 4);
+        return ((long) (message[index] & 0xff) << 24)
+                | (message[index + 1] & 0xff) << 16
+                | (message[index + 2] & 0xff) << 8
+                | message[index + 3] & 0xff;
+    }
+
+    public static void setShort(@NotNull byte[] message, int index, int value) {
+        message[index] = (byte) (value >>> 8);
+        message[index + 1] = (byte) value;
+    }
+
+    public static void setInt(@NotNull byte[] message, int index, long value) {
+        message[index] = (byte) (value >>> 24);
+        message[index + 1] = (byte) (value >>> 16);
+        message[index + 2] = (byte) (value >>> 8);
+        message[index + 3] = (byte) value;
+    }
+
+    /**
+     * <p>跳过一个域名</p>
+     *
+     * @param message 报文
+     * @param offset 域名起始位置
+     * @return 域名之后的位置
+     */
+    public static int skipName(@NotNull byte[] message, int offset) {
+        Objects.requireNonNull(message);
+        while (true) {
+            DNSWire.checkBounds(message, offset, 1);
+            int len = message[offset] & 0xff;
+            if (len == 0) {
+                return offset + 1;
+            }
+            if ((len & 0xc0) == 0xc0) {
+                return offset + 2;
+            }
+            if ((len & 0xc0) != 0) {
+                throw new CorruptedFrameException("unsupported label type: " + len);
+            }
+            offset += 1 + len;
+        }
+    }
+
+    /**
+     * <p>读取一个域名，跟随压缩指针</p>
+     *
+     * @param message 报文
+     * @param offset 域名起始位置
+     * @return 小写的完整域名，以 {@code .} 结尾
+     */
+    public static @NotNull String readName(@NotNull byte[] message, int offset) {
+        Objects.requireNonNull(message);
+        StringBuilder sb = new StringBuilder(64);
+        int pointers = 0;
+        while (true) {
+            DNSWire.checkBounds(message, offset, 1);
+            int len = message[offset] & 0xff;
+            if (len == 0) {
+                break;
+            }
+            if ((len & 0xc0) == 0xc0) {
+                if (++pointers > MAX_POINTERS) {
+                    throw new CorruptedFrameException("too many compression pointers");
+                }
+                offset = DNSWire.getUnsignedShort(message, offset) & 0x3fff;
+                continue;
+            }
+            if ((len & 0xc0) != 0) {
+                throw new CorruptedFrameException("unsupported label type: " + len);
+            }
+            DNSWire.checkBounds(message, offset + 1, len);
+            for (int i = offset + 1; i <= offset + len; i++) {
+                char c = (char) (message[i] & 0xff);
+                sb.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+            }
+            sb.append('.');
+            offset += 1 + len;
+        }
+        return sb.isEmpty() ? "." : sb.toString();
+    }
+
+    /**
+     * <p>检查响应的问题是否与查询相同，域名大小写不敏感</p>
+     *
+     * @param query 查询报文
+     * @param response 响应报文
+     * @return 问题数相同，且第一个问题的域名、类型、类都相同时返回 true；报文损坏时返回 false
+     */
+    public static boolean sameQuestion(@NotNull byte[] query, @NotNull byte[] response) {
+        Objects.requireNonNull(query);
+        Objects.requireNonNull(response);
+        try {
+            int questions = DNSWire.count(query, DNSWire.SECTION_QUESTION);
+            if (questions != DNSWire.count(response, DNSWire.SECTION_QUESTION)) {
+                return false;
+            }
+            if (questions == 0) {
+                return true;
+            }
+            int nameEnd = DNSWire.skipName(query, DNSWire.HEADER_LENGTH);
+            DNSWire.checkBounds(query, nameEnd, 4);
+            if (response.length < nameEnd + 4) {
+                return false;
+            }
+            // 标签长度不超过 63，不会落在字母范围内，可以与标签内容一起按小写比较
+            for (int i = DNSWire.HEADER_LENGTH; i < nameEnd; i++) {
+                if (DNSWire.lower(query[i]) != DNSWire.lower(response[i])) {
+                    return false;
+                }
+            }
+            return Arrays.equals(query, nameEnd, nameEnd + 4, response, nameEnd, nameEnd + 4);
+        } catch (CorruptedFrameException e) {
+            return false;
+        }
+    }
+
+    /**
+     * <p>把查询中第一个问题的域名原样写入响应，保留客户端使用的大小写（如 0x20 随机大小写）</p>
+     *
+     * @param query 查询报文
+     * @param response 响应报文，原地修改；问题与查询不同时不修改
+     */
+    public static void copyQuestionName(@NotNull byte[] query, @NotNull byte[] response) {
+        if (!DNSWire.sameQuestion(query, response) || DNSWire.count(query, DNSWire.SECTION_QUESTION) == 0) {
+            return;
+        }
+        int nameEnd = DNSWire.skipName(query, DNSWire.HEADER_LENGTH);
+        System.arraycopy(query, DNSWire.HEADER_LENGTH, response, DNSWire.HEADER_LENGTH, nameEnd - DNSWire.HEADER_LENGTH);
+    }
+
+    private static int lower(byte b) {
+        int c = b & 0xff;
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * <p>根据查询构造一个只有报头和问题的错误响应</p>
+     *
+     * @param query 查询报文
+     * @param responseCode 响应码
+     * @return 响应报文
+     */
+    public static @NotNull byte[] errorResponse(@NotNull byte[] query, int responseCode) {
+        Objects.requireNonNull(query);
+        byte[] response = DNSWire.headerAndQuestion(query);
+        // 保留 OPCODE 和 RD，设置 QR、RA
+        response[2] = (byte) (query[2] & 0x79 | 0x80);
+        response[3] = (byte) (0x80 | responseCode & 0x0f);
+        return response;
+    }
+
+    /**
+     * <p>截断响应：只保留报头、问题与 OPT 记录，并设置 TC 标志，告知客户端改用 TCP 重新查询</p>
+     *
+     * @param response 响应报文
+     * @return 截断后的响应报文
+     */
+    public static @NotNull byte[] truncate(@NotNull byte[] response) {
+        Objects.requireNonNull(response);
+        byte[] truncated = DNSWire.headerAndQuestion(response);
+        truncated[2] |= 0x02;
+        int start;
+        int end;
+        try {
+            int opt = DNSWire.findOpt(response);
+            // OPT 记录的名称只能是根，占 1 字节
+            if (opt < 1 || response[opt - 1] != 0) {
+                return truncated;
+            }
+            start = opt - 1;
+            end = opt + 10 + DNSWire.getUnsignedShort(response, opt + 8);
+            DNSWire.checkBounds(response, start, end - start);
+        } catch (CorruptedFrameException e) {
+            return truncated;
+        }
+        // 保留 OPT 记录，客户端据此得知服务器支持 EDNS 及扩展 RCODE、DO 标志
+        byte[] withOpt = Arrays.copyOf(truncated, truncated.length + end - start);
+        System.arraycopy(response, start, withOpt, truncated.length, end - start);
+        DNSWire.setShort(withOpt, 10, 1);
+        return withOpt;
+    }
+
+    /**
+     * <p>读取查询中 EDNS（OPT 记录）声明的 UDP 负载大小</p>
+     *
+     * @param query 查询报文
+     * @return 客户端能接收的最大 UDP 响应长度，没有 OPT 记录时为 512
+     */
+    public static int udpPayloadSize(@NotNull byte[] query) {
+        Objects.requireNonNull(query);
+        try {
+            int opt = DNSWire.findOpt(query);
+            if (opt >= 0) {
+                // OPT 记录的 CLASS 字段是请求方的 UDP 负载大小
+                return Math.max(512, DNSWire.getUnsignedShort(query, opt + 2));
+            }
+        } catch (CorruptedFrameException ignored) {
+        }
+        return 512;
+    }
+
+    /**
+     * <p>读取 EDNS（OPT 记录）中的 DO 标志</p>
+     *
+     * @param message 查询或响应报文
+     * @return 有 OPT 记录且设置了 DO 时返回 true
+     * @throws CorruptedFrameException 报文损坏
+     */
+    public static boolean isDnssecOk(@NotNull byte[] message) {
+        Objects.requireNonNull(message);
+        int opt = DNSWire.findOpt(message);
+        // OPT 记录的 TTL 字段依次为扩展 RCODE、版本、DO 与保留位
+        return opt >= 0 && DNSWire.getUnsignedShort(message, opt + 6) >= 0x8000;
+    }
+
+    /**
+     * @return OPT 记录类型字段的位置，没有 OPT 记录时返回 -1
+     * @throws CorruptedFrameException 报文损坏
+     */
+    private static int findOpt(@NotNull byte[] message) {
+        int offset = DNSWire.HEADER_LENGTH;
+        for (int i = DNSWire.count(message, DNSWire.SECTION_QUESTION); i > 0; i--) {
+            offset = DNSWire.skipName(message, offset) + 4;
+        }
+        for (int section = DNSWire.SECTION_ANSWER; section <= DNSWire.SECTION_ADDITIONAL; section++) {
+            for (int i = DNSWire.count(message, section); i > 0; i--) {
+                offset = DNSWire.skipName(message, offset);
+                if (DNSWire.getUnsignedShort(message, offset) == DNSWire.TYPE_OPT) {
+                    return offset;
+                }
+                offset += 10 + DNSWire.getUnsignedShort(message, offset + 8);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * <p>计算响应中应答与授权分区记录的最小 TTL，不包括 OPT 记录</p>
+     *
+     * @param response 响应报文
+     * @return 最小 TTL（秒），没有记录或报文损坏时为 -1
+     */
+    public static long minTtl(@NotNull byte[] response) {
+        Objects.requireNonNull(response);
+        long min = -1L;
+        try {
+            int offset = DNSWire.HEADER_LENGTH;
+            for (int i = DNSWire.count(response, DNSWire.SECTION_QUESTION); i > 0; i--) {
+                offset = DNSWire.skipName(response, offset) + 4;
+            }
+            for (int section = DNSWire.SECTION_ANSWER; section <= DNSWire.SECTION_AUTHORITY; section++) {
+                for (int i = DNSWire.count(response, section); i > 0; i--) {
+                    offset = DNSWire.skipName(response, offset);
+                    if (DNSWire.getUnsignedShort(response, offset) != DNSWire.TYPE_OPT) {
+                        long ttl = DNSWire.getUnsignedInt(response, offset + 4);
+                        min = min < 0 ? ttl : Math.min(min, ttl);
+                    }
+                    offset += 10 + DNSWire.getUnsignedShort(response, offset + 8);
+                }
+            }
+        } catch (CorruptedFrameException ignored) {
+            return -1L;
+        }
+        return min;
+    }
+
+    /**
+     * <p>把响应中所有记录的 TTL 减去已经过的时间，不包括 OPT 记录，最小为 0</p>
+     *
+     * @param response 响应报文，原地修改
+     * @param elapsed 已经过的时间（秒）
+     * @throws CorruptedFrameException 报文损坏
+     */
+    public static void decreaseTtl(@NotNull byte[] response, long elapsed) {
+        Objects.requireNonNull(response);
+        if (elapsed <= 0) {
+            return;
+        }
+        int offset = DNSWire.HEADER_LENGTH;
+        for (int i = DNSWire.count(response, DNSWire.SECTION_QUESTION); i > 0; i--) {
+            offset = DNSWire.skipName(response, offset) + 4;
+        }
+        for (int section = DNSWire.SECTION_ANSWER; section <= DNSWire.SECTION_ADDITIONAL; section++) {
+            for (int i = DNSWire.count(response, section); i > 0; i--) {
+                offset = DNSWire.skipName(response, offset);
+                if (DNSWire.getUnsignedShort(response, offset) != DNSWire.TYPE_OPT) {
+                    DNSWire.setInt(response, offset + 4, Math.max(0L, DNSWire.getUnsignedInt(response, offset + 4) - elapsed));
+                }
+                offset += 10 + DNSWire.getUnsignedShort(response, offset + 8);
+            }
+        }
+    }
+
+    /**
+     * @return 报头与第一个问题的副本，其余分区的计数清零
+     */
+    private static @NotNull byte[] headerAndQuestion(@NotNull byte[] message) {
+        int questions = 0;
+        int end = DNSWire.HEADER_LENGTH;
+        if (DNSWire.count(message, DNSWire.SECTION_QUESTION) > 0) {
+            try {
+                int questionEnd = DNSWire.skipName(message, DNSWire.HEADER_LENGTH) + 4;
+                if (questionEnd <= message.length) {
+                    questions = 1;
+                    end = questionEnd;
+                }
+            } catch (CorruptedFrameException ignored) {
+            }
+        }
+        byte[] copy = Arrays.copyOf(message, end);
+        DNSWire.setShort(copy, 4, questions);
+        DNSWire.setShort(copy, 6, 0);
+        DNSWire.setShort(copy, 8, 0);
+        DNSWire.setShort(copy, 10, 0);
+        return copy;
+    }
+
+    private static void checkBounds(@NotNull byte[] message, int index, int length) {
+        if (index < 0 || index + length > message.length) {
+            throw new CorruptedFrameException("truncated message");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package online.flowerinsnow.dns_j.util;
+
+import io.netty.handler.codec.CorruptedFrameException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>按标签倒序（从顶级域开始）计算域名路径的 64 位哈希</p>
+ * <p>哈希逐个标签累加，从右向左每经过一个标签就得到对应后缀的哈希，
+ * 因此可以把一棵倒序标签字典树存放在以路径哈希为键的散列表中，查询时不需要为每个后缀生成字符串</p>
+ * <p>大小写不敏感；哈希值不会为 0，0 可以用作空槽位</p>
+ */
+public abstract class DomainHash {
+    /**
+     * 根（空路径）的初始值
+     */
+    public static final long SEED = 0xcbf29ce484222325L;
+    /**
+     * 域名最多的标签数
+     */
+    public static final int MAX_LABELS = 128;
+
+    private static final long PRIME = 0x100000001b3L;
+
+    private DomainHash() {
+    }
+
+    /**
+     * @param hash 当前值
+     * @param b 标签中的一个字节
+     * @return 累加后的值
+     */
+    public static long update(long hash, byte b) {
+        int c = b & 0xff;
+        if (c >= 'A' && c <= 'Z') {
+            c += 'a' - 'A';
+        }
+        return (hash ^ c) * PRIME;
+    }
+
+    /**
+     * <p>结束一个标签</p>
+     *
+     * @param hash 当前值
+     * @return 累加后的值
+     */
+    public static long separator(long hash) {
+        // 标签分隔符取字节范围之外的值，不会与标签内容混淆
+        return (hash ^ 0x100) * PRIME;
+    }
+
+    /**
+     * <p>把累加值混合为最终的哈希</p>
+     *
+     * @param hash 在标签边界上的累加值
+     * @return 哈希，不为 0
+     */
+    public static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        // 0 表示空槽位
+        return hash == 0L ? 1L : hash;
+    }
+
+    /**
+     * <p>累加一个标签</p>
+     *
+     * @param hash 当前值
+     * @param message 报文
+     * @param label 标签的长度字节所在位置
+     * @return 包括分隔符在内累加后的值
+     */
+    public static long label(long hash, @NotNull byte[] message, int label) {
+        int end = label + 1 + (message[label] & 0xff);
+        for (int i = label + 1; i < end; i++) {
+            hash = DomainHash.update(hash, message[i]);
+        }
+        return DomainHash.separator(hash);
+    }
+
+    /**
+     * <p>找出报文中域名每个标签的位置</p>
+     *
+     * @param message 报文
+     * @param offset 域名起始位置，域名不能使用压缩指针
+     * @param labels 接收每个标签的长度字节位置，从左到右，长度至少为 {@link #MAX_LABELS}
+     * @return 标签数
+     * @throws CorruptedFrameException 报文损坏或域名使用了压缩指针
+     */
+    public static int labels(@NotNull byte[] message, int offset, @NotNull int[] labels) {
+        int count = 0;
+        while (true) {
+            if (offset >= message.length) {
+                throw new CorruptedFrameException("truncated message");
+            }
+            int len = message[offset] & 0xff;
+            if (len == 0) {
+                return count;
+            }
+            if ((len & 0xc0) != 0 || count == MAX_LABELS || offset + 1 + len > message.length) {
+                throw new CorruptedFrameException("unsupported name");
+            }
+            labels[count++] = offset;
+            offset += 1 + len;
+        }
+    }
+
+    /**
+     * <p>计算文本形式域名的路径哈希</p>
+     *
+     * @param name 域名，不能以 {@code .} 结尾
+     * @return 哈希，域名不合法时返回 0
+     */
+    public static long of(@NotNull String name) {
+        if (name.isEmpty() || name.length() > 253) {
+            return 0L;
+        }
+        long hash = SEED;
+        int end = name.length();
+        while (end > 0) {
+            int start = name.lastIndexOf('.', end - 1) + 1;
+            if (start == end || end - start > 63) {
+                return 0L;
+            }
+            for (int i = start; i < end; i++) {
+                char c = name.charAt(i);
+                if (c > 0xff) {
+                    return 0L;
+                }
+                hash = DomainHash.update(hash, (byte) c);
+            }
+            hash = DomainHash.separator(hash);
+            end = start - 1;
+        }
+        return DomainHash.finish(hash);
+    }
+}
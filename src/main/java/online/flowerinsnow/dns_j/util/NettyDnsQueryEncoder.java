@@ -1,37 +1,88 @@
+/*
+ * Copyright 2019 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
 package online.flowerinsnow.dns_j.util;
 
-import groovyjarjarantlr4.v4.runtime.misc.NotNull;
 import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.dns.DnsQuery;
 import io.netty.handler.codec.dns.DnsRecordEncoder;
-import online.flowerinsnow.dns_j.exception.UnexpectedException;
+import io.netty.handler.codec.dns.DnsSection;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import static io.netty.util.internal.ObjectUtil.checkNotNull;
 
+/**
+ * <p>Netty 中 {@code DnsQueryEncoder} 的移植，该类在 Netty 中不是公开的</p>
+ * <p>编码器本身没有状态，可以在多个线程间共享</p>
+ */
 public class NettyDnsQueryEncoder {
-    @NotNull private final Object instance;
+    public static final NettyDnsQueryEncoder DEFAULT = new NettyDnsQueryEncoder();
+
+    private final DnsRecordEncoder recordEncoder;
+
     public NettyDnsQueryEncoder() {
-        try {
-            Constructor<?> constructor = Class.forName("io.netty.handler.codec.dns.DnsQueryEncoder").getDeclaredConstructor(DnsRecordEncoder.class);
-            constructor.setAccessible(true);
-            this.instance = constructor.newInstance(DnsRecordEncoder.DEFAULT);
-        } catch (NoSuchMethodException | ClassNotFoundException | InvocationTargetException | InstantiationException |
-                 IllegalAccessException e) {
-            throw new UnexpectedException(e);
-        }
+        this(DnsRecordEncoder.DEFAULT);
     }
 
+    /**
+     * Creates a new encoder with the specified {@code recordEncoder}.
+     */
+    public NettyDnsQueryEncoder(DnsRecordEncoder recordEncoder) {
+        this.recordEncoder = checkNotNull(recordEncoder, "recordEncoder");
+    }
+
+    /**
+     * Encodes the given {@link DnsQuery} into a {@link ByteBuf}.
+     */
     public void encode(DnsQuery query, ByteBuf out) throws Exception {
-        try {
-            Method method = this.instance.getClass().getDeclaredMethod("encode", DnsQuery.class, ByteBuf.class);
-            method.setAccessible(true);
-            method.invoke(this.instance, query, out);
-        } catch (InvocationTargetException e) {
-            throw (Exception) e.getCause();
-        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
-            throw new UnexpectedException(e);
+        encodeHeader(query, out);
+        encodeQuestions(query, out);
+        encodeRecords(query, DnsSection.ADDITIONAL, out);
+    }
+
+    /**
+     * Encodes the header that is always 12 bytes long.
+     *
+     * @param query the query header being encoded
+     * @param buf   the buffer the encoded data should be written to
+     */
+    private static void encodeHeader(DnsQuery query, ByteBuf buf) {
+        buf.writeShort(query.id());
+        int flags = 0;
+        flags |= (query.opCode().byteValue() & 0xF) << 11;
+        if (query.isRecursionDesired()) {
+            flags |= 1 << 8;
+        }
+        flags |= (query.z() & 0x7) << 4;
+        buf.writeShort(flags);
+        buf.writeShort(query.count(DnsSection.QUESTION));
+        buf.writeShort(0); // answerCount
+        buf.writeShort(0); // authorityResourceCount
+        buf.writeShort(query.count(DnsSection.ADDITIONAL));
+    }
+
+    private void encodeQuestions(DnsQuery query, ByteBuf buf) throws Exception {
+        final int count = query.count(DnsSection.QUESTION);
+        for (int i = 0; i < count; i++) {
+            recordEncoder.encodeQuestion(query.recordAt(DnsSection.QUESTION, i), buf);
+        }
+    }
+
+    private void encodeRecords(DnsQuery query, DnsSection section, ByteBuf buf) throws Exception {
+        final int count = query.count(section);
+        for (int i = 0; i < count; i++) {
+            recordEncoder.encodeRecord(query.recordAt(section, i), buf);
         }
     }
 }
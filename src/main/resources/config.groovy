@@ -2,3 +2,141 @@ config.domainNameServer = 'https://cloudflare-dns.com/dns-query'
 config.bind = new InetSocketAddress('::', 53)
 
 // config.proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", 8080))
+
+// 上游连接池：最大空闲连接数、空闲保活时间（毫秒）、单个上游的最大并发请求数
+// config.maxIdleConnections = 5
+// config.keepAlive = 300000
+// config.maxConcurrentStreams = 64
+
+// DoH 上游以 GET 请求（RFC 8484）：事务 ID 置 0，相同的问题得到相同的 URL，可以被 HTTP 代理等中间缓存共享
+// 设置目录时同时在本地按上游的 Cache-Control 缓存应答（最大字节数），返回前恢复事务 ID 并扣除缓存时间
+// config.dohGet = true
+// config.dohCache = 'cache/doh'
+// config.dohCacheSize = 10485760
+
+// 单次查询的最长等待时间（毫秒），超时后返回 SERVFAIL
+// config.queryTimeout = 5000
+
+// 响应缓存：最大条目数（0 为不缓存）、肯定应答与否定应答的最长缓存时间（秒）
+// config.cacheSize = 10000
+// config.cacheMaxTtl = 86400
+// config.cacheMaxNegativeTtl = 3600
+
+// 预取：剩余 TTL 低于原 TTL 的百分比后，命中次数达到阈值（0 为不预取）时在后台刷新
+// config.prefetchThreshold = 3
+// config.prefetchPercent = 10
+
+// serve-stale（RFC 8767）：过期条目最长保留时间（秒）、过期应答的 TTL（秒）、等待上游刷新的最长时间（毫秒）、
+// 刷新失败后直接返回过期应答而不再询问上游的时间（秒）
+// config.serveStale = true
+// config.staleMaxTtl = 86400
+// config.staleAnswerTtl = 30
+// config.staleTimeout = 1800
+// config.staleRecheckInterval = 30
+
+// 缓存快照：定期把新缓存的应答追加到文件，启动时在开始监听前恢复仍然有效的条目；间隔（毫秒）为 0 时只在退出时保存
+// config.cacheSnapshot = 'cache.snapshot'
+// config.cacheSnapshotInterval = 60000
+
+// 多个上游：设置后取代 domainNameServer
+// config.domainNameServers = ['https://cloudflare-dns.com/dns-query', 'https://dns.google/dns-query']
+// 选择策略：FASTEST（延迟最低）、ROUND_ROBIN（轮询）、WEIGHTED（按权重随机，未设置权重的为 1）
+// config.upstreamStrategy = 'FASTEST'
+// config.upstreamWeights = ['https://cloudflare-dns.com/dns-query': 3]
+// 熔断：连续失败次数（0 为不熔断）、熔断持续时间（毫秒）
+// config.circuitBreakerThreshold = 5
+// config.circuitBreakerCooldown = 30000
+// 对冲：首个请求超过上游延迟的指定百分位（不低于下限，毫秒）仍未返回时向另一个上游发送
+// config.hedging = true
+// config.hedgePercentile = 95
+// config.hedgeMinDelay = 20
+
+// 条件转发：按域名后缀（包括子域名，最长的后缀优先）把查询交给指定的上游，未匹配的交给默认上游
+// 上游可以是 https://、tls://，或普通 DNS 的 udp://主机[:端口]、tcp://主机[:端口]（默认端口 53），多个上游以 , 分隔
+// CIDR 匹配该网段的反向解析（PTR）查询
+// config.forwardRules = ['corp.example': 'udp://10.0.0.53', 'home.arpa': 'udp://192.168.1.1', '10.0.0.0/8': 'udp://10.0.0.53']
+// 规则使用的代理，未设置的遵循 proxy，Proxy.NO_PROXY 为直接连接
+// config.forwardProxies = ['corp.example': Proxy.NO_PROXY]
+
+// 直接转发模式：查询与响应保持报文原样，只解析报头和问题，日志每个查询只记录一行
+// config.passthrough = true
+
+// 在虚拟线程上获取 UDP 查询的响应，应答回到事件循环写出；同时进行的查询数上限，
+// 达到上限时最多排队的查询数与排队时间（毫秒），超出时应答 SERVFAIL
+// config.virtualThreads = true
+// config.upstreamConcurrency = 1024
+// config.upstreamQueueSize = 1024
+// config.upstreamQueueTimeout = 1000
+
+// Linux 原生 epoll 传输：以 SO_REUSEPORT 打开多个套接字（0 为处理器数），用 recvmmsg/sendmmsg 批量收发
+// config.epoll = true
+// config.listeners = 0
+// config.maxDatagramSize = 4096
+// config.receiveBatch = 16
+
+// 审计日志：每次查询一条 JSON 记录，由后台线程批量写出
+// 未设置文件时通过名为 Audit 的 logger 输出
+// config.auditFile = 'logs/audit.jsonl'
+// config.auditQueueSize = 65536
+// config.auditSampleRate = 1.0
+// config.auditBatchSize = 256
+// config.auditMaxFileSize = 104857600
+// config.auditMaxFiles = 10
+// 队列已满时：DROP（丢弃并计数）、BLOCK（最多等待 5 毫秒后丢弃；在 I/O 线程上不等待，直接丢弃）
+// config.auditOverflowPolicy = 'DROP'
+
+// DNS over TCP：与 UDP 使用同一绑定地址，UDP 响应超过客户端 EDNS 缓冲区（未声明时为 512 字节）时截断并设置 TC 位
+// config.tcp = true
+// config.tcpIdleTimeout = 10000
+// config.tcpMaxConnections = 1024
+// config.tcpMaxPipelined = 64
+
+// DNS over TLS（RFC 7858）与 DNS over HTTPS（RFC 8484，HTTP/2，POST 与 GET）监听，与 UDP、TCP 共用事件循环
+// config.dotBind = new InetSocketAddress('::', 853)
+// config.dohBind = new InetSocketAddress('::', 443)
+// config.dohPath = '/dns-query'
+// config.tlsCertificate = 'cert/fullchain.pem'
+// config.tlsPrivateKey = 'cert/privkey.pem'
+// 连接空闲超时（毫秒），TLS 会话缓存大小与有效期（秒），用于会话恢复
+// config.tlsIdleTimeout = 120000
+// config.tlsSessionCacheSize = 10240
+// config.tlsSessionTimeout = 86400
+
+// DoT 上游（RFC 7858）：以 tls://主机名[:端口] 指定，可与 DoH 上游混用，同样遵循 proxy 设置
+// config.domainNameServers = ['tls://one.one.one.one', 'https://dns.google/dns-query']
+// 每个 DoT 上游保持的连接数，每个连接进行中的查询数上限同 maxConcurrentStreams
+// config.dotConnections = 2
+
+// Prometheus 指标：http://地址/metrics，包括查询数、响应码、查询类型、端到端与上游延迟直方图、进行中查询、上游错误与超时、缓存命中
+// config.metricsBind = new InetSocketAddress('127.0.0.1', 9153)
+
+// 查询流分析：在 UDP 入口以固定大小的草图统计滑动窗口内查询最多的域名与客户端、各查询类型与响应码的次数，
+// 内存占用不随流量增长，结果为近似值；以 JSON 在 http://metricsBind/analytics 提供
+// 导出的域名与客户端数（0 为不启用）、窗口长度（毫秒）与时间片数、草图每行的计数器数
+// config.analyticsTopK = 20
+// config.analyticsWindow = 60000
+// config.analyticsSlices = 6
+// config.analyticsSketchWidth = 4096
+
+// UDP 入口准入控制，未被接纳的查询不经过缓存与上游
+// 按客户端限速：每秒查询数与突发数，IPv4 与 IPv6 地址按前缀归为同一客户端，为 0 时不限速
+// config.rateLimit = 50
+// config.rateLimitBurst = 100
+// config.rateLimitIPv4Prefix = 32
+// config.rateLimitIPv6Prefix = 56
+// 进行中查询数上限与应答延迟预算（毫秒），为 0 时不启用
+// config.maxInFlight = 10000
+// config.latencyBudget = 500
+// 未被接纳时的处理方式：DROP 不应答，REFUSED 或 SERVFAIL 应答对应响应码
+// config.shedPolicy = 'DROP'
+
+// 本地解析：命中时直接应答，不经过缓存与上游；静态记录优先于屏蔽列表
+// config.localRecords = ['nas.home': ['192.168.1.2', 'fd00::2']]
+// config.hostsFiles = ['/etc/hosts']
+// 屏蔽列表：每行一个域名（同时屏蔽子域名），*.域名 只屏蔽子域名，也支持 hosts 格式与 Adblock 的 ||域名^ 格式
+// config.blocklists = ['blocklists/ads.txt', 'blocklists/malware.txt']
+// 被屏蔽域名的应答：NXDOMAIN，或 NULL_ADDRESS（A 应答 0.0.0.0，AAAA 应答 ::）
+// config.blockResponse = 'NXDOMAIN'
+// 本地应答的 TTL（秒）与检查文件修改的间隔（毫秒），文件修改后在后台重新加载并整体替换
+// config.localTtl = 300
+// config.localReloadInterval = 60000
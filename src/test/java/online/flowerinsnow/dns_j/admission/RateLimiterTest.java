@@ -0,0 +1,79 @@
+package online.flowerinsnow.dns_j.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    @Test
+    void burstThenDeny() throws UnknownHostException {
+        RateLimiter limiter = new RateLimiter(1.0D, 3, 32, 64, 1024);
+        InetAddress client = InetAddress.getByName("192.0.2.1");
+        assertTrue(limiter.tryAcquire(client));
+        assertTrue(limiter.tryAcquire(client));
+        assertTrue(limiter.tryAcquire(client));
+        assertFalse(limiter.tryAcquire(client));
+    }
+
+    @Test
+    void refill() throws UnknownHostException, InterruptedException {
+        // 每 100 毫秒补充一个令牌
+        RateLimiter limiter = new RateLimiter(10.0D, 1, 32, 64, 1024);
+        InetAddress client = InetAddress.getByName("192.0.2.1");
+        assertTrue(limiter.tryAcquire(client));
+        assertFalse(limiter.tryAcquire(client));
+        Thread.sleep(150L);
+        assertTrue(limiter.tryAcquire(client));
+    }
+
+    @Test
+    void refillCappedAtBurst() throws UnknownHostException, InterruptedException {
+        RateLimiter limiter = new RateLimiter(10.0D, 2, 32, 64, 1024);
+        InetAddress client = InetAddress.getByName("192.0.2.1");
+        assertTrue(limiter.tryAcquire(client));
+        assertTrue(limiter.tryAcquire(client));
+        assertFalse(limiter.tryAcquire(client));
+        // 足够补充 5 个令牌，但桶最多容纳 2 个
+        Thread.sleep(500L);
+        assertTrue(limiter.tryAcquire(client));
+        assertTrue(limiter.tryAcquire(client));
+        assertFalse(limiter.tryAcquire(client));
+    }
+
+    @Test
+    void prefixSharesBucket() throws UnknownHostException {
+        RateLimiter limiter = new RateLimiter(1.0D, 1, 24, 48, 1024);
+        assertTrue(limiter.tryAcquire(InetAddress.getByName("192.0.2.1")));
+        assertFalse(limiter.tryAcquire(InetAddress.getByName("192.0.2.200")));
+        assertTrue(limiter.tryAcquire(InetAddress.getByName("192.0.3.1")));
+
+        assertTrue(limiter.tryAcquire(InetAddress.getByName("2001:db8::1")));
+        assertFalse(limiter.tryAcquire(InetAddress.getByName("2001:db8::ffff:1")));
+        assertTrue(limiter.tryAcquire(InetAddress.getByName("2001:db8:1::1")));
+    }
+
+    @Test
+    void fullTableReusesSlots() throws UnknownHostException {
+        // 表只有 16 个槽位，远少于客户端数；新客户端总能取得一个桶
+        RateLimiter limiter = new RateLimiter(1.0D, 1, 32, 64, 16);
+        for (int i = 0; i < 1000; i++) {
+            InetAddress client = InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+            assertTrue(limiter.tryAcquire(client), client.toString());
+        }
+    }
+
+    @Test
+    void limitedClientStaysLimited() throws UnknownHostException {
+        RateLimiter limiter = new RateLimiter(1.0D, 1, 32, 64, 1024);
+        InetAddress limited = InetAddress.getByName("192.0.2.1");
+        assertTrue(limiter.tryAcquire(limited));
+        for (int i = 0; i < 20; i++) {
+            limiter.tryAcquire(InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) i}));
+        }
+        assertFalse(limiter.tryAcquire(limited));
+    }
+}
@@ -0,0 +1,244 @@
+package online.flowerinsnow.dns_j.cache;
+
+import online.flowerinsnow.dns_j.config.Config;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import online.flowerinsnow.dns_j.util.MessageBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DNSCacheTest {
+    private static final byte[] ADDRESS = {(byte) 192, 0, 2, 1};
+
+    @Test
+    void hitRewritesIdAndQuestionCase() {
+        DNSCache cache = new DNSCache(DNSCacheTest.config());
+        byte[] response = DNSCacheTest.answer(1, "example.com", 300L);
+        cache.put(DNSCacheTest.key(response), response);
+
+        byte[] query = MessageBuilder.query(0xbeef, "ExAmPlE.com", DNSWire.TYPE_A).build();
+        CacheHit hit = cache.get(DNSCacheTest.key(query), query);
+        assertNotNull(hit);
+        assertFalse(hit.stale());
+        byte[] expected = new MessageBuilder(0xbeef, 0x8180)
+                .question("ExAmPlE.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .build();
+        assertArrayEquals(expected, hit.response());
+    }
+
+    @Test
+    void ttlDecreasesWithAge() {
+        DNSCache cache = new DNSCache(DNSCacheTest.config());
+        long now = System.currentTimeMillis();
+        assertTrue(cache.restore(DNSCacheTest.answer(1, "example.com", 300L), now - 100_000L, Long.MAX_VALUE));
+
+        byte[] query = MessageBuilder.query(2, "example.com", DNSWire.TYPE_A).build();
+        CacheHit hit = cache.get(DNSCacheTest.key(query), query);
+        assertNotNull(hit);
+        long ttl = DNSWire.minTtl(hit.response());
+        assertTrue(ttl <= 200L && ttl >= 199L, Long.toString(ttl));
+    }
+
+    @Test
+    void expiredEntryMisses() {
+        DNSCache cache = new DNSCache(DNSCacheTest.config());
+        long now = System.currentTimeMillis();
+        assertFalse(cache.restore(DNSCacheTest.answer(1, "example.com", 300L), now - 301_000L, Long.MAX_VALUE));
+        byte[] query = MessageBuilder.query(2, "example.com", DNSWire.TYPE_A).build();
+        assertNull(cache.get(DNSCacheTest.key(query), query));
+    }
+
+    @Test
+    void maxTtlCapsLifetime() {
+        Config config = DNSCacheTest.config();
+        config.setCacheMaxTtl(60L);
+        DNSCache cache = new DNSCache(config);
+        long now = System.currentTimeMillis();
+        assertFalse(cache.restore(DNSCacheTest.answer(1, "example.com", 300L), now - 61_000L, Long.MAX_VALUE));
+        assertTrue(cache.restore(DNSCacheTest.answer(1, "example.com", 300L), now - 59_000L, Long.MAX_VALUE));
+    }
+
+    @Test
+    void maxTtlCapsServedTtl() {
+        Config config = DNSCacheTest.config();
+        config.setCacheMaxTtl(60L);
+        DNSCache cache = new DNSCache(config);
+        byte[] response = DNSCacheTest.answer(1, "example.com", 86400L);
+        cache.put(DNSCacheTest.key(response), response);
+
+        byte[] query = MessageBuilder.query(2, "example.com", DNSWire.TYPE_A).build();
+        CacheHit hit = cache.get(DNSCacheTest.key(query), query);
+        assertNotNull(hit);
+        long ttl = DNSWire.minTtl(hit.response());
+        assertTrue(ttl <= 60L && ttl >= 59L, Long.toString(ttl));
+
+        // 经过一段时间后同样不超过剩余寿命
+        long now = System.currentTimeMillis();
+        assertTrue(cache.restore(DNSCacheTest.answer(1, "example.com", 86400L), now - 40_000L, Long.MAX_VALUE));
+        hit = cache.get(DNSCacheTest.key(query), query);
+        assertNotNull(hit);
+        ttl = DNSWire.minTtl(hit.response());
+        assertTrue(ttl <= 20L && ttl >= 19L, Long.toString(ttl));
+    }
+
+    @Test
+    void negativeCachingUsesSoaMinimum() {
+        DNSCache cache = new DNSCache(DNSCacheTest.config());
+        long now = System.currentTimeMillis();
+        // 否定应答的 TTL 为 SOA 的 TTL（3600）与 MINIMUM（60）中的较小值
+        assertFalse(cache.restore(DNSCacheTest.nxdomain(1, "missing.example.com", 3600L, 60L), now - 61_000L, Long.MAX_VALUE));
+        assertTrue(cache.restore(DNSCacheTest.nxdomain(1, "missing.example.com", 3600L, 60L), now - 30_000L, Long.MAX_VALUE));
+
+        byte[] query = MessageBuilder.query(2, "missing.example.com", DNSWire.TYPE_A).build();
+        CacheHit hit = cache.get(DNSCacheTest.key(query), query);
+        assertNotNull(hit);
+        assertEquals(DNSWire.RCODE_NXDOMAIN, DNSWire.responseCode(hit.response()));
+        // SOA 记录的 TTL 按 min(TTL, MINIMUM) 返回
+        long ttl = DNSWire.minTtl(hit.response());
+        assertTrue(ttl <= 30L && ttl >= 29L, Long.toString(ttl));
+    }
+
+    @Test
+    void negativeCachingCappedByMaxNegativeTtl() {
+        Config config = DNSCacheTest.config();
+        config.setCacheMaxNegativeTtl(10L);
+        DNSCache cache = new DNSCache(config);
+        long now = System.currentTimeMillis();
+        assertFalse(cache.restore(DNSCacheTest.nxdomain(1, "missing.example.com", 3600L, 60L), now - 11_000L, Long.MAX_VALUE));
+
+        byte[] response = DNSCacheTest.nxdomain(1, "missing.example.com", 3600L, 60L);
+        cache.put(DNSCacheTest.key(response), response);
+        byte[] query = MessageBuilder.query(2, "missing.example.com", DNSWire.TYPE_A).build();
+        CacheHit hit = cache.get(DNSCacheTest.key(query), query);
+        assertNotNull(hit);
+        long ttl = DNSWire.minTtl(hit.response());
+        assertTrue(ttl <= 10L && ttl >= 9L, Long.toString(ttl));
+    }
+
+    @Test
+    void uncacheableResponsesIgnored() {
+        DNSCache cache = new DNSCache(DNSCacheTest.config());
+        // 没有 SOA 的否定应答
+        byte[] noSoa = new MessageBuilder(1, 0x8183).question("a.example.com", DNSWire.TYPE_A).build();
+        // SERVFAIL
+        byte[] servfail = new MessageBuilder(1, 0x8182).question("b.example.com", DNSWire.TYPE_A).build();
+        // 截断的响应
+        byte[] truncated = new MessageBuilder(1, 0x8380)
+                .question("c.example.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "c.example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .build();
+        // TTL 为 0
+        byte[] zeroTtl = DNSCacheTest.answer(1, "d.example.com", 0L);
+        for (byte[] response : new byte[][]{noSoa, servfail, truncated, zeroTtl}) {
+            cache.put(DNSCacheTest.key(response), response);
+            assertNull(cache.get(DNSCacheTest.key(response), response));
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void dnssecOkAndCheckingDisabledKeyedSeparately() {
+        DNSCache cache = new DNSCache(DNSCacheTest.config());
+        byte[] response = new MessageBuilder(1, 0x8180)
+                .question("example.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .opt(1232, true)
+                .build();
+        cache.put(DNSCacheTest.key(response), response);
+
+        byte[] plain = MessageBuilder.query(2, "example.com", DNSWire.TYPE_A).build();
+        assertNull(cache.get(DNSCacheTest.key(plain), plain));
+        byte[] checkingDisabled = new MessageBuilder(2, 0x0110).question("example.com", DNSWire.TYPE_A).opt(1232, true).build();
+        assertNull(cache.get(DNSCacheTest.key(checkingDisabled), checkingDisabled));
+        byte[] dnssecOk = new MessageBuilder(2, 0x0100).question("example.com", DNSWire.TYPE_A).opt(4096, true).build();
+        assertNotNull(cache.get(DNSCacheTest.key(dnssecOk), dnssecOk));
+    }
+
+    @Test
+    void serveStaleWithRecheckBackoff() {
+        Config config = DNSCacheTest.config();
+        config.setServeStale(true);
+        config.setStaleAnswerTtl(30L);
+        DNSCache cache = new DNSCache(config);
+        long now = System.currentTimeMillis();
+        assertTrue(cache.restore(DNSCacheTest.answer(1, "example.com", 300L), now - 400_000L, Long.MAX_VALUE));
+
+        byte[] query = MessageBuilder.query(2, "example.com", DNSWire.TYPE_A).build();
+        CacheKey key = DNSCacheTest.key(query);
+        CacheHit hit = cache.get(key, query);
+        assertNotNull(hit);
+        assertTrue(hit.stale());
+        assertTrue(hit.refresh());
+        assertEquals(30L, DNSWire.minTtl(hit.response()));
+
+        // 刷新失败后在等待期内不再提示刷新
+        cache.refreshFailed(key);
+        hit = cache.get(key, query);
+        assertNotNull(hit);
+        assertTrue(hit.stale());
+        assertFalse(hit.refresh());
+    }
+
+    @Test
+    void prefetchCountsOnlyHitsInWindow() {
+        Config config = DNSCacheTest.config();
+        config.setPrefetchThreshold(2);
+        config.setPrefetchPercent(50);
+        DNSCache cache = new DNSCache(config);
+        long now = System.currentTimeMillis();
+        byte[] query = MessageBuilder.query(2, "example.com", DNSWire.TYPE_A).build();
+        CacheKey key = DNSCacheTest.key(query);
+
+        // 剩余 TTL 仍在前半段，命中不计数
+        cache.put(key, DNSCacheTest.answer(1, "example.com", 300L));
+        for (int i = 0; i < 10; i++) {
+            CacheHit hit = cache.get(key, query);
+            assertNotNull(hit);
+            assertFalse(hit.refresh());
+        }
+
+        // 剩余 TTL 为原来的三分之一，第 2 次命中时提示预取，之后不再重复提示
+        assertTrue(cache.restore(DNSCacheTest.answer(1, "example.com", 300L), now - 200_000L, Long.MAX_VALUE));
+        assertFalse(DNSCacheTest.refresh(cache.get(key, query)));
+        assertTrue(DNSCacheTest.refresh(cache.get(key, query)));
+        assertFalse(DNSCacheTest.refresh(cache.get(key, query)));
+    }
+
+    private static boolean refresh(CacheHit hit) {
+        assertNotNull(hit);
+        return hit.refresh();
+    }
+
+    private static @NotNull Config config() {
+        Config config = new Config();
+        config.setCacheSize(1000);
+        return config;
+    }
+
+    private static @NotNull CacheKey key(@NotNull byte[] message) {
+        CacheKey key = CacheKey.of(message);
+        assertNotNull(key);
+        return key;
+    }
+
+    private static @NotNull byte[] answer(int id, @NotNull String name, long ttl) {
+        return new MessageBuilder(id, 0x8180)
+                .question(name, DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, name, DNSWire.TYPE_A, ttl, ADDRESS)
+                .build();
+    }
+
+    private static @NotNull byte[] nxdomain(int id, @NotNull String name, long soaTtl, long minimum) {
+        return new MessageBuilder(id, 0x8183)
+                .question(name, DNSWire.TYPE_A)
+                .soa("example.com", soaTtl, minimum)
+                .build();
+    }
+}
@@ -0,0 +1,106 @@
+package online.flowerinsnow.dns_j.client;
+
+import online.flowerinsnow.dns_j.metrics.Metrics;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpstreamGroupTest {
+    private static final byte[] QUERY = new byte[12];
+
+    @Test
+    void fastestPrefersFasterLaterUpstream() {
+        FakeClient slow = new FakeClient(20L, false);
+        FakeClient fast = new FakeClient(0L, false);
+        UpstreamGroup group = UpstreamGroupTest.fastest(slow, fast);
+
+        for (int i = 0; i < 10; i++) {
+            group.query(QUERY).join();
+        }
+        // 两个上游都已测得延迟
+        assertTrue(slow.calls.get() >= 1);
+        assertTrue(fast.calls.get() >= 1);
+
+        int before = fast.calls.get();
+        for (int i = 0; i < 20; i++) {
+            group.query(QUERY).join();
+        }
+        // 至多一次探索发往较慢的上游
+        assertTrue(fast.calls.get() - before >= 19, Integer.toString(fast.calls.get() - before));
+    }
+
+    @Test
+    void fastestKeepsMeasuringOtherUpstreams() {
+        FakeClient first = new FakeClient(0L, false);
+        FakeClient second = new FakeClient(0L, false);
+        UpstreamGroup group = UpstreamGroupTest.fastest(first, second);
+
+        for (int i = 0; i < 200; i++) {
+            group.query(QUERY).join();
+        }
+        // 非最快的上游也会定期收到查询
+        assertTrue(first.calls.get() > 1);
+        assertTrue(second.calls.get() > 1);
+        assertEquals(200, first.calls.get() + second.calls.get());
+    }
+
+    @Test
+    void fastestAvoidsFailingUpstream() {
+        FakeClient failing = new FakeClient(0L, true);
+        FakeClient working = new FakeClient(10L, false);
+        UpstreamGroup group = UpstreamGroupTest.fastest(failing, working);
+
+        for (int i = 0; i < 10; i++) {
+            group.query(QUERY).exceptionally(throwable -> null).join();
+        }
+        int before = working.calls.get();
+        for (int i = 0; i < 20; i++) {
+            group.query(QUERY).exceptionally(throwable -> null).join();
+        }
+        assertTrue(working.calls.get() - before >= 19, Integer.toString(working.calls.get() - before));
+    }
+
+    private static @NotNull UpstreamGroup fastest(@NotNull FakeClient... clients) {
+        Metrics metrics = new Metrics();
+        Upstream[] upstreams = new Upstream[clients.length];
+        for (int i = 0; i < clients.length; i++) {
+            upstreams[i] = new Upstream("upstream" + i, clients[i], 1, 0, 0L, 1000L, metrics);
+        }
+        return new UpstreamGroup(List.of(upstreams), UpstreamStrategy.FASTEST, false, 95, 0L);
+    }
+
+    private static class FakeClient implements UpstreamClient {
+        private final long delay;
+        private final boolean failing;
+        @NotNull private final AtomicInteger calls = new AtomicInteger();
+
+        private FakeClient(long delay, boolean failing) {
+            this.delay = delay;
+            this.failing = failing;
+        }
+
+        @Override
+        public @NotNull CompletableFuture<byte[]> query(@NotNull byte[] query) {
+            this.calls.incrementAndGet();
+            if (this.failing) {
+                return CompletableFuture.failedFuture(new IOException("failed"));
+            }
+            if (this.delay <= 0L) {
+                return CompletableFuture.completedFuture(query);
+            }
+            return CompletableFuture.supplyAsync(() -> query, CompletableFuture.delayedExecutor(this.delay, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
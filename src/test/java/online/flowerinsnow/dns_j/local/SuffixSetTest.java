@@ -0,0 +1,118 @@
+package online.flowerinsnow.dns_j.local;
+
+import io.netty.handler.codec.CorruptedFrameException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SuffixSetTest {
+    @Test
+    void plainEntryMatchesApexAndSubdomains() {
+        SuffixSet set = SuffixSetTest.of("example.com");
+        assertTrue(SuffixSetTest.matches(set, "example.com"));
+        assertTrue(SuffixSetTest.matches(set, "www.example.com"));
+        assertTrue(SuffixSetTest.matches(set, "a.b.example.com"));
+        assertFalse(SuffixSetTest.matches(set, "com"));
+        assertFalse(SuffixSetTest.matches(set, "badexample.com"));
+        assertFalse(SuffixSetTest.matches(set, "example.org"));
+    }
+
+    @Test
+    void wildcardEntryMatchesOnlySubdomains() {
+        SuffixSet set = SuffixSetTest.of("*.example.com");
+        assertFalse(SuffixSetTest.matches(set, "example.com"));
+        assertTrue(SuffixSetTest.matches(set, "www.example.com"));
+        assertTrue(SuffixSetTest.matches(set, "a.b.example.com"));
+    }
+
+    @Test
+    void wildcardAndPlainCombine() {
+        SuffixSet set = SuffixSetTest.of("*.example.com", "example.com");
+        assertTrue(SuffixSetTest.matches(set, "example.com"));
+        assertTrue(SuffixSetTest.matches(set, "www.example.com"));
+    }
+
+    @Test
+    void deeperEntryDoesNotMatchParent() {
+        SuffixSet set = SuffixSetTest.of("ads.example.com");
+        assertFalse(SuffixSetTest.matches(set, "example.com"));
+        assertFalse(SuffixSetTest.matches(set, "www.example.com"));
+        assertTrue(SuffixSetTest.matches(set, "x.ads.example.com"));
+    }
+
+    @Test
+    void caseInsensitiveAndTrailingDot() {
+        SuffixSet set = SuffixSetTest.of("Example.COM.");
+        assertTrue(SuffixSetTest.matches(set, "WWW.example.com"));
+        assertTrue(SuffixSetTest.matches(set, "example.com"));
+    }
+
+    @Test
+    void invalidEntriesRejected() {
+        SuffixSet.Builder builder = new SuffixSet.Builder();
+        assertFalse(builder.add(""));
+        assertFalse(builder.add("a..b"));
+        assertFalse(builder.add("x".repeat(64) + ".com"));
+        assertTrue(builder.add("x".repeat(63) + ".com"));
+        assertEquals(1, builder.build().size());
+    }
+
+    @Test
+    void emptySetMatchesNothing() {
+        assertFalse(SuffixSetTest.matches(SuffixSet.empty(), "example.com"));
+    }
+
+    @Test
+    void compressedNameRejected() {
+        SuffixSet set = SuffixSetTest.of("example.com");
+        byte[] pointer = {(byte) 0xc0, 0x0c};
+        assertThrows(CorruptedFrameException.class, () -> set.matches(pointer, 0));
+    }
+
+    @Test
+    void manyEntries() {
+        SuffixSet.Builder builder = new SuffixSet.Builder();
+        for (int i = 0; i < 5000; i++) {
+            builder.add("host" + i + ".example");
+        }
+        SuffixSet set = builder.build();
+        assertEquals(5000, set.size());
+        assertTrue(SuffixSetTest.matches(set, "host0.example"));
+        assertTrue(SuffixSetTest.matches(set, "a.host4999.example"));
+        assertFalse(SuffixSetTest.matches(set, "host5000.example"));
+        assertFalse(SuffixSetTest.matches(set, "example"));
+    }
+
+    private static @NotNull SuffixSet of(@NotNull String... patterns) {
+        SuffixSet.Builder builder = new SuffixSet.Builder();
+        for (String pattern : patterns) {
+            assertTrue(builder.add(pattern), pattern);
+        }
+        return builder.build();
+    }
+
+    private static boolean matches(@NotNull SuffixSet set, @NotNull String name) {
+        return set.matches(SuffixSetTest.encode(name), 0);
+    }
+
+    /**
+     * @return 不带压缩指针的报文形式域名
+     */
+    private static @NotNull byte[] encode(@NotNull String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String label : name.split("\\.")) {
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes.length);
+            out.writeBytes(bytes);
+        }
+        out.write(0);
+        return out.toByteArray();
+    }
+}
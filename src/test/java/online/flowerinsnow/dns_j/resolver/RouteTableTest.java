@@ -0,0 +1,142 @@
+package online.flowerinsnow.dns_j.resolver;
+
+import online.flowerinsnow.dns_j.client.Upstream;
+import online.flowerinsnow.dns_j.client.UpstreamClient;
+import online.flowerinsnow.dns_j.client.UpstreamGroup;
+import online.flowerinsnow.dns_j.client.UpstreamStrategy;
+import online.flowerinsnow.dns_j.metrics.Metrics;
+import online.flowerinsnow.dns_j.util.DNSWire;
+import online.flowerinsnow.dns_j.util.MessageBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RouteTableTest {
+    @Test
+    void domainSuffix() {
+        assertEquals(List.of("corp.example"), RouteTable.suffixes("Corp.Example."));
+    }
+
+    @Test
+    void alignedCidr() {
+        assertEquals(List.of("10.in-addr.arpa"), RouteTable.suffixes("10.0.0.0/8"));
+        assertEquals(List.of("2.0.192.in-addr.arpa"), RouteTable.suffixes("192.0.2.0/24"));
+        assertEquals(List.of("1.2.0.192.in-addr.arpa"), RouteTable.suffixes("192.0.2.1/32"));
+        assertEquals(List.of("d.f.ip6.arpa"), RouteTable.suffixes("fd00::/8"));
+        assertEquals(List.of("8.b.d.0.1.0.0.2.ip6.arpa"), RouteTable.suffixes("2001:db8::/32"));
+    }
+
+    @Test
+    void unalignedCidrExpands() {
+        // /12 覆盖第二个字节的 16 - 31
+        List<String> suffixes = RouteTable.suffixes("172.16.0.0/12");
+        assertEquals(16, suffixes.size());
+        assertEquals("16.172.in-addr.arpa", suffixes.get(0));
+        assertEquals("31.172.in-addr.arpa", suffixes.get(15));
+
+        // 主机位不为 0 时按前缀对齐
+        assertEquals(List.of("2.0.192.in-addr.arpa", "3.0.192.in-addr.arpa"), RouteTable.suffixes("192.0.3.7/23"));
+
+        // fc00::/7 覆盖 fc 与 fd
+        assertEquals(List.of("c.f.ip6.arpa", "d.f.ip6.arpa"), RouteTable.suffixes("fc00::/7"));
+
+        // /0 覆盖整个反向解析区域
+        assertEquals(List.of("in-addr.arpa"), RouteTable.suffixes("0.0.0.0/0"));
+    }
+
+    @Test
+    void invalidCidr() {
+        assertThrows(IllegalArgumentException.class, () -> RouteTable.suffixes("10.0.0.0/33"));
+        assertThrows(IllegalArgumentException.class, () -> RouteTable.suffixes("10.0.0.0/x"));
+        assertThrows(IllegalArgumentException.class, () -> RouteTable.suffixes("not-an-ip/8"));
+        assertThrows(IllegalArgumentException.class, () -> new RouteTable.Builder().add("a..b", RouteTableTest.group()));
+    }
+
+    @Test
+    void longestSuffixWins() {
+        UpstreamGroup corp = RouteTableTest.group();
+        UpstreamGroup lab = RouteTableTest.group();
+        UpstreamGroup reverse = RouteTableTest.group();
+        RouteTable.Builder builder = new RouteTable.Builder();
+        builder.add("corp.example", corp);
+        builder.add("lab.corp.example", lab);
+        builder.add("10.0.0.0/8", reverse);
+        RouteTable table = builder.build();
+        assertEquals(3, table.size());
+
+        assertSame(corp, table.route(RouteTableTest.query("corp.example")));
+        assertSame(corp, table.route(RouteTableTest.query("www.CORP.example")));
+        assertSame(lab, table.route(RouteTableTest.query("lab.corp.example")));
+        assertSame(lab, table.route(RouteTableTest.query("a.b.lab.corp.example")));
+        assertSame(corp, table.route(RouteTableTest.query("xlab.corp.example")));
+        assertSame(reverse, table.route(RouteTableTest.query("4.3.2.10.in-addr.arpa")));
+
+        assertNull(table.route(RouteTableTest.query("example")));
+        assertNull(table.route(RouteTableTest.query("othercorp.example")));
+        assertNull(table.route(RouteTableTest.query("4.3.2.11.in-addr.arpa")));
+        assertNull(table.route(RouteTableTest.query("in-addr.arpa")));
+    }
+
+    @Test
+    void laterRuleOverridesSameSuffix() {
+        UpstreamGroup first = RouteTableTest.group();
+        UpstreamGroup second = RouteTableTest.group();
+        RouteTable.Builder builder = new RouteTable.Builder();
+        builder.add("corp.example", first);
+        builder.add("CORP.example.", second);
+        assertSame(second, builder.build().route(RouteTableTest.query("www.corp.example")));
+    }
+
+    @Test
+    void unroutableMessages() {
+        RouteTable.Builder builder = new RouteTable.Builder();
+        builder.add("corp.example", RouteTableTest.group());
+        RouteTable table = builder.build();
+        assertNull(table.route(new byte[4]));
+        assertNull(table.route(new MessageBuilder(1, 0x0100).build()));
+        // 压缩指针
+        byte[] pointer = MessageBuilder.query(1, "corp.example", DNSWire.TYPE_A).build();
+        pointer[DNSWire.HEADER_LENGTH] = (byte) 0xc0;
+        assertNull(table.route(pointer));
+    }
+
+    @Test
+    void manyRules() {
+        RouteTable.Builder builder = new RouteTable.Builder();
+        UpstreamGroup[] groups = new UpstreamGroup[200];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = RouteTableTest.group();
+            builder.add("zone" + i + ".example", groups[i]);
+        }
+        RouteTable table = builder.build();
+        for (int i = 0; i < groups.length; i++) {
+            assertSame(groups[i], table.route(RouteTableTest.query("host.zone" + i + ".example")));
+        }
+    }
+
+    private static @NotNull byte[] query(@NotNull String name) {
+        return MessageBuilder.query(1, name, DNSWire.TYPE_A).build();
+    }
+
+    private static @NotNull UpstreamGroup group() {
+        UpstreamClient client = new UpstreamClient() {
+            @Override
+            public @NotNull CompletableFuture<byte[]> query(@NotNull byte[] query) {
+                return new CompletableFuture<>();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        return new UpstreamGroup(List.of(new Upstream("test", client, 1, 0, 0L, 0L, new Metrics())),
+                UpstreamStrategy.FASTEST, false, 95, 0L);
+    }
+}
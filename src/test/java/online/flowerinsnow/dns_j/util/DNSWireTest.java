@@ -0,0 +1,148 @@
+package online.flowerinsnow.dns_j.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DNSWireTest {
+    private static final byte[] ADDRESS = {(byte) 192, 0, 2, 1};
+
+    @Test
+    void truncateKeepsQuestionAndOpt() {
+        byte[] response = new MessageBuilder(0x1234, 0x8180)
+                .question("example.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .opt(1232, true)
+                .build();
+        byte[] truncated = DNSWire.truncate(response);
+
+        byte[] expected = new MessageBuilder(0x1234, 0x8380)
+                .question("example.com", DNSWire.TYPE_A)
+                .opt(1232, true)
+                .build();
+        assertArrayEquals(expected, truncated);
+        assertTrue(DNSWire.isTruncated(truncated));
+        assertTrue(DNSWire.isDnssecOk(truncated));
+        assertEquals(1232, DNSWire.udpPayloadSize(truncated));
+    }
+
+    @Test
+    void truncateWithoutOpt() {
+        byte[] response = new MessageBuilder(7, 0x8180)
+                .question("example.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .build();
+        byte[] truncated = DNSWire.truncate(response);
+
+        assertArrayEquals(new MessageBuilder(7, 0x8380).question("example.com", DNSWire.TYPE_A).build(), truncated);
+        assertEquals(512, DNSWire.udpPayloadSize(truncated));
+    }
+
+    @Test
+    void truncateCorruptedKeepsHeader() {
+        byte[] response = new MessageBuilder(7, 0x8180)
+                .question("example.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .build();
+        byte[] truncated = DNSWire.truncate(Arrays.copyOf(response, 20));
+
+        assertEquals(DNSWire.HEADER_LENGTH, truncated.length);
+        assertEquals(0, DNSWire.count(truncated, DNSWire.SECTION_QUESTION));
+        assertTrue(DNSWire.isTruncated(truncated));
+    }
+
+    @Test
+    void decreaseTtl() {
+        byte[] response = new MessageBuilder(1, 0x8180)
+                .question("example.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 30L, ADDRESS)
+                .soa("example.com", 3600L, 60L)
+                .opt(1232, true)
+                .build();
+        DNSWire.decreaseTtl(response, 100L);
+
+        byte[] expected = new MessageBuilder(1, 0x8180)
+                .question("example.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 200L, ADDRESS)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 0L, ADDRESS)
+                .soa("example.com", 3500L, 60L)
+                // OPT 记录的 TTL 字段是扩展标志，不受影响
+                .opt(1232, true)
+                .build();
+        assertArrayEquals(expected, response);
+        assertEquals(0L, DNSWire.minTtl(response));
+    }
+
+    @Test
+    void decreaseTtlByZeroIsNoop() {
+        byte[] response = new MessageBuilder(1, 0x8180)
+                .question("example.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .build();
+        byte[] copy = response.clone();
+        DNSWire.decreaseTtl(response, 0L);
+        assertArrayEquals(copy, response);
+    }
+
+    @Test
+    void minTtlIgnoresOpt() {
+        byte[] response = new MessageBuilder(1, 0x8180)
+                .question("example.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .soa("example.com", 120L, 60L)
+                .opt(1232, false)
+                .build();
+        assertEquals(120L, DNSWire.minTtl(response));
+        assertEquals(-1L, DNSWire.minTtl(MessageBuilder.query(1, "example.com", DNSWire.TYPE_A).build()));
+    }
+
+    @Test
+    void sameQuestionIgnoresCase() {
+        byte[] query = MessageBuilder.query(1, "ExAmPlE.cOm", DNSWire.TYPE_A).build();
+        byte[] response = new MessageBuilder(1, 0x8180).question("example.com", DNSWire.TYPE_A).build();
+        assertTrue(DNSWire.sameQuestion(query, response));
+        assertFalse(DNSWire.sameQuestion(query, new MessageBuilder(1, 0x8180).question("example.com", DNSWire.TYPE_AAAA).build()));
+        assertFalse(DNSWire.sameQuestion(query, new MessageBuilder(1, 0x8180).question("example.org", DNSWire.TYPE_A).build()));
+    }
+
+    @Test
+    void copyQuestionNameRestoresCase() {
+        byte[] query = MessageBuilder.query(1, "ExAmPlE.cOm", DNSWire.TYPE_A).build();
+        byte[] response = new MessageBuilder(1, 0x8180)
+                .question("example.com", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .build();
+        DNSWire.copyQuestionName(query, response);
+        byte[] expected = new MessageBuilder(1, 0x8180)
+                .question("ExAmPlE.cOm", DNSWire.TYPE_A)
+                .record(DNSWire.SECTION_ANSWER, "example.com", DNSWire.TYPE_A, 300L, ADDRESS)
+                .build();
+        assertArrayEquals(expected, response);
+
+        byte[] other = new MessageBuilder(1, 0x8180).question("example.org", DNSWire.TYPE_A).build();
+        byte[] copy = other.clone();
+        DNSWire.copyQuestionName(query, other);
+        assertArrayEquals(copy, other);
+    }
+
+    @Test
+    void ednsFlags() {
+        byte[] query = new MessageBuilder(1, 0x0110).question("example.com", DNSWire.TYPE_A).opt(4096, true).build();
+        assertTrue(DNSWire.isDnssecOk(query));
+        assertTrue(DNSWire.isCheckingDisabled(query));
+        assertEquals(4096, DNSWire.udpPayloadSize(query));
+
+        byte[] plain = MessageBuilder.query(1, "example.com", DNSWire.TYPE_A).build();
+        assertFalse(DNSWire.isDnssecOk(plain));
+        assertFalse(DNSWire.isCheckingDisabled(plain));
+        // 小于 512 的声明按 512 处理
+        assertEquals(512, DNSWire.udpPayloadSize(new MessageBuilder(1, 0x0100).question("example.com", DNSWire.TYPE_A).opt(100, false).build()));
+    }
+}
@@ -0,0 +1,112 @@
+package online.flowerinsnow.dns_j.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>测试用的报文构造器，域名不使用压缩指针</p>
+ */
+public final class MessageBuilder {
+    private final int id;
+    private final int flags;
+    private final ByteArrayOutputStream[] sections = new ByteArrayOutputStream[4];
+    private final int[] counts = new int[4];
+
+    /**
+     * @param id 事务 ID
+     * @param flags 报头第 3、4 字节，如 {@code 0x0100}（查询，RD）或 {@code 0x8180}（响应，RD、RA）
+     */
+    public MessageBuilder(int id, int flags) {
+        this.id = id;
+        this.flags = flags;
+        for (int i = 0; i < this.sections.length; i++) {
+            this.sections[i] = new ByteArrayOutputStream();
+        }
+    }
+
+    public static @NotNull MessageBuilder query(int id, @NotNull String name, int type) {
+        return new MessageBuilder(id, 0x0100).question(name, type);
+    }
+
+    public @NotNull MessageBuilder question(@NotNull String name, int type) {
+        ByteArrayOutputStream out = this.sections[DNSWire.SECTION_QUESTION];
+        MessageBuilder.writeName(out, name);
+        MessageBuilder.writeShort(out, type);
+        MessageBuilder.writeShort(out, DNSWire.CLASS_IN);
+        this.counts[DNSWire.SECTION_QUESTION]++;
+        return this;
+    }
+
+    public @NotNull MessageBuilder record(int section, @NotNull String name, int type, long ttl, @NotNull byte[] rdata) {
+        return this.record(section, name, type, DNSWire.CLASS_IN, ttl, rdata);
+    }
+
+    /**
+     * @param payloadSize UDP 负载大小
+     * @param dnssecOk DO 标志
+     */
+    public @NotNull MessageBuilder opt(int payloadSize, boolean dnssecOk) {
+        return this.record(DNSWire.SECTION_ADDITIONAL, ".", DNSWire.TYPE_OPT, payloadSize, dnssecOk ? 0x8000L : 0L, new byte[0]);
+    }
+
+    /**
+     * @param minimum SOA 的 MINIMUM 字段
+     */
+    public @NotNull MessageBuilder soa(@NotNull String zone, long ttl, long minimum) {
+        ByteArrayOutputStream rdata = new ByteArrayOutputStream();
+        MessageBuilder.writeName(rdata, "ns." + zone);
+        MessageBuilder.writeName(rdata, "hostmaster." + zone);
+        for (long value : new long[]{1L, 3600L, 600L, 86400L, minimum}) {
+            MessageBuilder.writeInt(rdata, value);
+        }
+        return this.record(DNSWire.SECTION_AUTHORITY, zone, DNSWire.TYPE_SOA, ttl, rdata.toByteArray());
+    }
+
+    private @NotNull MessageBuilder record(int section, @NotNull String name, int type, int dnsClass, long ttl, @NotNull byte[] rdata) {
+        ByteArrayOutputStream out = this.sections[section];
+        MessageBuilder.writeName(out, name);
+        MessageBuilder.writeShort(out, type);
+        MessageBuilder.writeShort(out, dnsClass);
+        MessageBuilder.writeInt(out, ttl);
+        MessageBuilder.writeShort(out, rdata.length);
+        out.writeBytes(rdata);
+        this.counts[section]++;
+        return this;
+    }
+
+    public @NotNull byte[] build() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageBuilder.writeShort(out, this.id);
+        MessageBuilder.writeShort(out, this.flags);
+        for (int count : this.counts) {
+            MessageBuilder.writeShort(out, count);
+        }
+        for (ByteArrayOutputStream section : this.sections) {
+            out.writeBytes(section.toByteArray());
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeName(@NotNull ByteArrayOutputStream out, @NotNull String name) {
+        if (!name.equals(".")) {
+            for (String label : name.split("\\.")) {
+                byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+                out.write(bytes.length);
+                out.writeBytes(bytes);
+            }
+        }
+        out.write(0);
+    }
+
+    private static void writeShort(@NotNull ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(@NotNull ByteArrayOutputStream out, long value) {
+        MessageBuilder.writeShort(out, (int) (value >>> 16) & 0xffff);
+        MessageBuilder.writeShort(out, (int) value & 0xffff);
+    }
+}